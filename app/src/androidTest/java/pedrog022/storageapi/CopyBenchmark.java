@@ -0,0 +1,102 @@
+package pedrog022.storageapi;
+
+import android.content.Context;
+import android.os.Bundle;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.OutputStream;
+import java.util.Random;
+
+import pedrog022.storageapi.storageaccess.FileProvider;
+import pedrog022.storageapi.storageaccess.StorageAccess;
+
+import static org.junit.Assert.*;
+
+/**
+ * Compares copyFile against the old read-into-String copy on 1 MB and 1 GB files.
+ * Needs the storage permissions for the "StorageAccess" folder to be granted beforehand
+ * (run the app once). The 1 GB case only runs with -e largeCopy true.
+ */
+@RunWith(AndroidJUnit4.class)
+public class CopyBenchmark {
+    private static final String TAG = "CopyBenchmark";
+    private static final String FOLDER = "StorageAccess";
+
+    private FileProvider provider;
+
+    @Before
+    public void setUp() {
+        Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        provider = new StorageAccess(context, new String[]{FOLDER}).getFileProvider();
+    }
+
+    @After
+    public void tearDown() {
+        for (String name : new String[]{"bench-source.bin", "bench-native.bin", "bench-legacy.bin"}) {
+            try {
+                if (provider.exists(FOLDER + "/" + name))
+                    provider.deleteFile(FOLDER + "/" + name);
+            } catch (Exception ignored) {
+            }
+        }
+    }
+
+    @Test
+    public void copy_1MB() throws Exception {
+        compare(1024 * 1024);
+    }
+
+    @Test
+    public void copy_1GB() throws Exception {
+        Bundle arguments = InstrumentationRegistry.getArguments();
+
+        Assume.assumeTrue("Run with -e largeCopy true", "true".equals(arguments.getString("largeCopy")));
+
+        compare(1024L * 1024 * 1024);
+    }
+
+    private void compare(long size) throws Exception {
+        String source = FOLDER + "/bench-source.bin";
+        createSource(source, size);
+
+        long start = System.nanoTime();
+        provider.copyFile(source, FOLDER + "/bench-native.bin");
+        long nativeNanos = System.nanoTime() - start;
+
+        Log.d(TAG, String.format("%s copyFile, %d bytes: %d ms", provider.name(), size, nativeNanos / 1_000_000));
+
+        start = System.nanoTime();
+        try {
+            provider.createFile(FOLDER, "bench-legacy.bin");
+            provider.writeFile(FOLDER + "/bench-legacy.bin", provider.readFile(source));
+            Log.d(TAG, String.format("%s String round trip, %d bytes: %d ms", provider.name(), size,
+                    (System.nanoTime() - start) / 1_000_000));
+        } catch (OutOfMemoryError e) {
+            Log.d(TAG, String.format("%s String round trip, %d bytes: out of memory", provider.name(), size));
+        }
+
+        assertTrue(provider.exists(FOLDER + "/bench-native.bin"));
+    }
+
+    private void createSource(String path, long size) throws Exception {
+        provider.createFile(FOLDER, path.substring(path.lastIndexOf("/") + 1));
+
+        byte[] buffer = new byte[FileProvider.DEFAULT_CHUNK_SIZE];
+        new Random(7).nextBytes(buffer);
+
+        try (OutputStream outputStream = provider.openOutputStream(path)) {
+            for (long written = 0; written < size; written += buffer.length) {
+                outputStream.write(buffer, 0, (int) Math.min(buffer.length, size - written));
+            }
+        }
+    }
+}
@@ -26,7 +26,10 @@ public class MainActivity extends AppCompatActivity {
         storageAccess =
                 new StorageAccess(this, new String[]{filepath});
 
-        storageAccess.init();
+        storageAccess.initAsync(granted -> {
+            append(granted ? "Storage ready" : "Storage permissions requested");
+            binding.button.setEnabled(true);
+        });
 
         fileProvider = storageAccess.getFileProvider();
 
@@ -35,6 +38,7 @@ public class MainActivity extends AppCompatActivity {
         setContentView(binding.getRoot());
 
         getInfo();
+        binding.button.setEnabled(false);
         binding.button.setOnClickListener(v -> executeTests());
     }
 
@@ -154,7 +158,7 @@ public class MainActivity extends AppCompatActivity {
     @Override
     public void onRequestPermissionsResult(int requestCode, @NonNull String[] permissions, @NonNull int[] grantResults) {
         super.onRequestPermissionsResult(requestCode, permissions, grantResults);
-        new StorageAccess.LollipopFiles(this).onRequestPermissionResult(requestCode, permissions, grantResults);
+        storageAccess.onRequestPermissionsResult(requestCode, permissions, grantResults);
     }
 
     public void getInfo() {
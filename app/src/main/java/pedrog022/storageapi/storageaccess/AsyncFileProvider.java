@@ -0,0 +1,265 @@
+package pedrog022.storageapi.storageaccess;
+
+import android.os.Build;
+
+import androidx.annotation.RequiresApi;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+
+//Non blocking counterpart of FileProvider, every call runs on the IoScheduler and the returned
+//future completes on the callback executor. Dependent operations chain with thenCompose without
+//holding any thread while the previous one runs, cancelling a future interrupts its operation.
+@RequiresApi(api = Build.VERSION_CODES.N)
+public class AsyncFileProvider {
+    private final FileProvider provider;
+    private final IoScheduler scheduler;
+    private final Executor callbackExecutor;
+
+    private interface Action {
+        void run() throws Exception;
+    }
+
+    public AsyncFileProvider(FileProvider provider, IoScheduler scheduler, Executor callbackExecutor) {
+        this.provider = provider;
+        this.scheduler = scheduler;
+        this.callbackExecutor = callbackExecutor;
+    }
+
+    //The blocking provider used under the hood
+    public FileProvider getProvider() {
+        return provider;
+    }
+
+    public String name() {
+        return provider.name();
+    }
+
+    private <T> CompletableFuture<T> supply(Callable<T> callable) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+
+        try {
+            Future<?> task = scheduler.submit(() -> {
+                if (result.isDone())
+                    return null;
+
+                try {
+                    T value = callable.call();
+
+                    deliver(() -> {
+                        //Nobody will ever receive what was opened for a cancelled future
+                        if (!result.complete(value))
+                            closeQuietly(value);
+                    });
+                } catch (Throwable e) {
+                    deliver(() -> result.completeExceptionally(e));
+                }
+
+                return null;
+            });
+
+            result.whenComplete((value, error) -> {
+                if (result.isCancelled())
+                    task.cancel(true);
+            });
+        } catch (RuntimeException e) {
+            //Rejected by the scheduler's backpressure policy
+            result.completeExceptionally(e);
+        }
+
+        return result;
+    }
+
+    private void deliver(Runnable completion) {
+        try {
+            callbackExecutor.execute(completion);
+        } catch (RejectedExecutionException e) {
+            //A shut down callback executor must not leave the future pending forever
+            completion.run();
+        }
+    }
+
+    private static void closeQuietly(Object value) {
+        if (!(value instanceof Closeable))
+            return;
+
+        try {
+            ((Closeable) value).close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    private CompletableFuture<Void> run(Action action) {
+        return supply(() -> {
+            action.run();
+            return null;
+        });
+    }
+
+    /*--------------------------------------------------------------------------------------------*/
+
+    public CompletableFuture<String> readFile(String filepath) {
+        return supply(() -> provider.readFile(filepath));
+    }
+
+    public CompletableFuture<String> readFile(String filepath, Charset charset) {
+        return supply(() -> provider.readFile(filepath, charset));
+    }
+
+    //The consumer runs on the I/O thread, the future completes after the last line
+    public CompletableFuture<Void> forEachLine(String filepath, Charset charset, FileProvider.LineConsumer consumer) {
+        return run(() -> provider.forEachLine(filepath, charset, consumer));
+    }
+
+    public CompletableFuture<Void> createFile(String folderPath, String filename) {
+        return run(() -> provider.createFile(folderPath, filename));
+    }
+
+    public CompletableFuture<Void> createFolder(String folderPath) {
+        return run(() -> provider.createFolder(folderPath));
+    }
+
+    public CompletableFuture<Void> deleteFile(String filepath) {
+        return run(() -> provider.deleteFile(filepath));
+    }
+
+    public CompletableFuture<Void> cleanFolder(String folderPath) {
+        return run(() -> provider.cleanFolder(folderPath));
+    }
+
+    public CompletableFuture<Void> renameFile(String filepath, String newName) {
+        return run(() -> provider.renameFile(filepath, newName));
+    }
+
+    public CompletableFuture<Void> writeFile(String filepath, String content) {
+        return run(() -> provider.writeFile(filepath, content));
+    }
+
+    public CompletableFuture<Void> writeFile(String filepath, byte[] content, WriteOptions options) {
+        return run(() -> provider.writeFile(filepath, content, options));
+    }
+
+    public CompletableFuture<Void> writeFile(String filepath, String content, WriteOptions options) {
+        return run(() -> provider.writeFile(filepath, content, options));
+    }
+
+    public CompletableFuture<Boolean> isFile(String filepath) {
+        return supply(() -> provider.isFile(filepath));
+    }
+
+    public CompletableFuture<Boolean> isFolder(String filepath) {
+        return supply(() -> provider.isFolder(filepath));
+    }
+
+    public CompletableFuture<Boolean> exists(String filepath) {
+        return supply(() -> provider.exists(filepath));
+    }
+
+    public CompletableFuture<Map<String, FileEntry>> stat(String... paths) {
+        return supply(() -> provider.stat(paths));
+    }
+
+    public CompletableFuture<Void> copyFile(String originalFilepath, String newFilepath) {
+        return run(() -> provider.copyFile(originalFilepath, newFilepath));
+    }
+
+    public CompletableFuture<Void> moveFile(String filepath, String folderPath) {
+        return run(() -> provider.moveFile(filepath, folderPath));
+    }
+
+    public CompletableFuture<String[]> getFolderContent(String folderPath) {
+        return supply(() -> provider.getFolderContent(folderPath));
+    }
+
+    public FileBatch batch() {
+        return provider.batch();
+    }
+
+    public CompletableFuture<FileBatch.BatchResult> apply(FileBatch batch) {
+        return supply(batch::apply);
+    }
+
+    public CompletableFuture<Void> copyTree(String sourcePath, String targetPath, TreeOptions options) {
+        return run(() -> provider.copyTree(sourcePath, targetPath, options));
+    }
+
+    public CompletableFuture<Void> deleteTree(String path, TreeOptions options) {
+        return run(() -> provider.deleteTree(path, options));
+    }
+
+    public CompletableFuture<Void> cleanFolder(String folderPath, TreeOptions options) {
+        return run(() -> provider.cleanFolder(folderPath, options));
+    }
+
+    public CompletableFuture<Long> computeSize(String path, TreeOptions options) {
+        return supply(() -> provider.computeSize(path, options));
+    }
+
+    public CompletableFuture<List<FileEntry>> listEntries(String folderPath) {
+        return supply(() -> provider.listEntries(folderPath));
+    }
+
+    //Only opening happens on the I/O thread, reading from the result blocks like usual
+    public CompletableFuture<FileProvider.EntryIterator> iterateEntries(String folderPath, int pageSize) {
+        return supply(() -> provider.iterateEntries(folderPath, pageSize));
+    }
+
+    public CompletableFuture<FileProvider.LineIterator> lines(String filepath, Charset charset) {
+        return supply(() -> provider.lines(filepath, charset));
+    }
+
+    public CompletableFuture<InputStream> openInputStream(String filepath) {
+        return supply(() -> provider.openInputStream(filepath));
+    }
+
+    public CompletableFuture<OutputStream> openOutputStream(String filepath) {
+        return supply(() -> provider.openOutputStream(filepath));
+    }
+
+    public CompletableFuture<ReadableByteChannel> openReadableChannel(String filepath) {
+        return supply(() -> provider.openReadableChannel(filepath));
+    }
+
+    public CompletableFuture<WritableByteChannel> openWritableChannel(String filepath) {
+        return supply(() -> provider.openWritableChannel(filepath));
+    }
+
+    public CompletableFuture<FileChannel> openPositionalWriteChannel(String filepath) {
+        return supply(() -> provider.openPositionalWriteChannel(filepath));
+    }
+
+    //Registration happens on the I/O thread, the listener is still called on the watcher thread
+    public CompletableFuture<FileProvider.Watch> watch(String folderPath, WatchOptions options, FileProvider.WatchListener listener) {
+        return supply(() -> provider.watch(folderPath, options, listener));
+    }
+
+    public CompletableFuture<ByteBuffer> readRange(String filepath, long offset, int length) {
+        return supply(() -> provider.readRange(filepath, offset, length));
+    }
+
+    public CompletableFuture<ByteBuffer> map(String filepath) {
+        return supply(() -> provider.map(filepath));
+    }
+
+    public CompletableFuture<Void> readChunks(String filepath, int chunkSize, FileProvider.ChunkConsumer consumer) {
+        return run(() -> provider.readChunks(filepath, chunkSize, consumer));
+    }
+
+    public CompletableFuture<Void> writeChunks(String filepath, int chunkSize, FileProvider.ChunkProducer producer) {
+        return run(() -> provider.writeChunks(filepath, chunkSize, producer));
+    }
+}
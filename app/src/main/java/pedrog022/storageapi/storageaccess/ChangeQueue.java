@@ -0,0 +1,146 @@
+package pedrog022.storageapi.storageaccess;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+//Collects the raw events of one watch, merges them per path and hands them to the listener in
+//batches once the folder calmed down. Every watch delivers on the same "FileWatcher" thread.
+class ChangeQueue {
+    private static ScheduledThreadPoolExecutor executor;
+
+    private final FileProvider.WatchListener listener;
+    private final int maxPendingChanges;
+    private final long debounceNanos;
+    private final long maxDelayNanos;
+
+    private LinkedHashMap<String, FileChange.Type> pending = new LinkedHashMap<>();
+    private ScheduledFuture<?> flush;
+    private long firstChangeAt;
+    private long lastChangeAt;
+    private boolean overflowed;
+    private boolean closed;
+
+    ChangeQueue(WatchOptions options, FileProvider.WatchListener listener) {
+        this.listener = listener;
+        this.maxPendingChanges = options.getMaxPendingChanges();
+        this.debounceNanos = TimeUnit.MILLISECONDS.toNanos(options.getDebounceMillis());
+        this.maxDelayNanos = TimeUnit.MILLISECONDS.toNanos(options.getMaxDelayMillis());
+    }
+
+    static synchronized ScheduledThreadPoolExecutor executor() {
+        if (executor == null) {
+            executor = new ScheduledThreadPoolExecutor(1, runnable -> {
+                Thread thread = new Thread(runnable, "FileWatcher");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+
+        return executor;
+    }
+
+    synchronized void add(FileChange.Type type, String path) {
+        //Once changes were lost the listener has to rescan anyway, so nothing more is kept
+        if (closed || overflowed)
+            return;
+
+        FileChange.Type previous = pending.get(path);
+
+        if (previous == null && pending.size() >= maxPendingChanges) {
+            overflow();
+            return;
+        }
+
+        FileChange.Type merged = merge(previous, type);
+
+        if (merged == null)
+            pending.remove(path);
+        else
+            pending.put(path, merged);
+
+        scheduleFlush();
+    }
+
+    //Called when the backend itself lost events
+    synchronized void overflow() {
+        if (closed)
+            return;
+
+        overflowed = true;
+        pending = new LinkedHashMap<>();
+        scheduleFlush();
+    }
+
+    synchronized void close() {
+        closed = true;
+        pending = new LinkedHashMap<>();
+
+        if (flush != null) {
+            flush.cancel(false);
+            flush = null;
+        }
+    }
+
+    //Net effect of two changes on the same path, null when they cancel out
+    static FileChange.Type merge(FileChange.Type previous, FileChange.Type next) {
+        if (previous == null)
+            return next;
+
+        switch (previous) {
+            case CREATED:
+                return next == FileChange.Type.DELETED ? null : FileChange.Type.CREATED;
+            case DELETED:
+                return next == FileChange.Type.DELETED ? FileChange.Type.DELETED : FileChange.Type.MODIFIED;
+            case MODIFIED:
+            default:
+                return next == FileChange.Type.DELETED ? FileChange.Type.DELETED : FileChange.Type.MODIFIED;
+        }
+    }
+
+    private void scheduleFlush() {
+        long now = System.nanoTime();
+        lastChangeAt = now;
+
+        if (flush == null) {
+            firstChangeAt = now;
+            flush = executor().schedule(this::flush, debounceNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private void flush() {
+        ArrayList<FileChange> changes;
+        boolean lost;
+
+        synchronized (this) {
+            if (closed)
+                return;
+
+            long now = System.nanoTime();
+            long remaining = Math.min(debounceNanos - (now - lastChangeAt), maxDelayNanos - (now - firstChangeAt));
+
+            if (remaining > 0) {
+                flush = executor().schedule(this::flush, remaining, TimeUnit.NANOSECONDS);
+                return;
+            }
+
+            flush = null;
+            lost = overflowed;
+            overflowed = false;
+
+            changes = new ArrayList<>(pending.size());
+            for (Map.Entry<String, FileChange.Type> change : pending.entrySet())
+                changes.add(new FileChange(change.getValue(), change.getKey()));
+
+            pending = new LinkedHashMap<>();
+        }
+
+        if (lost)
+            listener.onOverflow();
+        else if (!changes.isEmpty())
+            listener.onChanges(changes);
+    }
+}
@@ -0,0 +1,596 @@
+package pedrog022.storageapi.storageaccess;
+
+import android.content.Context;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PushbackInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+//Decorator storing the files CompressionOptions selects as deflate frames, so fewer bytes cross
+//the storage boundary. Every frame starts with its uncompressed and compressed length, appends add
+//a frame instead of rewriting the file. Files are recognized by the frame magic, the ones stored as
+//they are read back untouched. Sizes are always uncompressed ones, so they line up with readRange
+//offsets. Listings, stat and computeSize read the frame headers of files the extensions select,
+//the others are never read.
+public class CompressedFileProvider implements FileProvider {
+    private static final int MAGIC = 0x89535A31;
+    private static final int HEADER_SIZE = 4 + 8 + 8;
+
+    private final FileProvider delegate;
+    private final CompressionOptions options;
+
+    public CompressedFileProvider(FileProvider delegate, CompressionOptions options) {
+        this.delegate = delegate;
+        this.options = options;
+    }
+
+    public CompressedFileProvider(FileProvider delegate) {
+        this(delegate, new CompressionOptions());
+    }
+
+    public FileProvider getDelegate() {
+        return delegate;
+    }
+
+    //Uncompressed length of a single file, one small range read per frame
+    public long size(String filepath) throws Exception {
+        FileEntry entry = delegate.stat(filepath).get(filepath);
+
+        if (entry == null || entry.isDirectory())
+            throw new FileNotFoundException(String.format("File not found: %s", filepath));
+
+        return uncompressedSize(filepath, entry.getSize());
+    }
+
+    public boolean isCompressed(String filepath) throws IOException {
+        ByteBuffer header = delegate.readRange(filepath, 0, HEADER_SIZE);
+        return header.remaining() >= 4 && header.getInt(header.position()) == MAGIC;
+    }
+
+    /*--------------------------------------------------------------------------------------------*/
+
+    @Override
+    public String name() {
+        return delegate.name();
+    }
+
+    @Override
+    public FileProvider init(Context context) {
+        delegate.init(context);
+        return this;
+    }
+
+    @Override
+    public String readFile(String filepath) throws IOException {
+        return readFile(filepath, DEFAULT_CHARSET);
+    }
+
+    @Override
+    public void createFile(String folderPath, String filename) throws Exception {
+        delegate.createFile(folderPath, filename);
+    }
+
+    @Override
+    public void createFolder(String folderPath) throws Exception {
+        delegate.createFolder(folderPath);
+    }
+
+    @Override
+    public void deleteFile(String filepath) throws Exception {
+        delegate.deleteFile(filepath);
+    }
+
+    @Override
+    public void cleanFolder(String folderPath) throws Exception {
+        delegate.cleanFolder(folderPath);
+    }
+
+    @Override
+    public void renameFile(String filepath, String newName) throws Exception {
+        delegate.renameFile(filepath, newName);
+    }
+
+    @Override
+    public void writeFile(String filepath, String content) throws IOException {
+        writeFile(filepath, content.getBytes(DEFAULT_CHARSET), new WriteOptions());
+    }
+
+    @Override
+    public void writeFile(String filepath, byte[] content, WriteOptions options) throws IOException {
+        boolean compress = this.options.shouldCompress(nameOf(filepath), content.length);
+        boolean frameRequired = false;
+
+        //A compressed file keeps getting frames, bytes appended to a plain one stay plain
+        if (options.getMode() == WriteOptions.Mode.APPEND) {
+            ByteBuffer header = delegate.readRange(filepath, 0, HEADER_SIZE);
+
+            if (header.remaining() > 0) {
+                frameRequired = header.remaining() >= 4 && header.getInt(header.position()) == MAGIC;
+                compress = frameRequired;
+            }
+        }
+
+        delegate.writeFile(filepath, compress ? encode(content, frameRequired) : content, options);
+    }
+
+    @Override
+    public boolean isFile(String filepath) {
+        return delegate.isFile(filepath);
+    }
+
+    @Override
+    public boolean isFolder(String filepath) {
+        return delegate.isFolder(filepath);
+    }
+
+    @Override
+    public boolean exists(String filePath) {
+        return delegate.exists(filePath);
+    }
+
+    @Override
+    public Map<String, FileEntry> stat(String... paths) throws Exception {
+        LinkedHashMap<String, FileEntry> entries = new LinkedHashMap<>();
+
+        for (Map.Entry<String, FileEntry> entry : delegate.stat(paths).entrySet())
+            entries.put(entry.getKey(), logical(entry.getKey(), entry.getValue()));
+
+        return entries;
+    }
+
+    //Copies, moves and tree operations work on the stored bytes as they are
+
+    @Override
+    public void copyFile(String originalFilepath, String newFilepath) throws Exception {
+        delegate.copyFile(originalFilepath, newFilepath);
+    }
+
+    @Override
+    public void moveFile(String filepath, String folderPath) throws Exception {
+        delegate.moveFile(filepath, folderPath);
+    }
+
+    @Override
+    public String[] getFolderContent(String folderPath) throws Exception {
+        return delegate.getFolderContent(folderPath);
+    }
+
+    @Override
+    public FileBatch batch() {
+        FileBatch.Runner runner = delegate.batch().getRunner();
+
+        //Batch writes always replace the whole file, as TRUNCATE does, so each one is stored as a
+        //single frame. Appends go through writeFile.
+        return new FileBatch(operations -> {
+            ArrayList<FileBatch.Operation> encoded = new ArrayList<>(operations.size());
+
+            for (FileBatch.Operation operation : operations) {
+                byte[] content = operation.getContent();
+
+                if (operation.getType() == FileBatch.Type.WRITE && options.shouldCompress(operation.getName(), content.length))
+                    operation = operation.withContent(encode(content, false));
+
+                encoded.add(operation);
+            }
+
+            return runner.run(encoded);
+        });
+    }
+
+    @Override
+    public void copyTree(String sourcePath, String targetPath, TreeOptions options) throws Exception {
+        delegate.copyTree(sourcePath, targetPath, options);
+    }
+
+    @Override
+    public void deleteTree(String path, TreeOptions options) throws Exception {
+        delegate.deleteTree(path, options);
+    }
+
+    @Override
+    public void cleanFolder(String folderPath, TreeOptions options) throws Exception {
+        delegate.cleanFolder(folderPath, options);
+    }
+
+    //Walks this provider's listings, so the sizes are uncompressed ones
+    @Override
+    public long computeSize(String path, TreeOptions options) throws Exception {
+        return TreeOperations.computeSize(this, path, options);
+    }
+
+    @Override
+    public List<FileEntry> listEntries(String folderPath) throws Exception {
+        List<FileEntry> stored = delegate.listEntries(folderPath);
+        ArrayList<FileEntry> entries = new ArrayList<>(stored.size());
+
+        for (FileEntry entry : stored)
+            entries.add(logical(childPath(folderPath, entry.getName()), entry));
+
+        return entries;
+    }
+
+    @Override
+    public EntryIterator iterateEntries(String folderPath, int pageSize) throws Exception {
+        EntryIterator entries = delegate.iterateEntries(folderPath, pageSize);
+
+        return new EntryIterator() {
+            @Override
+            public boolean hasNext() {
+                return entries.hasNext();
+            }
+
+            @Override
+            public FileEntry next() {
+                FileEntry entry = entries.next();
+                return logical(childPath(folderPath, entry.getName()), entry);
+            }
+
+            @Override
+            public void close() throws IOException {
+                entries.close();
+            }
+        };
+    }
+
+    @Override
+    public InputStream openInputStream(String filepath) throws IOException {
+        PushbackInputStream input = new PushbackInputStream(delegate.openInputStream(filepath), 4);
+
+        try {
+            byte[] magic = new byte[4];
+            int length = 0;
+            int read;
+
+            while (length < magic.length && (read = input.read(magic, length, magic.length - length)) != -1)
+                length += read;
+
+            input.unread(magic, 0, length);
+
+            if (length == magic.length && ByteBuffer.wrap(magic).getInt() == MAGIC)
+                return new InflatingInputStream(input);
+
+            return input;
+        } catch (IOException e) {
+            input.close();
+            throw e;
+        }
+    }
+
+    //Compressed when the options select the file, the header is completed once the stream is closed
+    @Override
+    public OutputStream openOutputStream(String filepath) throws IOException {
+        OutputStream output = delegate.openOutputStream(filepath);
+
+        if (!options.shouldCompress(nameOf(filepath), -1))
+            return output;
+
+        return new DeflatingOutputStream(filepath, output);
+    }
+
+    @Override
+    public ReadableByteChannel openReadableChannel(String filepath) throws IOException {
+        return Channels.newChannel(openInputStream(filepath));
+    }
+
+    @Override
+    public WritableByteChannel openWritableChannel(String filepath) throws IOException {
+        return Channels.newChannel(openOutputStream(filepath));
+    }
+
+    //Positional writes go to the stored bytes, so they're refused on a compressed file
+    @Override
+    public FileChannel openPositionalWriteChannel(String filepath) throws IOException {
+        if (isCompressed(filepath))
+            throw new IOException(String.format("Positional writes aren't supported on compressed files: %s", filepath));
+
+        return delegate.openPositionalWriteChannel(filepath);
+    }
+
+    //Compressed files are decompressed up to the end of the range
+    @Override
+    public ByteBuffer readRange(String filepath, long offset, int length) throws IOException {
+        if (!isCompressed(filepath))
+            return delegate.readRange(filepath, offset, length);
+
+        try (InputStream input = openInputStream(filepath)) {
+            long skipped = 0;
+
+            while (skipped < offset) {
+                long step = input.skip(offset - skipped);
+
+                if (step <= 0)
+                    return ByteBuffer.allocate(0);
+
+                skipped += step;
+            }
+
+            byte[] range = new byte[length];
+            int filled = 0;
+            int read;
+
+            while (filled < length && (read = input.read(range, filled, length - filled)) != -1)
+                filled += read;
+
+            return ByteBuffer.wrap(range, 0, filled).slice();
+        }
+    }
+
+    //Compressed files are decompressed to the heap
+    @Override
+    public ByteBuffer map(String filepath) throws IOException {
+        if (!isCompressed(filepath))
+            return delegate.map(filepath);
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        readChunks(filepath, DEFAULT_CHUNK_SIZE, (buffer, length) -> output.write(buffer, 0, length));
+
+        return ByteBuffer.wrap(output.toByteArray());
+    }
+
+    @Override
+    public Watch watch(String folderPath, WatchOptions options, WatchListener listener) throws Exception {
+        return delegate.watch(folderPath, options, listener);
+    }
+
+    /*--------------------------------------------------------------------------------------------*/
+
+    //Whole content as one frame. Content that doesn't shrink is kept as it is, unless it's appended
+    //to a compressed file.
+    private byte[] encode(byte[] content, boolean frameRequired) {
+        Deflater deflater = new Deflater(options.getLevel());
+        ByteArrayOutputStream output = new ByteArrayOutputStream(HEADER_SIZE + content.length / 2 + 64);
+        output.write(new byte[HEADER_SIZE], 0, HEADER_SIZE);
+
+        try {
+            byte[] buffer = new byte[DEFAULT_CHUNK_SIZE];
+            deflater.setInput(content);
+            deflater.finish();
+
+            while (!deflater.finished())
+                output.write(buffer, 0, deflater.deflate(buffer));
+        } finally {
+            deflater.end();
+        }
+
+        byte[] frame = output.toByteArray();
+
+        if (!frameRequired && frame.length >= content.length)
+            return content;
+
+        ByteBuffer.wrap(frame).putInt(MAGIC).putLong(content.length).putLong(frame.length - HEADER_SIZE);
+        return frame;
+    }
+
+    private long uncompressedSize(String filepath, long storedSize) throws IOException {
+        long size = 0;
+        long offset = 0;
+
+        while (offset < storedSize) {
+            ByteBuffer header = delegate.readRange(filepath, offset, HEADER_SIZE);
+
+            if (header.remaining() < HEADER_SIZE || header.getInt() != MAGIC) {
+                if (offset == 0)
+                    return storedSize;
+
+                throw new IOException(String.format("Corrupt compressed file: %s", filepath));
+            }
+
+            size += header.getLong();
+            offset += HEADER_SIZE + header.getLong();
+        }
+
+        return size;
+    }
+
+    //Only files the extensions select can be compressed, the others keep their entry without a read
+    private FileEntry logical(String filepath, FileEntry entry) {
+        if (entry == null || entry.isDirectory() || entry.getSize() < HEADER_SIZE || !options.matches(entry.getName()))
+            return entry;
+
+        long size;
+        try {
+            size = uncompressedSize(filepath, entry.getSize());
+        } catch (IOException e) {
+            //A file still being streamed has no lengths yet, a listing shouldn't fail over it
+            return entry;
+        }
+
+        return new FileEntry(entry.getName(), false, size, entry.getLastModified(), entry.getDocumentId());
+    }
+
+    private static String childPath(String folderPath, String name) {
+        return folderPath.isEmpty() || folderPath.endsWith("/") ? folderPath + name : folderPath + "/" + name;
+    }
+
+    private static String nameOf(String path) {
+        return path.substring(path.lastIndexOf("/") + 1);
+    }
+
+    /*--------------------------------------------------------------------------------------------*/
+
+    //Inflates frame after frame, each one bounded by the compressed length in its header
+    private static class InflatingInputStream extends InputStream {
+        private final DataInputStream input;
+        private final Inflater inflater = new Inflater();
+        private final byte[] buffer = new byte[DEFAULT_CHUNK_SIZE];
+        private final byte[] single = new byte[1];
+        private long remaining;
+        private boolean frameDone = true;
+
+        InflatingInputStream(InputStream input) {
+            this.input = new DataInputStream(input);
+        }
+
+        @Override
+        public int read() throws IOException {
+            return read(single, 0, 1) == -1 ? -1 : single[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0)
+                return 0;
+
+            while (true) {
+                if (frameDone && !nextFrame())
+                    return -1;
+
+                int inflated;
+                try {
+                    inflated = inflater.inflate(b, off, len);
+                } catch (DataFormatException e) {
+                    throw new IOException("Corrupt compressed frame", e);
+                }
+
+                if (inflated > 0)
+                    return inflated;
+
+                if (inflater.finished()) {
+                    frameDone = true;
+                } else if (inflater.needsInput()) {
+                    if (remaining == 0)
+                        throw new EOFException("Truncated compressed frame");
+
+                    int read = input.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+
+                    if (read == -1)
+                        throw new EOFException("Truncated compressed frame");
+
+                    remaining -= read;
+                    inflater.setInput(buffer, 0, read);
+                } else if (inflater.needsDictionary()) {
+                    throw new IOException("Corrupt compressed frame");
+                }
+            }
+        }
+
+        private boolean nextFrame() throws IOException {
+            while (remaining > 0) {
+                int skipped = input.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+
+                if (skipped == -1)
+                    throw new EOFException("Truncated compressed frame");
+
+                remaining -= skipped;
+            }
+
+            int first = input.read();
+
+            if (first == -1)
+                return false;
+
+            byte[] header = new byte[HEADER_SIZE];
+            header[0] = (byte) first;
+            input.readFully(header, 1, HEADER_SIZE - 1);
+
+            ByteBuffer frame = ByteBuffer.wrap(header);
+            if (frame.getInt() != MAGIC)
+                throw new IOException("Corrupt compressed file");
+
+            frame.getLong();
+            remaining = frame.getLong();
+            inflater.reset();
+            frameDone = false;
+
+            return true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                input.close();
+            } finally {
+                inflater.end();
+            }
+        }
+    }
+
+    private class DeflatingOutputStream extends OutputStream {
+        private final String filepath;
+        private final OutputStream output;
+        private final Deflater deflater = new Deflater(options.getLevel());
+        private final byte[] buffer = new byte[DEFAULT_CHUNK_SIZE];
+        private long uncompressed;
+        private long compressed;
+        private boolean closed;
+
+        DeflatingOutputStream(String filepath, OutputStream output) throws IOException {
+            this.filepath = filepath;
+            this.output = output;
+
+            //Lengths stay zero until close, an unfinished file reads as truncated
+            output.write(ByteBuffer.allocate(HEADER_SIZE).putInt(MAGIC).array());
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            deflater.setInput(b, off, len);
+            uncompressed += len;
+
+            while (!deflater.needsInput())
+                drain();
+        }
+
+        private void drain() throws IOException {
+            int length = deflater.deflate(buffer);
+
+            if (length > 0) {
+                output.write(buffer, 0, length);
+                compressed += length;
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            output.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed)
+                return;
+
+            closed = true;
+
+            try {
+                deflater.finish();
+
+                while (!deflater.finished())
+                    drain();
+            } finally {
+                deflater.end();
+                output.close();
+            }
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).putInt(MAGIC).putLong(uncompressed).putLong(compressed);
+            header.flip();
+
+            try (FileChannel channel = delegate.openPositionalWriteChannel(filepath)) {
+                while (header.hasRemaining())
+                    channel.write(header, header.position());
+            }
+        }
+    }
+}
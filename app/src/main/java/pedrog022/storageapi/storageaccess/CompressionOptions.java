@@ -0,0 +1,63 @@
+package pedrog022.storageapi.storageaccess;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.zip.Deflater;
+
+//Settings of CompressedFileProvider
+public class CompressionOptions {
+    public static final int DEFAULT_MINIMUM_SIZE = 1024;
+
+    private final HashSet<String> extensions = new HashSet<>(Arrays.asList(
+            "json", "txt", "log", "xml", "csv", "html", "js", "css", "svg", "yml", "yaml", "ini", "cfg", "properties"));
+    private int minimumSize = DEFAULT_MINIMUM_SIZE;
+    private int level = Deflater.BEST_SPEED;
+
+    //Only files with these extensions are compressed, replaces the text formats used by default
+    public CompressionOptions setExtensions(String... extensions) {
+        this.extensions.clear();
+
+        for (String extension : extensions)
+            this.extensions.add(extension.toLowerCase(Locale.US));
+
+        return this;
+    }
+
+    //Smaller writes are stored as they are, the frame isn't worth it. Streams are always compressed,
+    //their size isn't known up front.
+    public CompressionOptions setMinimumSize(int minimumSize) {
+        if (minimumSize < 0)
+            throw new IllegalArgumentException("Minimum size can't be negative!");
+
+        this.minimumSize = minimumSize;
+        return this;
+    }
+
+    //Deflater level, from BEST_SPEED (the default) to BEST_COMPRESSION
+    public CompressionOptions setLevel(int level) {
+        if (level < Deflater.BEST_SPEED || level > Deflater.BEST_COMPRESSION)
+            throw new IllegalArgumentException(String.format("Invalid compression level: %d", level));
+
+        this.level = level;
+        return this;
+    }
+
+    public int getMinimumSize() {
+        return minimumSize;
+    }
+
+    public int getLevel() {
+        return level;
+    }
+
+    public boolean matches(String filename) {
+        int dot = filename.lastIndexOf('.');
+        return dot >= 0 && extensions.contains(filename.substring(dot + 1).toLowerCase(Locale.US));
+    }
+
+    //size is -1 when it isn't known
+    boolean shouldCompress(String filename, long size) {
+        return matches(filename) && (size < 0 || size >= minimumSize);
+    }
+}
@@ -0,0 +1,476 @@
+package pedrog022.storageapi.storageaccess;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import pedrog022.storageapi.utils.Utils;
+
+//Content-addressed layer over a FileProvider. Every distinct content is stored once as a blob named
+//after its hash in a hidden objects folder, logical paths only point at blobs through an index.
+//Storing content that already exists, or copying a logical path, costs an index entry instead of
+//a write. The index is kept in memory and persisted by flush(), blobs that lost their last path
+//are only deleted once an index without them is written.
+public class ContentStore {
+    private static final String FORMAT = "ContentStore/1";
+    private static final String OBJECTS_FOLDER = ".objects";
+    private static final String INDEX_NAME = "index";
+    private static final String INCOMING_PREFIX = ".incoming-";
+
+    //Temporary files of ATOMIC writes, "<name>.atomic" on QFiles and ".<name>-<random>.tmp" on KitKatFiles
+    private static final String ATOMIC_SUFFIX = ".atomic";
+    private static final String TEMPORARY_SUFFIX = ".tmp";
+
+    private final FileProvider provider;
+    private final String objectsPath;
+    private final String hashAlgorithm;
+
+    //Logical path -> blob name, blob name -> number of paths pointing at it
+    private final HashMap<String, String> paths;
+    private final HashMap<String, Integer> references = new HashMap<>();
+    private final HashSet<String> writing = new HashSet<>();
+    private final HashSet<String> unreferenced = new HashSet<>();
+    private final Object flushLock = new Object();
+    private int flushing;
+    private final AtomicInteger incoming = new AtomicInteger();
+    private boolean dirty;
+
+    private final AtomicLong bytesWritten = new AtomicLong();
+    private final AtomicLong bytesDeduplicated = new AtomicLong();
+
+    private ContentStore(FileProvider provider, String objectsPath, String hashAlgorithm, HashMap<String, String> paths) {
+        this.provider = provider;
+        this.objectsPath = objectsPath;
+        this.hashAlgorithm = hashAlgorithm;
+        this.paths = paths;
+
+        for (String blob : paths.values())
+            retain(blob);
+    }
+
+    //Loads the index below rootPath, or starts an empty store. hashAlgorithm is a MessageDigest
+    //name such as "SHA-256" and must match the one the store was created with.
+    public static ContentStore open(FileProvider provider, String rootPath, String hashAlgorithm) throws Exception {
+        try {
+            MessageDigest.getInstance(hashAlgorithm);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalArgumentException(String.format("Unknown hash algorithm: %s", hashAlgorithm));
+        }
+
+        if (rootPath.endsWith("/"))
+            rootPath = rootPath.substring(0, rootPath.length() - 1);
+
+        String objectsPath = rootPath.isEmpty() ? OBJECTS_FOLDER : rootPath + "/" + OBJECTS_FOLDER;
+
+        if (!provider.isFolder(objectsPath)) {
+            provider.createFolder(objectsPath);
+            return new ContentStore(provider, objectsPath, hashAlgorithm, new HashMap<>());
+        }
+
+        String indexPath = objectsPath + "/" + INDEX_NAME;
+
+        if (!provider.exists(indexPath))
+            return new ContentStore(provider, objectsPath, hashAlgorithm, new HashMap<>());
+
+        return new ContentStore(provider, objectsPath, hashAlgorithm, readIndex(provider, indexPath, hashAlgorithm));
+    }
+
+    public String getHashAlgorithm() {
+        return hashAlgorithm;
+    }
+
+    //Bytes that reached the storage as new blobs
+    public long getBytesWritten() {
+        return bytesWritten.get();
+    }
+
+    //Bytes that were stored or copied without being written, because the blob already existed
+    public long getBytesDeduplicated() {
+        return bytesDeduplicated.get();
+    }
+
+    /*--------------------------------------------------------------------------------------------*/
+
+    //Hashes the stream while writing it to a temporary blob, which is dropped if the content
+    //turns out to be stored already. Returns the hex hash of the content.
+    public String put(String logicalPath, InputStream input) throws Exception {
+        MessageDigest digest = MessageDigest.getInstance(hashAlgorithm);
+        String temporaryName = INCOMING_PREFIX + System.nanoTime() + "-" + incoming.incrementAndGet();
+        String temporaryPath = objectsPath + "/" + temporaryName;
+        long size = 0;
+
+        synchronized (this) {
+            writing.add(temporaryName);
+        }
+
+        try (InputStream source = input; OutputStream output = openIncoming(temporaryName)) {
+            byte[] buffer = new byte[FileProvider.DEFAULT_CHUNK_SIZE];
+            int read;
+
+            while ((read = source.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+                output.write(buffer, 0, read);
+                size += read;
+            }
+        } catch (Exception e) {
+            synchronized (this) {
+                writing.remove(temporaryName);
+            }
+
+            if (provider.exists(temporaryPath))
+                provider.deleteFile(temporaryPath);
+
+            throw e;
+        }
+
+        String blob = IndexCodec.toHex(digest.digest());
+
+        synchronized (this) {
+            writing.remove(temporaryName);
+
+            if (hasBlob(blob)) {
+                provider.deleteFile(temporaryPath);
+                bytesDeduplicated.addAndGet(size);
+            } else {
+                provider.renameFile(temporaryPath, blob);
+                bytesWritten.addAndGet(size);
+            }
+
+            point(logicalPath, blob);
+        }
+
+        return blob;
+    }
+
+    public String put(String logicalPath, byte[] content) throws Exception {
+        MessageDigest digest = MessageDigest.getInstance(hashAlgorithm);
+        String blob = IndexCodec.toHex(digest.digest(content));
+
+        synchronized (this) {
+            if (hasBlob(blob)) {
+                bytesDeduplicated.addAndGet(content.length);
+            } else {
+                provider.writeFile(objectsPath + "/" + blob, content, new WriteOptions().setMode(WriteOptions.Mode.ATOMIC));
+                bytesWritten.addAndGet(content.length);
+            }
+
+            point(logicalPath, blob);
+        }
+
+        return blob;
+    }
+
+    //Replacement for copyFile into the store: the source is only read to hash it, and copied into
+    //a blob only when its content isn't stored yet
+    public String importFile(String sourcePath, String logicalPath) throws Exception {
+        MessageDigest digest = MessageDigest.getInstance(hashAlgorithm);
+        long[] size = new long[1];
+
+        provider.readChunks(sourcePath, FileProvider.DEFAULT_CHUNK_SIZE, (buffer, length) -> {
+            digest.update(buffer, 0, length);
+            size[0] += length;
+        });
+
+        String blob = IndexCodec.toHex(digest.digest());
+
+        synchronized (this) {
+            if (hasBlob(blob)) {
+                bytesDeduplicated.addAndGet(size[0]);
+            } else {
+                provider.copyFile(sourcePath, objectsPath + "/" + blob);
+                bytesWritten.addAndGet(size[0]);
+            }
+
+            point(logicalPath, blob);
+        }
+
+        return blob;
+    }
+
+    //Only adds an index entry
+    public synchronized void copy(String logicalPath, String newLogicalPath) throws FileNotFoundException {
+        String blob = blobOf(logicalPath);
+
+        if (!blob.equals(paths.get(newLogicalPath)))
+            bytesDeduplicated.addAndGet(sizeOf(blob));
+
+        point(newLogicalPath, blob);
+    }
+
+    public synchronized void remove(String logicalPath) throws Exception {
+        String blob = paths.remove(logicalPath);
+
+        if (blob == null)
+            throw new FileNotFoundException(String.format("Not in the store: %s", logicalPath));
+
+        dirty = true;
+        release(blob);
+    }
+
+    public synchronized boolean contains(String logicalPath) {
+        return paths.containsKey(logicalPath);
+    }
+
+    //Hex hash of the content behind a logical path
+    public synchronized String hashOf(String logicalPath) throws FileNotFoundException {
+        return blobOf(logicalPath);
+    }
+
+    public synchronized List<String> list() {
+        ArrayList<String> list = new ArrayList<>(paths.keySet());
+        Collections.sort(list);
+        return list;
+    }
+
+    public InputStream open(String logicalPath) throws IOException {
+        return provider.openInputStream(blobPath(logicalPath));
+    }
+
+    //Path of the blob in the underlying provider, it must be treated as read only
+    public synchronized String blobPath(String logicalPath) throws FileNotFoundException {
+        return objectsPath + "/" + blobOf(logicalPath);
+    }
+
+    //Places a copy of the content at targetPath, changing it never affects the store
+    public void materialize(String logicalPath, String targetPath) throws Exception {
+        provider.copyFile(blobPath(logicalPath), targetPath);
+    }
+
+    //Persists the index, then deletes the blobs it no longer points at. Safe to call after every
+    //batch of changes.
+    public void flush() throws Exception {
+        //Flushes are serialized so an older index never replaces a newer one
+        synchronized (flushLock) {
+            byte[] index;
+            HashSet<String> deletable;
+
+            synchronized (this) {
+                deletable = new HashSet<>(unreferenced);
+
+                if (!dirty) {
+                    deleteUnreferenced(deletable);
+                    return;
+                }
+
+                index = writeIndex();
+                dirty = false;
+                flushing++;
+            }
+
+            try {
+                provider.writeFile(objectsPath + "/" + INDEX_NAME, index, new WriteOptions().setMode(WriteOptions.Mode.ATOMIC));
+            } catch (Exception e) {
+                synchronized (this) {
+                    dirty = true;
+                }
+
+                throw e;
+            } finally {
+                synchronized (this) {
+                    flushing--;
+                }
+            }
+
+            synchronized (this) {
+                deleteUnreferenced(deletable);
+            }
+        }
+    }
+
+    //Flushes, then deletes blobs no path points at and temporary files of writes that were
+    //interrupted, left behind by a crash or by a store that was never flushed. Other files in the
+    //objects folder are left alone. Returns the number of deleted files.
+    public int prune() throws Exception {
+        flush();
+
+        synchronized (this) {
+            int deleted = 0;
+
+            for (String name : provider.getFolderContent(objectsPath)) {
+                boolean orphan;
+
+                if (name.startsWith(INCOMING_PREFIX))
+                    orphan = !writing.contains(name);
+                else if (isAtomicTemporary(name))
+                    orphan = flushing == 0;
+                else
+                    orphan = isBlobName(name) && !references.containsKey(name);
+
+                if (!orphan)
+                    continue;
+
+                provider.deleteFile(objectsPath + "/" + name);
+                unreferenced.remove(name);
+                deleted++;
+            }
+
+            return deleted;
+        }
+    }
+
+    /*--------------------------------------------------------------------------------------------*/
+
+    private OutputStream openIncoming(String temporaryName) throws Exception {
+        provider.createFile(objectsPath, temporaryName);
+        return provider.openOutputStream(objectsPath + "/" + temporaryName);
+    }
+
+    private boolean hasBlob(String blob) {
+        return references.containsKey(blob) || provider.exists(objectsPath + "/" + blob);
+    }
+
+    private String blobOf(String logicalPath) throws FileNotFoundException {
+        String blob = paths.get(logicalPath);
+
+        if (blob == null)
+            throw new FileNotFoundException(String.format("Not in the store: %s", logicalPath));
+
+        return blob;
+    }
+
+    private long sizeOf(String blob) {
+        String blobPath = objectsPath + "/" + blob;
+
+        try {
+            FileEntry entry = provider.stat(blobPath).get(blobPath);
+            return entry == null ? 0 : entry.getSize();
+        } catch (Exception e) {
+            return 0;
+        }
+    }
+
+    //Index and blob writes are ATOMIC, so their temporary files are named after them
+    private static boolean isAtomicTemporary(String name) {
+        if (name.endsWith(ATOMIC_SUFFIX))
+            return isStoreFile(name.substring(0, name.length() - ATOMIC_SUFFIX.length()));
+
+        int dash = name.indexOf('-');
+        return name.startsWith(".") && name.endsWith(TEMPORARY_SUFFIX) && dash > 1 && isStoreFile(name.substring(1, dash));
+    }
+
+    private static boolean isStoreFile(String name) {
+        return name.equals(INDEX_NAME) || isBlobName(name);
+    }
+
+    private static boolean isBlobName(String name) {
+        if (name.isEmpty())
+            return false;
+
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+
+            if ((c < '0' || c > '9') && (c < 'a' || c > 'f'))
+                return false;
+        }
+
+        return true;
+    }
+
+    private void point(String logicalPath, String blob) {
+        String previous = paths.put(logicalPath, blob);
+        dirty = true;
+
+        if (blob.equals(previous))
+            return;
+
+        retain(blob);
+
+        if (previous != null)
+            release(previous);
+    }
+
+    private void retain(String blob) {
+        Integer count = references.get(blob);
+        references.put(blob, count == null ? 1 : count + 1);
+        unreferenced.remove(blob);
+    }
+
+    //The blob stays until flush(), the index on the storage may still point at it
+    private void release(String blob) {
+        int count = references.get(blob) - 1;
+
+        if (count > 0) {
+            references.put(blob, count);
+            return;
+        }
+
+        references.remove(blob);
+        unreferenced.add(blob);
+    }
+
+    //Only called with blobs the index on the storage no longer points at. Blobs that got a path
+    //again in the meantime are kept.
+    private void deleteUnreferenced(HashSet<String> blobs) {
+        for (String blob : blobs) {
+            if (!unreferenced.remove(blob))
+                continue;
+
+            try {
+                provider.deleteFile(objectsPath + "/" + blob);
+            } catch (Exception e) {
+                //The orphaned blob is picked up by prune()
+                Utils.log("Could not delete blob %s: %s", blob, e.getMessage());
+            }
+        }
+    }
+
+    private byte[] writeIndex() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + paths.size() * 48);
+
+        try (DataOutputStream output = new DataOutputStream(bytes)) {
+            output.writeUTF(FORMAT);
+            output.writeUTF(hashAlgorithm);
+            output.writeInt(paths.size());
+
+            IndexCodec codec = new IndexCodec();
+            for (String path : list()) {
+                codec.writePath(output, path);
+                IndexCodec.writeHash(output, IndexCodec.fromHex(paths.get(path)));
+            }
+        }
+
+        return bytes.toByteArray();
+    }
+
+    private static HashMap<String, String> readIndex(FileProvider provider, String indexPath, String hashAlgorithm) throws IOException {
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(
+                provider.openInputStream(indexPath), FileProvider.DEFAULT_CHUNK_SIZE))) {
+            if (!FORMAT.equals(input.readUTF()))
+                throw new IOException(String.format("Not a content store index: %s", indexPath));
+
+            String storedAlgorithm = input.readUTF();
+            if (!storedAlgorithm.equals(hashAlgorithm))
+                throw new IOException(String.format("Store uses %s, not %s", storedAlgorithm, hashAlgorithm));
+
+            int count = input.readInt();
+            HashMap<String, String> paths = new HashMap<>(Math.max(16, count * 4 / 3 + 1));
+
+            IndexCodec codec = new IndexCodec();
+            for (int i = 0; i < count; i++) {
+                String path = codec.readPath(input);
+                byte[] hash = IndexCodec.readHash(input);
+
+                if (hash == null)
+                    throw new IOException(String.format("Missing hash for %s in %s", path, indexPath));
+
+                paths.put(path, IndexCodec.toHex(hash));
+            }
+
+            return paths;
+        }
+    }
+}
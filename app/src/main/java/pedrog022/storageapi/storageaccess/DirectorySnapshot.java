@@ -0,0 +1,249 @@
+package pedrog022.storageapi.storageaccess;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+//Path, size, modification time and optionally a content hash of every file below a folder.
+//compare() walks the folder with metadata only, files are read and hashed only when their size or
+//modification time changed, and those hashes are computed in parallel.
+public class DirectorySnapshot {
+    private static final String FORMAT = "DirectorySnapshot/1";
+    private static final Comparator<Entry> BY_PATH = (first, second) -> first.path.compareTo(second.path);
+
+    public static class Entry {
+        private final String path;
+        private final long size;
+        private final long lastModified;
+        private final byte[] hash;
+
+        private Entry(String path, long size, long lastModified, byte[] hash) {
+            this.path = path;
+            this.size = size;
+            this.lastModified = lastModified;
+            this.hash = hash;
+        }
+
+        //Relative to the snapshot folder
+        public String getPath() {
+            return path;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public long getLastModified() {
+            return lastModified;
+        }
+
+        //Hex digest, null when the snapshot doesn't hash content
+        public String getHash() {
+            return hash == null ? null : IndexCodec.toHex(hash);
+        }
+
+        @Override
+        public String toString() {
+            return path;
+        }
+    }
+
+    public static class Diff {
+        private final List<Entry> added;
+        private final List<Entry> removed;
+        private final List<Entry> modified;
+        private final DirectorySnapshot snapshot;
+
+        private Diff(List<Entry> added, List<Entry> removed, List<Entry> modified, DirectorySnapshot snapshot) {
+            this.added = added;
+            this.removed = removed;
+            this.modified = modified;
+            this.snapshot = snapshot;
+        }
+
+        public List<Entry> getAdded() {
+            return added;
+        }
+
+        //Entries of the previous snapshot
+        public List<Entry> getRemoved() {
+            return removed;
+        }
+
+        public List<Entry> getModified() {
+            return modified;
+        }
+
+        public boolean isEmpty() {
+            return added.isEmpty() && removed.isEmpty() && modified.isEmpty();
+        }
+
+        //State of the folder after this comparison, the base for the next one
+        public DirectorySnapshot getSnapshot() {
+            return snapshot;
+        }
+    }
+
+    private final String folderPath;
+    private final String hashAlgorithm;
+    private final Map<String, Entry> entries;
+
+    //Empty snapshot, comparing against it reports every file as added. hashAlgorithm is a
+    //MessageDigest name such as "SHA-256", or null to compare metadata only.
+    public DirectorySnapshot(String folderPath, String hashAlgorithm) {
+        this(folderPath, hashAlgorithm, new HashMap<>());
+    }
+
+    private DirectorySnapshot(String folderPath, String hashAlgorithm, Map<String, Entry> entries) {
+        if (hashAlgorithm != null) {
+            try {
+                MessageDigest.getInstance(hashAlgorithm);
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalArgumentException(String.format("Unknown hash algorithm: %s", hashAlgorithm));
+            }
+        }
+
+        this.folderPath = folderPath.endsWith("/") ? folderPath.substring(0, folderPath.length() - 1) : folderPath;
+        this.hashAlgorithm = hashAlgorithm;
+        this.entries = entries;
+    }
+
+    public String getFolderPath() {
+        return folderPath;
+    }
+
+    public String getHashAlgorithm() {
+        return hashAlgorithm;
+    }
+
+    public Entry get(String path) {
+        return entries.get(path);
+    }
+
+    public Collection<Entry> getEntries() {
+        return Collections.unmodifiableCollection(entries.values());
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public Diff compare(FileProvider provider, TreeOptions options) throws Exception {
+        ConcurrentHashMap<String, Entry> current = new ConcurrentHashMap<>();
+        ConcurrentLinkedQueue<Entry> added = new ConcurrentLinkedQueue<>();
+        ConcurrentLinkedQueue<Entry> modified = new ConcurrentLinkedQueue<>();
+        int prefixLength = folderPath.isEmpty() ? 0 : folderPath.length() + 1;
+
+        TreeOperations.walkFiles(provider, folderPath, options, (path, file) -> {
+            String relativePath = path.substring(prefixLength);
+            Entry previous = entries.get(relativePath);
+
+            if (previous != null && previous.size == file.getSize() && previous.lastModified == file.getLastModified()) {
+                current.put(relativePath, previous);
+                return null;
+            }
+
+            if (hashAlgorithm == null) {
+                Entry entry = new Entry(relativePath, file.getSize(), file.getLastModified(), null);
+                current.put(relativePath, entry);
+                (previous == null ? added : modified).add(entry);
+                return null;
+            }
+
+            return () -> {
+                Entry entry = new Entry(relativePath, file.getSize(), file.getLastModified(), hash(provider, path));
+                current.put(relativePath, entry);
+
+                //Same content under new metadata only updates the snapshot
+                if (previous == null)
+                    added.add(entry);
+                else if (previous.hash == null || !Arrays.equals(previous.hash, entry.hash))
+                    modified.add(entry);
+            };
+        });
+
+        ArrayList<Entry> removed = new ArrayList<>();
+        for (Entry entry : entries.values()) {
+            if (!current.containsKey(entry.path))
+                removed.add(entry);
+        }
+
+        return new Diff(sorted(added), sorted(removed), sorted(modified),
+                new DirectorySnapshot(folderPath, hashAlgorithm, new HashMap<>(current)));
+    }
+
+    private byte[] hash(FileProvider provider, String path) throws Exception {
+        MessageDigest digest = MessageDigest.getInstance(hashAlgorithm);
+        provider.readChunks(path, FileProvider.DEFAULT_CHUNK_SIZE, (buffer, length) -> digest.update(buffer, 0, length));
+        return digest.digest();
+    }
+
+    private static List<Entry> sorted(Collection<Entry> entries) {
+        ArrayList<Entry> list = new ArrayList<>(entries);
+        Collections.sort(list, BY_PATH);
+        return list;
+    }
+
+    /*--------------------------------------------------------------------------------------------*/
+
+    //Sorted entries in the IndexCodec format
+    public void write(FileProvider provider, String indexPath) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + entries.size() * 40);
+
+        try (DataOutputStream output = new DataOutputStream(bytes)) {
+            output.writeUTF(FORMAT);
+            output.writeUTF(folderPath);
+            output.writeUTF(hashAlgorithm == null ? "" : hashAlgorithm);
+            output.writeInt(entries.size());
+
+            IndexCodec codec = new IndexCodec();
+            for (Entry entry : sorted(entries.values())) {
+                codec.writePath(output, entry.path);
+                output.writeLong(entry.size);
+                output.writeLong(entry.lastModified);
+                IndexCodec.writeHash(output, entry.hash);
+            }
+        }
+
+        //An interrupted write leaves the previous index in place
+        provider.writeFile(indexPath, bytes.toByteArray(), new WriteOptions().setMode(WriteOptions.Mode.ATOMIC));
+    }
+
+    public static DirectorySnapshot read(FileProvider provider, String indexPath) throws Exception {
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(
+                provider.openInputStream(indexPath), FileProvider.DEFAULT_CHUNK_SIZE))) {
+            if (!FORMAT.equals(input.readUTF()))
+                throw new IOException(String.format("Not a snapshot index: %s", indexPath));
+
+            String folderPath = input.readUTF();
+            String hashAlgorithm = input.readUTF();
+            int count = input.readInt();
+            HashMap<String, Entry> entries = new HashMap<>(Math.max(16, count * 4 / 3 + 1));
+
+            IndexCodec codec = new IndexCodec();
+            for (int i = 0; i < count; i++) {
+                String path = codec.readPath(input);
+                long size = input.readLong();
+                long lastModified = input.readLong();
+
+                entries.put(path, new Entry(path, size, lastModified, IndexCodec.readHash(input)));
+            }
+
+            return new DirectorySnapshot(folderPath, hashAlgorithm.isEmpty() ? null : hashAlgorithm, entries);
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package pedrog022.storageapi.storageaccess;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+//Thread safe LRU cache keyed by sanitized path, entries expire after ttlMillis
+public class DocumentCache<V> {
+    public static final int DEFAULT_MAX_ENTRIES = 4096;
+    public static final long DEFAULT_TTL_MILLIS = 10_000;
+
+    private final int maxEntries;
+    private final long ttlNanos;
+    private final LinkedHashMap<String, CacheEntry<V>> entries;
+
+    private long hits;
+    private long misses;
+
+    public DocumentCache() {
+        this(DEFAULT_MAX_ENTRIES, DEFAULT_TTL_MILLIS);
+    }
+
+    public DocumentCache(int maxEntries, long ttlMillis) {
+        if (maxEntries < 1)
+            throw new IllegalArgumentException("Cache size must be positive!");
+
+        this.maxEntries = maxEntries;
+        this.ttlNanos = ttlMillis * 1_000_000L;
+        this.entries = new LinkedHashMap<String, CacheEntry<V>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CacheEntry<V>> eldest) {
+                return size() > DocumentCache.this.maxEntries;
+            }
+        };
+    }
+
+    public synchronized V get(String path) {
+        CacheEntry<V> entry = entries.get(path);
+
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+
+        if (System.nanoTime() - entry.storedAt > ttlNanos) {
+            entries.remove(path);
+            misses++;
+            return null;
+        }
+
+        hits++;
+        return entry.value;
+    }
+
+    public synchronized void put(String path, V value) {
+        entries.put(path, new CacheEntry<>(value, System.nanoTime()));
+    }
+
+    public synchronized void invalidate(String path) {
+        entries.remove(path);
+    }
+
+    //Removes the path itself and everything below it
+    public synchronized void invalidateTree(String path) {
+        String prefix = path + "/";
+        Iterator<String> iterator = entries.keySet().iterator();
+
+        while (iterator.hasNext()) {
+            String key = iterator.next();
+
+            if (key.equals(path) || key.startsWith(prefix))
+                iterator.remove();
+        }
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    private static class CacheEntry<V> {
+        private final V value;
+        private final long storedAt;
+
+        private CacheEntry(V value, long storedAt) {
+            this.value = value;
+            this.storedAt = storedAt;
+        }
+    }
+}
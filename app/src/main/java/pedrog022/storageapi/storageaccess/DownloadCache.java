@@ -0,0 +1,322 @@
+package pedrog022.storageapi.storageaccess;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import org.jsoup.Connection;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.channels.WritableByteChannel;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+
+//Remembers the ETag, Last-Modified and size of every downloaded file, so downloading the same url
+//again only asks the server whether it changed. Concurrent requests for the same url and destination
+//share a single transfer, different urls aimed at one destination each get their own temporary file.
+public class DownloadCache {
+    private static final String PREFERENCES = "download_cache";
+    private static final String TEMPORARY_SUFFIX = ".download";
+
+    public interface Callback {
+        //Called from the download thread
+        default void onProgress(long bytesTransferred, long totalBytes, double bytesPerSecond) {
+        }
+
+        //transferred is false when the server confirmed the local copy is still fresh
+        void onComplete(boolean transferred);
+
+        void onError(Exception e);
+    }
+
+    interface Store {
+        Entry get(String destinationPath);
+
+        void put(String destinationPath, Entry entry);
+
+        void remove(String destinationPath);
+    }
+
+    private final Store store;
+    private final DownloadEngine engine;
+    private final IoScheduler scheduler;
+    private final HashMap<String, InFlight> inFlight = new HashMap<>();
+    private final Object replacing = new Object();
+
+    public DownloadCache(Context context, DownloadEngine engine, IoScheduler scheduler) {
+        this(new PreferencesStore(context.getSharedPreferences(PREFERENCES, Context.MODE_PRIVATE)), engine, scheduler);
+    }
+
+    DownloadCache(Store store, DownloadEngine engine, IoScheduler scheduler) {
+        this.store = store;
+        this.engine = engine;
+        this.scheduler = scheduler;
+    }
+
+    //Joining a running transfer returns its future, the result is true when bytes were transferred
+    public Future<Boolean> download(FileProvider provider, String url, String destinationPath, Callback callback) {
+        String key = url + "\n" + destinationPath;
+        InFlight request;
+        InFlight running;
+
+        //Only the entry is reserved under the lock, submitting may block on the scheduler's
+        //backpressure and running transfers need the lock to finish
+        synchronized (inFlight) {
+            running = inFlight.get(key);
+
+            if (running != null) {
+                if (callback != null)
+                    running.callbacks.add(callback);
+            } else {
+                inFlight.put(key, new InFlight(callback));
+            }
+
+            request = inFlight.get(key);
+        }
+
+        if (running != null)
+            return running.awaitFuture();
+
+        IoScheduler.Task<Boolean> task;
+
+        try {
+            task = scheduler.submit(DownloadEngine.hostOf(url), IoScheduler.PRIORITY_NORMAL, () -> {
+                try {
+                    boolean transferred = fetch(provider, url, destinationPath, request);
+
+                    for (Callback waiting : finish(key, request))
+                        waiting.onComplete(transferred);
+
+                    return transferred;
+                } catch (Exception e) {
+                    for (Callback waiting : finish(key, request))
+                        waiting.onError(e);
+
+                    throw e;
+                }
+            });
+        } catch (RuntimeException e) {
+            finish(key, request);
+            request.fail(e);
+            throw e;
+        }
+
+        //A task cancelled before it ran never reaches its body, the entry is released here instead
+        task.whenDone(() -> {
+            for (Callback waiting : finish(key, request))
+                waiting.onError(new CancellationException(String.format("Download of %s was cancelled", url)));
+        });
+
+        request.setFuture(task);
+        return task;
+    }
+
+    public void forget(String destinationPath) {
+        store.remove(destinationPath);
+    }
+
+    //Callbacks of the request the first time it finishes, nothing afterwards
+    private List<Callback> finish(String key, InFlight request) {
+        synchronized (inFlight) {
+            if (request.finished)
+                return Collections.emptyList();
+
+            request.finished = true;
+
+            if (inFlight.get(key) == request)
+                inFlight.remove(key);
+
+            return request.callbacks;
+        }
+    }
+
+    private boolean fetch(FileProvider provider, String url, String destinationPath, InFlight request) throws Exception {
+        Entry cached = store.get(destinationPath);
+
+        if (cached != null && !isUsable(provider, cached, url, destinationPath)) {
+            store.remove(destinationPath);
+            cached = null;
+        }
+
+        Connection connection = engine.connect(url).ignoreHttpErrors(true);
+
+        if (cached != null) {
+            if (cached.etag != null)
+                connection.header("If-None-Match", cached.etag);
+
+            if (cached.lastModified != null)
+                connection.header("If-Modified-Since", cached.lastModified);
+        }
+
+        Connection.Response response = connection.execute();
+
+        try (InputStream body = engine.bodyOf(response)) {
+            if (response.statusCode() == 304 && cached != null)
+                return false;
+
+            if (response.statusCode() < 200 || response.statusCode() >= 300)
+                throw new IOException(String.format("HTTP %d while downloading %s", response.statusCode(), url));
+
+            //The previous copy stays in place until the new one is complete. Only one transfer runs
+            //per url and destination, so the url names the temporary file.
+            String folder = destinationPath.substring(0, Math.max(destinationPath.lastIndexOf("/"), 0));
+            String name = destinationPath.substring(destinationPath.lastIndexOf("/") + 1);
+            String temporaryName = name + "-" + Integer.toHexString(url.hashCode()) + TEMPORARY_SUFFIX;
+            String temporaryPath = folder.isEmpty() ? temporaryName : folder + "/" + temporaryName;
+
+            if (provider.exists(temporaryPath))
+                provider.deleteFile(temporaryPath);
+
+            provider.createFile(folder, temporaryName);
+
+            long size;
+            try (WritableByteChannel channel = provider.openWritableChannel(temporaryPath)) {
+                long expected = DownloadEngine.contentLength(response);
+                size = engine.transfer(body, channel, expected, request::onProgress);
+
+                //A cut or cancelled transfer must never replace the copy or get an entry
+                if (Thread.currentThread().isInterrupted())
+                    throw new InterruptedIOException(String.format("Download of %s was cancelled", url));
+
+                if (expected >= 0 && size != expected)
+                    throw new IOException(String.format("Download of %s ended after %d of %d bytes", url, size, expected));
+            } catch (Exception e) {
+                provider.deleteFile(temporaryPath);
+                throw e;
+            }
+
+            synchronized (replacing) {
+                store.remove(destinationPath);
+
+                if (provider.exists(destinationPath))
+                    provider.deleteFile(destinationPath);
+
+                provider.renameFile(temporaryPath, name);
+                store.put(destinationPath, new Entry(url, response.header("ETag"), response.header("Last-Modified"), size));
+            }
+
+            return true;
+        }
+    }
+
+    //The local copy must still be the one the entry describes, otherwise it's downloaded again
+    private static boolean isUsable(FileProvider provider, Entry cached, String url, String destinationPath) {
+        if (!cached.url.equals(url) || (cached.etag == null && cached.lastModified == null))
+            return false;
+
+        try {
+            FileEntry entry = provider.stat(destinationPath).get(destinationPath);
+            return entry != null && entry.isFile() && entry.getSize() == cached.size;
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    /*--------------------------------------------------------------------------------------------*/
+
+    private static class InFlight {
+        private final CopyOnWriteArrayList<Callback> callbacks = new CopyOnWriteArrayList<>();
+        private Future<Boolean> future;
+        private RuntimeException error;
+        private boolean finished;
+
+        private InFlight(Callback callback) {
+            if (callback != null)
+                callbacks.add(callback);
+        }
+
+        private synchronized void setFuture(Future<Boolean> future) {
+            this.future = future;
+            notifyAll();
+        }
+
+        private synchronized void fail(RuntimeException error) {
+            this.error = error;
+            notifyAll();
+        }
+
+        //Joiners can arrive while the first request is still being submitted
+        private synchronized Future<Boolean> awaitFuture() {
+            while (future == null && error == null) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new RejectedExecutionException("Interrupted while joining a download", e);
+                }
+            }
+
+            if (future == null)
+                throw error;
+
+            return future;
+        }
+
+        private void onProgress(long bytesTransferred, long totalBytes, double bytesPerSecond) {
+            for (Callback callback : callbacks)
+                callback.onProgress(bytesTransferred, totalBytes, bytesPerSecond);
+        }
+    }
+
+    static class Entry {
+        private final String url;
+        private final String etag;
+        private final String lastModified;
+        private final long size;
+
+        Entry(String url, String etag, String lastModified, long size) {
+            this.url = url;
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.size = size;
+        }
+
+        private String encode() {
+            return url + "\n" + (etag == null ? "" : etag) + "\n" + (lastModified == null ? "" : lastModified) + "\n" + size;
+        }
+
+        private static Entry decode(String value) {
+            String[] fields = value.split("\n", -1);
+
+            if (fields.length != 4)
+                return null;
+
+            try {
+                return new Entry(fields[0], fields[1].isEmpty() ? null : fields[1],
+                        fields[2].isEmpty() ? null : fields[2], Long.parseLong(fields[3]));
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+    }
+
+    private static class PreferencesStore implements Store {
+        private final SharedPreferences preferences;
+
+        private PreferencesStore(SharedPreferences preferences) {
+            this.preferences = preferences;
+        }
+
+        @Override
+        public Entry get(String destinationPath) {
+            String value = preferences.getString(destinationPath, null);
+            return value == null ? null : Entry.decode(value);
+        }
+
+        @Override
+        public void put(String destinationPath, Entry entry) {
+            preferences.edit().putString(destinationPath, entry.encode()).apply();
+        }
+
+        @Override
+        public void remove(String destinationPath) {
+            preferences.edit().remove(destinationPath).apply();
+        }
+    }
+}
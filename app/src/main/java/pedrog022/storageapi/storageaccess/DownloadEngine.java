@@ -0,0 +1,187 @@
+package pedrog022.storageapi.storageaccess;
+
+import org.jsoup.Connection;
+import org.jsoup.Jsoup;
+import org.jsoup.internal.ConstrainableInputStream;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+public class DownloadEngine {
+    public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+    public static final int DEFAULT_TIMEOUT_MILLIS = 30_000;
+    private static final long PROGRESS_INTERVAL_NANOS = 200_000_000L;
+
+    private final int bufferSize;
+    private final int timeoutMillis;
+    private final ThreadLocal<byte[]> buffers;
+
+    public DownloadEngine() {
+        this(DEFAULT_BUFFER_SIZE);
+    }
+
+    public DownloadEngine(int bufferSize) {
+        this(bufferSize, DEFAULT_TIMEOUT_MILLIS);
+    }
+
+    //timeoutMillis bounds connecting and every single read, a stalled transfer fails with a
+    //SocketTimeoutException instead of holding its thread forever
+    public DownloadEngine(int bufferSize, int timeoutMillis) {
+        if (timeoutMillis <= 0)
+            throw new IllegalArgumentException("Timeout must be positive!");
+
+        this.bufferSize = bufferSize;
+        this.timeoutMillis = timeoutMillis;
+        this.buffers = new ThreadLocal<byte[]>() {
+            @Override
+            protected byte[] initialValue() {
+                return new byte[DownloadEngine.this.bufferSize];
+            }
+        };
+    }
+
+    public interface ProgressListener {
+        //totalBytes is -1 when the server doesn't send a Content-Length
+        void onProgress(long bytesTransferred, long totalBytes, double bytesPerSecond);
+    }
+
+    //Streams the response body into target, returns the amount of bytes written
+    public long download(String url, WritableByteChannel target, ProgressListener listener) throws IOException {
+        Connection.Response response = connect(url).execute();
+
+        try (InputStream body = bodyOf(response)) {
+            return transfer(body, target, contentLength(response), listener);
+        }
+    }
+
+    Connection connect(String url) {
+        return Jsoup.connect(url)
+                .maxBodySize(0)
+                .timeout(timeoutMillis)
+                .ignoreContentType(true);
+    }
+
+    //jsoup applies the timeout to the whole body, which would cut long downloads, and ignores socket
+    //timeouts until it's over. Its clock is restarted on every read that makes progress, so the
+    //timeout only fires once the transfer stalls for that long. jsoup also ends the body early when
+    //the thread is interrupted and clears the flag, so interrupts are turned into an exception first.
+    InputStream bodyOf(Connection.Response response) {
+        InputStream body = response.bodyStream();
+
+        if (!(body instanceof ConstrainableInputStream))
+            return body;
+
+        ConstrainableInputStream constrained = ((ConstrainableInputStream) body).timeout(System.nanoTime(), timeoutMillis);
+
+        return new FilterInputStream(constrained) {
+            @Override
+            public int read() throws IOException {
+                checkInterrupted();
+                int value = super.read();
+
+                if (value != -1)
+                    constrained.timeout(System.nanoTime(), timeoutMillis);
+
+                return value;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                checkInterrupted();
+                int read = super.read(b, off, len);
+
+                if (read > 0)
+                    constrained.timeout(System.nanoTime(), timeoutMillis);
+
+                return read;
+            }
+        };
+    }
+
+    private static void checkInterrupted() throws InterruptedIOException {
+        if (Thread.currentThread().isInterrupted())
+            throw new InterruptedIOException("Download was cancelled!");
+    }
+
+    //Scheduler key so downloads from the same host share its per key limit
+    static String hostOf(String url) {
+        try {
+            return new URL(url).getHost();
+        } catch (MalformedURLException e) {
+            return null;
+        }
+    }
+
+    //Length of the body as it's read, -1 when unknown. jsoup decompresses encoded bodies, the header
+    //then only tells the compressed length.
+    static long contentLength(Connection.Response response) {
+        String header = response.header("Content-Length");
+        String encoding = response.header("Content-Encoding");
+
+        if (header == null || (encoding != null && !encoding.trim().equalsIgnoreCase("identity")))
+            return -1;
+
+        try {
+            return Long.parseLong(header.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    //Fails when the body ends before totalBytes, a dropped connection isn't a complete download
+    long transfer(InputStream source, WritableByteChannel target, long totalBytes,
+                  ProgressListener listener) throws IOException {
+        byte[] buffer = buffers.get();
+        ByteBuffer wrapper = ByteBuffer.wrap(buffer);
+
+        long start = System.nanoTime();
+        long lastReport = start;
+        long transferred = 0;
+        int read;
+
+        while ((read = source.read(buffer)) != -1) {
+            checkInterrupted();
+
+            wrapper.clear();
+            wrapper.limit(read);
+
+            while (wrapper.hasRemaining()) {
+                target.write(wrapper);
+            }
+
+            transferred += read;
+
+            if (listener != null) {
+                long now = System.nanoTime();
+
+                if (now - lastReport >= PROGRESS_INTERVAL_NANOS) {
+                    listener.onProgress(transferred, totalBytes, throughput(transferred, now - start));
+                    lastReport = now;
+                }
+            }
+        }
+
+        checkInterrupted();
+
+        if (totalBytes >= 0 && transferred != totalBytes)
+            throw new IOException(String.format("Download ended after %d of %d bytes!", transferred, totalBytes));
+
+        if (listener != null)
+            listener.onProgress(transferred, totalBytes, throughput(transferred, System.nanoTime() - start));
+
+        return transferred;
+    }
+
+    private static double throughput(long bytes, long elapsedNanos) {
+        if (elapsedNanos <= 0)
+            return 0;
+
+        return bytes * 1_000_000_000d / elapsedNanos;
+    }
+}
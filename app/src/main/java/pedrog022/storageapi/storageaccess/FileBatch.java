@@ -0,0 +1,189 @@
+package pedrog022.storageapi.storageaccess;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+//Collects file operations so the provider can run them with as few round trips as possible.
+//Operations still run in the order they were added, a failed operation doesn't stop the next ones.
+public class FileBatch {
+    public enum Type {
+        CREATE_FOLDER,
+        CREATE_FILE,
+        WRITE,
+        RENAME,
+        DELETE
+    }
+
+    interface Runner {
+        BatchResult run(List<Operation> operations);
+    }
+
+    private final Runner runner;
+    private final ArrayList<Operation> operations = new ArrayList<>();
+
+    FileBatch(Runner runner) {
+        this.runner = runner;
+    }
+
+    Runner getRunner() {
+        return runner;
+    }
+
+    public FileBatch createFolder(String folderPath) {
+        return add(new Operation(Type.CREATE_FOLDER, trim(folderPath), null, null));
+    }
+
+    public FileBatch createFile(String folderPath, String filename) {
+        return add(new Operation(Type.CREATE_FILE, trim(folderPath) + "/" + filename, null, null));
+    }
+
+    public FileBatch writeFile(String filepath, String content) {
+        return writeFile(filepath, content.getBytes(Charset.forName("UTF-8")));
+    }
+
+    //Replaces the whole content of an existing file, like WriteOptions.Mode.TRUNCATE
+    public FileBatch writeFile(String filepath, byte[] content) {
+        return add(new Operation(Type.WRITE, trim(filepath), null, content));
+    }
+
+    public FileBatch renameFile(String filepath, String newName) {
+        return add(new Operation(Type.RENAME, trim(filepath), newName, null));
+    }
+
+    public FileBatch deleteFile(String filepath) {
+        return add(new Operation(Type.DELETE, trim(filepath), null, null));
+    }
+
+    public int size() {
+        return operations.size();
+    }
+
+    public BatchResult apply() {
+        return runner.run(Collections.unmodifiableList(new ArrayList<>(operations)));
+    }
+
+    private FileBatch add(Operation operation) {
+        operations.add(operation);
+        return this;
+    }
+
+    private static String trim(String path) {
+        if (path.startsWith("/"))
+            path = path.substring(1);
+
+        if (path.endsWith("/"))
+            path = path.substring(0, path.length() - 1);
+
+        return path;
+    }
+
+    /*--------------------------------------------------------------------------------------------*/
+
+    public static class Operation {
+        private final Type type;
+        private final String path;
+        private final String newName;
+        private final byte[] content;
+
+        private Operation(Type type, String path, String newName, byte[] content) {
+            this.type = type;
+            this.path = path;
+            this.newName = newName;
+            this.content = content;
+        }
+
+        public Type getType() {
+            return type;
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        public String getFolder() {
+            int index = path.lastIndexOf("/");
+            return index < 0 ? "" : path.substring(0, index);
+        }
+
+        public String getName() {
+            return path.substring(path.lastIndexOf("/") + 1);
+        }
+
+        public String getNewName() {
+            return newName;
+        }
+
+        public byte[] getContent() {
+            return content;
+        }
+
+        //Same operation writing other bytes, used by decorators that transform the content
+        Operation withContent(byte[] content) {
+            return new Operation(type, path, newName, content);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s %s", type, path);
+        }
+    }
+
+    public static class Result {
+        private final Operation operation;
+        private final Exception error;
+
+        Result(Operation operation, Exception error) {
+            this.operation = operation;
+            this.error = error;
+        }
+
+        public Operation getOperation() {
+            return operation;
+        }
+
+        public boolean isSuccessful() {
+            return error == null;
+        }
+
+        public Exception getError() {
+            return error;
+        }
+    }
+
+    public static class BatchResult {
+        private final List<Result> results;
+        private final int providerCalls;
+
+        BatchResult(List<Result> results, int providerCalls) {
+            this.results = Collections.unmodifiableList(results);
+            this.providerCalls = providerCalls;
+        }
+
+        //One result per operation, in the order the operations were added
+        public List<Result> getResults() {
+            return results;
+        }
+
+        public List<Result> getFailures() {
+            ArrayList<Result> failures = new ArrayList<>();
+
+            for (Result result : results) {
+                if (!result.isSuccessful())
+                    failures.add(result);
+            }
+
+            return failures;
+        }
+
+        public boolean isSuccessful() {
+            return getFailures().isEmpty();
+        }
+
+        //Filesystem or content provider calls issued to run the batch
+        public int getProviderCalls() {
+            return providerCalls;
+        }
+    }
+}
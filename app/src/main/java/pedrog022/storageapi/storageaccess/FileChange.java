@@ -0,0 +1,31 @@
+package pedrog022.storageapi.storageaccess;
+
+//A coalesced change reported by FileProvider.watch, path is relative to the storage like any other path
+public class FileChange {
+    public enum Type {
+        CREATED,
+        MODIFIED,
+        DELETED
+    }
+
+    private final Type type;
+    private final String path;
+
+    public FileChange(Type type, String path) {
+        this.type = type;
+        this.path = path;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s %s", type, path);
+    }
+}
@@ -0,0 +1,47 @@
+package pedrog022.storageapi.storageaccess;
+
+//Metadata of a folder child, documentId is only set by SAF backed providers
+public class FileEntry {
+    private final String name;
+    private final boolean directory;
+    private final long size;
+    private final long lastModified;
+    private final String documentId;
+
+    public FileEntry(String name, boolean directory, long size, long lastModified, String documentId) {
+        this.name = name;
+        this.directory = directory;
+        this.size = size;
+        this.lastModified = lastModified;
+        this.documentId = documentId;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public boolean isDirectory() {
+        return directory;
+    }
+
+    public boolean isFile() {
+        return !directory;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    public String getDocumentId() {
+        return documentId;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s%s (%s bytes)", name, directory ? "/" : "", size);
+    }
+}
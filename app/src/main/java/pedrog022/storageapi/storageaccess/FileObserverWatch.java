@@ -0,0 +1,138 @@
+package pedrog022.storageapi.storageaccess;
+
+import android.os.FileObserver;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+//inotify backed watch of KitKatFiles, one FileObserver per watched folder. Writes are reported on
+//CLOSE_WRITE instead of every MODIFY, so copying a large file wakes the app up once.
+//The kernel reports a full inotify queue without a watch descriptor and FileObserver drops events
+//it can't match to an observer, so lost kernel events go unnoticed here. onOverflow is only called
+//when more than maxPendingChanges paths are pending.
+class FileObserverWatch implements FileProvider.Watch {
+    private static final int MASK = FileObserver.CREATE | FileObserver.MOVED_TO | FileObserver.CLOSE_WRITE
+            | FileObserver.DELETE | FileObserver.MOVED_FROM | FileObserver.DELETE_SELF | FileObserver.MOVE_SELF;
+
+    private final String base;
+    private final String rootPath;
+    private final boolean recursive;
+    private final ChangeQueue queue;
+    private final HashMap<String, FileObserver> observers = new HashMap<>();
+    private boolean closed;
+
+    FileObserverWatch(String base, String folderPath, WatchOptions options, FileProvider.WatchListener listener) throws FileNotFoundException {
+        if (folderPath.endsWith("/"))
+            folderPath = folderPath.substring(0, folderPath.length() - 1);
+
+        if (!new File(base + folderPath).isDirectory())
+            throw new FileNotFoundException(String.format("Folder to watch not found: %s", folderPath));
+
+        this.base = base;
+        this.rootPath = folderPath;
+        this.recursive = options.isRecursive();
+        this.queue = new ChangeQueue(options, listener);
+
+        synchronized (this) {
+            observe(folderPath, false);
+        }
+    }
+
+    //Folders created while watching may already have content by the time their observer starts,
+    //so that content is reported as created
+    private void observe(String folderPath, boolean reportContent) {
+        if (observers.containsKey(folderPath))
+            return;
+
+        FileObserver observer = new FileObserver(base + folderPath, MASK) {
+            @Override
+            public void onEvent(int event, String name) {
+                handle(folderPath, event & FileObserver.ALL_EVENTS, name);
+            }
+        };
+
+        observers.put(folderPath, observer);
+        observer.startWatching();
+
+        if (!recursive)
+            return;
+
+        File[] children = new File(base + folderPath).listFiles();
+
+        if (children == null)
+            return;
+
+        for (File child : children) {
+            String childPath = childPath(folderPath, child.getName());
+
+            if (reportContent)
+                queue.add(FileChange.Type.CREATED, childPath);
+
+            if (child.isDirectory())
+                observe(childPath, reportContent);
+        }
+    }
+
+    private synchronized void handle(String folderPath, int event, String name) {
+        if (closed)
+            return;
+
+        if ((event & (FileObserver.DELETE_SELF | FileObserver.MOVE_SELF)) != 0) {
+            //The parent folder reports its children, only the watched root is reported here
+            forgetTree(folderPath);
+
+            if (folderPath.equals(rootPath))
+                queue.add(FileChange.Type.DELETED, rootPath);
+
+            return;
+        }
+
+        if (name == null)
+            return;
+
+        String path = childPath(folderPath, name);
+
+        if ((event & (FileObserver.CREATE | FileObserver.MOVED_TO)) != 0) {
+            queue.add(FileChange.Type.CREATED, path);
+
+            if (recursive && new File(base + path).isDirectory())
+                observe(path, true);
+        } else if ((event & FileObserver.CLOSE_WRITE) != 0) {
+            queue.add(FileChange.Type.MODIFIED, path);
+        } else if ((event & (FileObserver.DELETE | FileObserver.MOVED_FROM)) != 0) {
+            queue.add(FileChange.Type.DELETED, path);
+            forgetTree(path);
+        }
+    }
+
+    private void forgetTree(String path) {
+        String prefix = path + "/";
+
+        for (Iterator<Map.Entry<String, FileObserver>> iterator = observers.entrySet().iterator(); iterator.hasNext(); ) {
+            Map.Entry<String, FileObserver> observer = iterator.next();
+
+            if (observer.getKey().equals(path) || observer.getKey().startsWith(prefix)) {
+                observer.getValue().stopWatching();
+                iterator.remove();
+            }
+        }
+    }
+
+    private static String childPath(String folderPath, String name) {
+        return folderPath.isEmpty() ? name : folderPath + "/" + name;
+    }
+
+    @Override
+    public synchronized void close() {
+        closed = true;
+
+        for (FileObserver observer : observers.values())
+            observer.stopWatching();
+
+        observers.clear();
+        queue.close();
+    }
+}
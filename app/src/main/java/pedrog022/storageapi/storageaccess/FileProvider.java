@@ -2,13 +2,30 @@ package pedrog022.storageapi.storageaccess;
 
 import android.content.Context;
 
+import java.io.Closeable;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
 
 public interface FileProvider {
+    int DEFAULT_CHUNK_SIZE = 64 * 1024;
+
+    Charset DEFAULT_CHARSET = Charset.forName("UTF-8");
+
     String name();
 
     FileProvider init(Context context);
 
+    //Decodes the file as UTF-8
     String readFile(String filepath) throws IOException;
 
     void createFile(String folderPath, String filename) throws Exception;
@@ -23,13 +40,188 @@ public interface FileProvider {
 
     void writeFile(String filepath, String content) throws IOException;
 
+    void writeFile(String filepath, byte[] content, WriteOptions options) throws IOException;
+
+    default void writeFile(String filepath, String content, WriteOptions options) throws IOException {
+        writeFile(filepath, content.getBytes(DEFAULT_CHARSET), options);
+    }
+
     boolean isFile(String filepath);
 
     boolean isFolder(String filepath);
 
     boolean exists(String filePath);
 
+    //Metadata of many paths at once, paths that don't exist are left out of the result
+    Map<String, FileEntry> stat(String... paths) throws Exception;
+
     void copyFile(String originalFilepath, String newFilepath) throws Exception;
 
+    //Moves the file into folderPath keeping its name
+    void moveFile(String filepath, String folderPath) throws Exception;
+
     String[] getFolderContent(String folderPath) throws Exception;
-}
\ No newline at end of file
+
+    /*--------------------------------------------------------------------------------------------*/
+
+    //Collects operations to be applied together with FileBatch.apply()
+    FileBatch batch();
+
+    //Recursive operations, subfolders are processed in parallel as configured by options
+    void copyTree(String sourcePath, String targetPath, TreeOptions options) throws Exception;
+
+    void deleteTree(String path, TreeOptions options) throws Exception;
+
+    void cleanFolder(String folderPath, TreeOptions options) throws Exception;
+
+    long computeSize(String path, TreeOptions options) throws Exception;
+
+    //Every child with its metadata, gathered in a single pass over the folder
+    List<FileEntry> listEntries(String folderPath) throws Exception;
+
+    //Lazy variant of listEntries for very large folders, must be closed if not fully consumed
+    EntryIterator iterateEntries(String folderPath, int pageSize) throws Exception;
+
+    //Streams and channels must be closed by the caller, the target file must already exist
+    InputStream openInputStream(String filepath) throws IOException;
+
+    OutputStream openOutputStream(String filepath) throws IOException;
+
+    ReadableByteChannel openReadableChannel(String filepath) throws IOException;
+
+    WritableByteChannel openWritableChannel(String filepath) throws IOException;
+
+    //Write only channel for positioned writes, the current content is kept
+    FileChannel openPositionalWriteChannel(String filepath) throws IOException;
+
+    //Reads at most length bytes starting at offset, the buffer is shorter when the file ends first
+    ByteBuffer readRange(String filepath, long offset, int length) throws IOException;
+
+    //Read only view of the whole file, pages are loaded by the kernel as they are touched
+    ByteBuffer map(String filepath) throws IOException;
+
+    //Reports changes under the folder until the returned watch is closed
+    Watch watch(String folderPath, WatchOptions options, WatchListener listener) throws Exception;
+
+    default Watch watch(String folderPath, WatchListener listener) throws Exception {
+        return watch(folderPath, new WatchOptions(), listener);
+    }
+
+    //Reads the file through a single reusable buffer of chunkSize bytes
+    default void readChunks(String filepath, int chunkSize, ChunkConsumer consumer) throws IOException {
+        byte[] buffer = new byte[chunkSize > 0 ? chunkSize : DEFAULT_CHUNK_SIZE];
+
+        try (InputStream inputStream = openInputStream(filepath)) {
+            int read;
+
+            while ((read = inputStream.read(buffer)) != -1) {
+                if (read > 0)
+                    consumer.onChunk(buffer, read);
+            }
+        }
+    }
+
+    //Writes whatever the producer puts on the buffer until it returns -1
+    default void writeChunks(String filepath, int chunkSize, ChunkProducer producer) throws IOException {
+        byte[] buffer = new byte[chunkSize > 0 ? chunkSize : DEFAULT_CHUNK_SIZE];
+
+        try (OutputStream outputStream = openOutputStream(filepath)) {
+            int length;
+
+            while ((length = producer.fill(buffer)) != -1) {
+                outputStream.write(buffer, 0, length);
+            }
+
+            outputStream.flush();
+        }
+    }
+
+    default String readFile(String filepath, Charset charset) throws IOException {
+        return TextReader.readAll(openInputStream(filepath), charset);
+    }
+
+    //The line handed to the consumer is reused, call toString() on it to keep it
+    default void forEachLine(String filepath, Charset charset, LineConsumer consumer) throws IOException {
+        try (TextReader reader = TextReader.acquire(openInputStream(filepath), charset)) {
+            while (reader.readLine())
+                consumer.onLine(reader.line());
+        }
+    }
+
+    //Lazy line by line read, must be closed if not fully consumed
+    default LineIterator lines(String filepath, Charset charset) throws IOException {
+        TextReader reader = new TextReader();
+        reader.open(openInputStream(filepath), charset);
+
+        return new LineIterator() {
+            private String next;
+            private boolean done;
+
+            @Override
+            public boolean hasNext() {
+                if (next == null && !done) {
+                    try {
+                        if (reader.readLine()) {
+                            next = reader.line().toString();
+                        } else {
+                            close();
+                        }
+                    } catch (IOException e) {
+                        throw new IllegalStateException(e);
+                    }
+                }
+
+                return next != null;
+            }
+
+            @Override
+            public String next() {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+
+                String line = next;
+                next = null;
+                return line;
+            }
+
+            @Override
+            public void close() throws IOException {
+                done = true;
+                next = null;
+                reader.close();
+            }
+        };
+    }
+
+    interface EntryIterator extends Iterator<FileEntry>, Closeable {
+    }
+
+    interface LineIterator extends Iterator<String>, Closeable {
+    }
+
+    interface LineConsumer {
+        void onLine(CharSequence line) throws IOException;
+    }
+
+    interface ChunkConsumer {
+        void onChunk(byte[] buffer, int length) throws IOException;
+    }
+
+    interface ChunkProducer {
+        int fill(byte[] buffer) throws IOException;
+    }
+
+    interface WatchListener {
+        //Called on the watcher thread with the merged changes of one debounce window
+        void onChanges(List<FileChange> changes);
+
+        //Changes were dropped, whatever depends on the folder content must rescan it
+        default void onOverflow() {
+        }
+    }
+
+    interface Watch extends Closeable {
+        @Override
+        void close();
+    }
+}
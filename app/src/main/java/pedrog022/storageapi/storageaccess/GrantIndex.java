@@ -0,0 +1,164 @@
+package pedrog022.storageapi.storageaccess;
+
+import android.content.ContentResolver;
+import android.content.UriPermission;
+import android.net.Uri;
+import android.os.Build;
+
+import androidx.annotation.RequiresApi;
+
+import java.util.HashMap;
+
+//Prefix trie of the folders the app holds a persisted tree grant for, keyed by path component.
+//Answers whether a path is covered by a grant, and which granted root is the closest one, in a
+//single walk over the path.
+public class GrantIndex {
+    private static final String EXTERNAL_STORAGE_AUTHORITY = "com.android.externalstorage.documents";
+    private static final String TREE_PREFIX = "/tree/primary:";
+
+    private final Node root = new Node();
+    private boolean loaded;
+
+    public static class Grant {
+        private final String path;
+        private final Uri treeUri;
+
+        private Grant(String path, Uri treeUri) {
+            this.path = path;
+            this.treeUri = treeUri;
+        }
+
+        //Granted folder relative to the primary storage, "" when the whole storage was granted
+        public String getPath() {
+            return path;
+        }
+
+        public Uri getTreeUri() {
+            return treeUri;
+        }
+
+        //Remainder of a covered path below this root, "" for the root itself
+        public String relativize(String coveredPath) {
+            coveredPath = sanitize(coveredPath);
+            return path.isEmpty() ? coveredPath : coveredPath.substring(Math.min(path.length() + 1, coveredPath.length()));
+        }
+    }
+
+    private static class Node {
+        private final HashMap<String, Node> children = new HashMap<>();
+        private Grant grant;
+    }
+
+    public synchronized boolean isLoaded() {
+        return loaded;
+    }
+
+    //Rebuilds the index from the persisted grants, a single IPC
+    @RequiresApi(api = Build.VERSION_CODES.KITKAT)
+    public void reload(ContentResolver resolver) {
+        HashMap<String, Uri> granted = new HashMap<>();
+
+        for (UriPermission permission : resolver.getPersistedUriPermissions()) {
+            Uri uri = permission.getUri();
+
+            if (!EXTERNAL_STORAGE_AUTHORITY.equals(uri.getAuthority()))
+                continue;
+
+            String path = pathOf(uri.getPath());
+
+            if (path != null)
+                granted.put(path, uri);
+        }
+
+        synchronized (this) {
+            root.children.clear();
+            root.grant = null;
+
+            for (String path : granted.keySet())
+                add(path, granted.get(path));
+
+            loaded = true;
+        }
+    }
+
+    public synchronized void add(String path, Uri treeUri) {
+        path = sanitize(path);
+        Node node = root;
+
+        int start = 0;
+        while (start < path.length()) {
+            int end = endOfComponent(path, start);
+            String component = path.substring(start, end);
+
+            Node child = node.children.get(component);
+            if (child == null) {
+                child = new Node();
+                node.children.put(component, child);
+            }
+
+            node = child;
+            start = end + 1;
+        }
+
+        node.grant = new Grant(path, treeUri);
+    }
+
+    public synchronized void clear() {
+        root.children.clear();
+        root.grant = null;
+        loaded = false;
+    }
+
+    public boolean isGranted(String path) {
+        return nearestGrant(path) != null;
+    }
+
+    //Deepest granted folder that contains path, or path itself, null when nothing covers it
+    public synchronized Grant nearestGrant(String path) {
+        path = sanitize(path);
+        Node node = root;
+        Grant nearest = root.grant;
+
+        int start = 0;
+        while (start < path.length()) {
+            int end = endOfComponent(path, start);
+            node = node.children.get(path.substring(start, end));
+
+            if (node == null)
+                break;
+
+            if (node.grant != null)
+                nearest = node.grant;
+
+            start = end + 1;
+        }
+
+        return nearest;
+    }
+
+    //"/tree/primary:Android/media" -> "Android/media", null for other volumes
+    static String pathOf(String treePath) {
+        if (treePath == null || !treePath.startsWith(TREE_PREFIX))
+            return null;
+
+        String path = treePath.substring(TREE_PREFIX.length());
+        int document = path.indexOf("/document/");
+
+        return sanitize(document < 0 ? path : path.substring(0, document));
+    }
+
+    private static int endOfComponent(String path, int start) {
+        int end = path.indexOf('/', start);
+        return end < 0 ? path.length() : end;
+    }
+
+    private static String sanitize(String path) {
+        if (path.startsWith("/"))
+            path = path.substring(1);
+
+        if (path.endsWith("/"))
+            path = path.substring(0, path.length() - 1);
+
+        return path;
+    }
+}
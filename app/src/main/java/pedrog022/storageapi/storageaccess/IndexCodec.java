@@ -0,0 +1,76 @@
+package pedrog022.storageapi.storageaccess;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+//Binary index format shared by ContentStore and DirectorySnapshot. Paths are written sorted and each
+//one only stores what differs from the previous one, hashes are raw bytes behind their length.
+final class IndexCodec {
+    private String previousPath = "";
+
+    void writePath(DataOutputStream output, String path) throws IOException {
+        int shared = sharedPrefix(previousPath, path);
+
+        output.writeShort(shared);
+        output.writeUTF(path.substring(shared));
+
+        previousPath = path;
+    }
+
+    String readPath(DataInputStream input) throws IOException {
+        String path = previousPath.substring(0, input.readUnsignedShort()) + input.readUTF();
+
+        previousPath = path;
+        return path;
+    }
+
+    //A missing hash is stored as an empty one
+    static void writeHash(DataOutputStream output, byte[] hash) throws IOException {
+        output.writeByte(hash == null ? 0 : hash.length);
+
+        if (hash != null)
+            output.write(hash);
+    }
+
+    static byte[] readHash(DataInputStream input) throws IOException {
+        int length = input.readUnsignedByte();
+
+        if (length == 0)
+            return null;
+
+        byte[] hash = new byte[length];
+        input.readFully(hash);
+        return hash;
+    }
+
+    static String toHex(byte[] bytes) {
+        StringBuilder builder = new StringBuilder(bytes.length * 2);
+
+        for (byte b : bytes) {
+            builder.append(Character.forDigit((b >> 4) & 0xF, 16));
+            builder.append(Character.forDigit(b & 0xF, 16));
+        }
+
+        return builder.toString();
+    }
+
+    static byte[] fromHex(String hex) {
+        byte[] bytes = new byte[hex.length() / 2];
+
+        for (int i = 0; i < bytes.length; i++)
+            bytes[i] = (byte) Integer.parseInt(hex.substring(i * 2, i * 2 + 2), 16);
+
+        return bytes;
+    }
+
+    private static int sharedPrefix(String first, String second) {
+        int length = Math.min(Math.min(first.length(), second.length()), 0xFFFF);
+        int shared = 0;
+
+        while (shared < length && first.charAt(shared) == second.charAt(shared))
+            shared++;
+
+        return shared;
+    }
+}
@@ -0,0 +1,784 @@
+package pedrog022.storageapi.storageaccess;
+
+import android.content.Context;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.Map;
+
+//Decorator recording every call on StorageMetrics under the wrapped provider's name.
+//Streams, channels and line iterators are recorded twice: opening them, and their whole lifetime
+//with the bytes that went through once they're closed. Text operations count the encoded bytes.
+public class InstrumentedFileProvider implements FileProvider {
+    private final FileProvider delegate;
+    private final StorageMetrics metrics;
+    private final String name;
+
+    private interface Call<T, E extends Exception> {
+        T run() throws E;
+    }
+
+    public InstrumentedFileProvider(FileProvider delegate, StorageMetrics metrics) {
+        this.delegate = delegate;
+        this.metrics = metrics;
+        this.name = delegate.name();
+    }
+
+    public FileProvider getDelegate() {
+        return delegate;
+    }
+
+    private <T, E extends Exception> T timed(String operation, Call<T, E> call) throws E {
+        StorageMetrics.OperationStats stats = metrics.stats(name, operation);
+        long start = System.nanoTime();
+        boolean failed = true;
+
+        try {
+            T result = call.run();
+            failed = false;
+            return result;
+        } finally {
+            stats.record(System.nanoTime() - start, failed);
+        }
+    }
+
+    private void bytes(String operation, long count) {
+        metrics.stats(name, operation).addBytes(count);
+    }
+
+    //UTF-8 is counted without encoding the text again
+    static long encodedLength(CharSequence text, Charset charset) {
+        if (!charset.equals(DEFAULT_CHARSET))
+            return text.toString().getBytes(charset).length;
+
+        long length = 0;
+
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+
+            if (c < 0x80) {
+                length++;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < text.length() && Character.isLowSurrogate(text.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else if (c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE) {
+                //Unpaired, encoded as '?'
+                length++;
+            } else {
+                length += 3;
+            }
+        }
+
+        return length;
+    }
+
+    /*--------------------------------------------------------------------------------------------*/
+
+    @Override
+    public String name() {
+        return name;
+    }
+
+    @Override
+    public FileProvider init(Context context) {
+        delegate.init(context);
+        return this;
+    }
+
+    @Override
+    public String readFile(String filepath) throws IOException {
+        String content = timed("readFile", () -> delegate.readFile(filepath));
+        bytes("readFile", encodedLength(content, DEFAULT_CHARSET));
+        return content;
+    }
+
+    @Override
+    public String readFile(String filepath, Charset charset) throws IOException {
+        String content = timed("readFile", () -> delegate.readFile(filepath, charset));
+        bytes("readFile", encodedLength(content, charset));
+        return content;
+    }
+
+    @Override
+    public void forEachLine(String filepath, Charset charset, LineConsumer consumer) throws IOException {
+        long[] total = new long[1];
+
+        try {
+            timed("forEachLine", () -> {
+                delegate.forEachLine(filepath, charset, line -> {
+                    total[0] += encodedLength(line, charset) + 1;
+                    consumer.onLine(line);
+                });
+                return null;
+            });
+        } finally {
+            bytes("forEachLine", total[0]);
+        }
+    }
+
+    @Override
+    public LineIterator lines(String filepath, Charset charset) throws IOException {
+        LineIterator lines = timed("lines", () -> delegate.lines(filepath, charset));
+        return new CountingLineIterator(lines, charset, metrics.stats(name, "lineIterator"));
+    }
+
+    @Override
+    public void createFile(String folderPath, String filename) throws Exception {
+        timed("createFile", () -> {
+            delegate.createFile(folderPath, filename);
+            return null;
+        });
+    }
+
+    @Override
+    public void createFolder(String folderPath) throws Exception {
+        timed("createFolder", () -> {
+            delegate.createFolder(folderPath);
+            return null;
+        });
+    }
+
+    @Override
+    public void deleteFile(String filepath) throws Exception {
+        timed("deleteFile", () -> {
+            delegate.deleteFile(filepath);
+            return null;
+        });
+    }
+
+    @Override
+    public void cleanFolder(String folderPath) throws Exception {
+        timed("cleanFolder", () -> {
+            delegate.cleanFolder(folderPath);
+            return null;
+        });
+    }
+
+    @Override
+    public void renameFile(String filepath, String newName) throws Exception {
+        timed("renameFile", () -> {
+            delegate.renameFile(filepath, newName);
+            return null;
+        });
+    }
+
+    @Override
+    public void writeFile(String filepath, String content) throws IOException {
+        timed("writeFile", () -> {
+            delegate.writeFile(filepath, content);
+            return null;
+        });
+        bytes("writeFile", encodedLength(content, DEFAULT_CHARSET));
+    }
+
+    @Override
+    public void writeFile(String filepath, byte[] content, WriteOptions options) throws IOException {
+        timed("writeFile", () -> {
+            delegate.writeFile(filepath, content, options);
+            return null;
+        });
+        bytes("writeFile", content.length);
+    }
+
+    @Override
+    public void writeFile(String filepath, String content, WriteOptions options) throws IOException {
+        timed("writeFile", () -> {
+            delegate.writeFile(filepath, content, options);
+            return null;
+        });
+        bytes("writeFile", encodedLength(content, DEFAULT_CHARSET));
+    }
+
+    @Override
+    public boolean isFile(String filepath) {
+        return timed("isFile", () -> delegate.isFile(filepath));
+    }
+
+    @Override
+    public boolean isFolder(String filepath) {
+        return timed("isFolder", () -> delegate.isFolder(filepath));
+    }
+
+    @Override
+    public boolean exists(String filePath) {
+        return timed("exists", () -> delegate.exists(filePath));
+    }
+
+    @Override
+    public Map<String, FileEntry> stat(String... paths) throws Exception {
+        return timed("stat", () -> delegate.stat(paths));
+    }
+
+    @Override
+    public void copyFile(String originalFilepath, String newFilepath) throws Exception {
+        timed("copyFile", () -> {
+            delegate.copyFile(originalFilepath, newFilepath);
+            return null;
+        });
+    }
+
+    @Override
+    public void moveFile(String filepath, String folderPath) throws Exception {
+        timed("moveFile", () -> {
+            delegate.moveFile(filepath, folderPath);
+            return null;
+        });
+    }
+
+    @Override
+    public String[] getFolderContent(String folderPath) throws Exception {
+        return timed("getFolderContent", () -> delegate.getFolderContent(folderPath));
+    }
+
+    @Override
+    public FileBatch batch() {
+        FileBatch.Runner runner = delegate.batch().getRunner();
+        return new FileBatch(operations -> timed("batch", () -> runner.run(operations)));
+    }
+
+    @Override
+    public void copyTree(String sourcePath, String targetPath, TreeOptions options) throws Exception {
+        timed("copyTree", () -> {
+            delegate.copyTree(sourcePath, targetPath, options);
+            return null;
+        });
+    }
+
+    @Override
+    public void deleteTree(String path, TreeOptions options) throws Exception {
+        timed("deleteTree", () -> {
+            delegate.deleteTree(path, options);
+            return null;
+        });
+    }
+
+    @Override
+    public void cleanFolder(String folderPath, TreeOptions options) throws Exception {
+        timed("cleanFolder", () -> {
+            delegate.cleanFolder(folderPath, options);
+            return null;
+        });
+    }
+
+    @Override
+    public long computeSize(String path, TreeOptions options) throws Exception {
+        return timed("computeSize", () -> delegate.computeSize(path, options));
+    }
+
+    @Override
+    public List<FileEntry> listEntries(String folderPath) throws Exception {
+        return timed("listEntries", () -> delegate.listEntries(folderPath));
+    }
+
+    @Override
+    public EntryIterator iterateEntries(String folderPath, int pageSize) throws Exception {
+        return timed("iterateEntries", () -> delegate.iterateEntries(folderPath, pageSize));
+    }
+
+    @Override
+    public InputStream openInputStream(String filepath) throws IOException {
+        InputStream inputStream = timed("openInputStream", () -> delegate.openInputStream(filepath));
+        return new CountingInputStream(inputStream, metrics.stats(name, "inputStream"));
+    }
+
+    @Override
+    public OutputStream openOutputStream(String filepath) throws IOException {
+        OutputStream outputStream = timed("openOutputStream", () -> delegate.openOutputStream(filepath));
+        return new CountingOutputStream(outputStream, metrics.stats(name, "outputStream"));
+    }
+
+    @Override
+    public ReadableByteChannel openReadableChannel(String filepath) throws IOException {
+        ReadableByteChannel channel = timed("openReadableChannel", () -> delegate.openReadableChannel(filepath));
+        return new CountingReadableChannel(channel, metrics.stats(name, "readableChannel"));
+    }
+
+    @Override
+    public WritableByteChannel openWritableChannel(String filepath) throws IOException {
+        WritableByteChannel channel = timed("openWritableChannel", () -> delegate.openWritableChannel(filepath));
+        return new CountingWritableChannel(channel, metrics.stats(name, "writableChannel"));
+    }
+
+    @Override
+    public FileChannel openPositionalWriteChannel(String filepath) throws IOException {
+        FileChannel channel = timed("openPositionalWriteChannel", () -> delegate.openPositionalWriteChannel(filepath));
+        return new CountingFileChannel(channel, metrics.stats(name, "positionalWriteChannel"));
+    }
+
+    @Override
+    public Watch watch(String folderPath, WatchOptions options, WatchListener listener) throws Exception {
+        return timed("watch", () -> delegate.watch(folderPath, options, listener));
+    }
+
+    @Override
+    public Watch watch(String folderPath, WatchListener listener) throws Exception {
+        return timed("watch", () -> delegate.watch(folderPath, listener));
+    }
+
+    @Override
+    public ByteBuffer readRange(String filepath, long offset, int length) throws IOException {
+        ByteBuffer buffer = timed("readRange", () -> delegate.readRange(filepath, offset, length));
+        bytes("readRange", buffer.remaining());
+        return buffer;
+    }
+
+    @Override
+    public ByteBuffer map(String filepath) throws IOException {
+        ByteBuffer buffer = timed("map", () -> delegate.map(filepath));
+        bytes("map", buffer.remaining());
+        return buffer;
+    }
+
+    @Override
+    public void readChunks(String filepath, int chunkSize, ChunkConsumer consumer) throws IOException {
+        long[] total = new long[1];
+
+        try {
+            timed("readChunks", () -> {
+                delegate.readChunks(filepath, chunkSize, (buffer, length) -> {
+                    total[0] += length;
+                    consumer.onChunk(buffer, length);
+                });
+                return null;
+            });
+        } finally {
+            bytes("readChunks", total[0]);
+        }
+    }
+
+    @Override
+    public void writeChunks(String filepath, int chunkSize, ChunkProducer producer) throws IOException {
+        long[] total = new long[1];
+
+        try {
+            timed("writeChunks", () -> {
+                delegate.writeChunks(filepath, chunkSize, buffer -> {
+                    int length = producer.fill(buffer);
+
+                    if (length > 0)
+                        total[0] += length;
+
+                    return length;
+                });
+                return null;
+            });
+        } finally {
+            bytes("writeChunks", total[0]);
+        }
+    }
+
+    /*--------------------------------------------------------------------------------------------*/
+
+    private static class CountingInputStream extends FilterInputStream {
+        private final StorageMetrics.OperationStats stats;
+        private final long openedAt = System.nanoTime();
+        private long count;
+        private boolean failed;
+        private boolean closed;
+
+        CountingInputStream(InputStream in, StorageMetrics.OperationStats stats) {
+            super(in);
+            this.stats = stats;
+        }
+
+        @Override
+        public int read() throws IOException {
+            try {
+                int value = super.read();
+
+                if (value != -1)
+                    count++;
+
+                return value;
+            } catch (IOException e) {
+                failed = true;
+                throw e;
+            }
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            try {
+                int read = super.read(b, off, len);
+
+                if (read > 0)
+                    count += read;
+
+                return read;
+            } catch (IOException e) {
+                failed = true;
+                throw e;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                super.close();
+                return;
+            }
+
+            closed = true;
+
+            try {
+                super.close();
+            } finally {
+                stats.addBytes(count);
+                stats.record(System.nanoTime() - openedAt, failed);
+            }
+        }
+    }
+
+    //Counts the encoded lines plus their line break, as forEachLine does
+    private static class CountingLineIterator implements LineIterator {
+        private final LineIterator lines;
+        private final Charset charset;
+        private final StorageMetrics.OperationStats stats;
+        private final long openedAt = System.nanoTime();
+        private long count;
+        private boolean failed;
+        private boolean closed;
+
+        CountingLineIterator(LineIterator lines, Charset charset, StorageMetrics.OperationStats stats) {
+            this.lines = lines;
+            this.charset = charset;
+            this.stats = stats;
+        }
+
+        @Override
+        public boolean hasNext() {
+            try {
+                return lines.hasNext();
+            } catch (RuntimeException e) {
+                failed = true;
+                throw e;
+            }
+        }
+
+        @Override
+        public String next() {
+            try {
+                String line = lines.next();
+                count += encodedLength(line, charset) + 1;
+                return line;
+            } catch (RuntimeException e) {
+                failed = true;
+                throw e;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                lines.close();
+                return;
+            }
+
+            closed = true;
+
+            try {
+                lines.close();
+            } finally {
+                stats.addBytes(count);
+                stats.record(System.nanoTime() - openedAt, failed);
+            }
+        }
+    }
+
+    private static class CountingOutputStream extends FilterOutputStream {
+        private final StorageMetrics.OperationStats stats;
+        private final long openedAt = System.nanoTime();
+        private long count;
+        private boolean failed;
+        private boolean closed;
+
+        CountingOutputStream(OutputStream out, StorageMetrics.OperationStats stats) {
+            super(out);
+            this.stats = stats;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            try {
+                out.write(b);
+                count++;
+            } catch (IOException e) {
+                failed = true;
+                throw e;
+            }
+        }
+
+        //FilterOutputStream writes arrays one byte at a time, go straight to the wrapped stream
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            try {
+                out.write(b, off, len);
+                count += len;
+            } catch (IOException e) {
+                failed = true;
+                throw e;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                super.close();
+                return;
+            }
+
+            closed = true;
+
+            try {
+                super.close();
+            } finally {
+                stats.addBytes(count);
+                stats.record(System.nanoTime() - openedAt, failed);
+            }
+        }
+    }
+
+    private static class CountingReadableChannel implements ReadableByteChannel {
+        private final ReadableByteChannel channel;
+        private final StorageMetrics.OperationStats stats;
+        private final long openedAt = System.nanoTime();
+        private long count;
+        private boolean failed;
+        private boolean closed;
+
+        CountingReadableChannel(ReadableByteChannel channel, StorageMetrics.OperationStats stats) {
+            this.channel = channel;
+            this.stats = stats;
+        }
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            try {
+                int read = channel.read(dst);
+
+                if (read > 0)
+                    count += read;
+
+                return read;
+            } catch (IOException e) {
+                failed = true;
+                throw e;
+            }
+        }
+
+        @Override
+        public boolean isOpen() {
+            return channel.isOpen();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                channel.close();
+                return;
+            }
+
+            closed = true;
+
+            try {
+                channel.close();
+            } finally {
+                stats.addBytes(count);
+                stats.record(System.nanoTime() - openedAt, failed);
+            }
+        }
+    }
+
+    private static class CountingWritableChannel implements WritableByteChannel {
+        private final WritableByteChannel channel;
+        private final StorageMetrics.OperationStats stats;
+        private final long openedAt = System.nanoTime();
+        private long count;
+        private boolean failed;
+        private boolean closed;
+
+        CountingWritableChannel(WritableByteChannel channel, StorageMetrics.OperationStats stats) {
+            this.channel = channel;
+            this.stats = stats;
+        }
+
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            try {
+                int written = channel.write(src);
+                count += written;
+                return written;
+            } catch (IOException e) {
+                failed = true;
+                throw e;
+            }
+        }
+
+        @Override
+        public boolean isOpen() {
+            return channel.isOpen();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                channel.close();
+                return;
+            }
+
+            closed = true;
+
+            try {
+                channel.close();
+            } finally {
+                stats.addBytes(count);
+                stats.record(System.nanoTime() - openedAt, failed);
+            }
+        }
+    }
+
+    //Counts the bytes written, reads through it aren't counted
+    private static class CountingFileChannel extends FileChannel {
+        private final FileChannel channel;
+        private final StorageMetrics.OperationStats stats;
+        private final long openedAt = System.nanoTime();
+        private long count;
+        private boolean failed;
+
+        CountingFileChannel(FileChannel channel, StorageMetrics.OperationStats stats) {
+            this.channel = channel;
+            this.stats = stats;
+        }
+
+        private long written(long written) {
+            count += written;
+            return written;
+        }
+
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            try {
+                return (int) written(channel.write(src));
+            } catch (IOException e) {
+                failed = true;
+                throw e;
+            }
+        }
+
+        @Override
+        public long write(ByteBuffer[] srcs, int offset, int length) throws IOException {
+            try {
+                return written(channel.write(srcs, offset, length));
+            } catch (IOException e) {
+                failed = true;
+                throw e;
+            }
+        }
+
+        @Override
+        public int write(ByteBuffer src, long position) throws IOException {
+            try {
+                return (int) written(channel.write(src, position));
+            } catch (IOException e) {
+                failed = true;
+                throw e;
+            }
+        }
+
+        @Override
+        public long transferFrom(ReadableByteChannel src, long position, long count) throws IOException {
+            try {
+                return written(channel.transferFrom(src, position, count));
+            } catch (IOException e) {
+                failed = true;
+                throw e;
+            }
+        }
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            return channel.read(dst);
+        }
+
+        @Override
+        public long read(ByteBuffer[] dsts, int offset, int length) throws IOException {
+            return channel.read(dsts, offset, length);
+        }
+
+        @Override
+        public int read(ByteBuffer dst, long position) throws IOException {
+            return channel.read(dst, position);
+        }
+
+        @Override
+        public long position() throws IOException {
+            return channel.position();
+        }
+
+        @Override
+        public FileChannel position(long newPosition) throws IOException {
+            channel.position(newPosition);
+            return this;
+        }
+
+        @Override
+        public long size() throws IOException {
+            return channel.size();
+        }
+
+        @Override
+        public FileChannel truncate(long size) throws IOException {
+            channel.truncate(size);
+            return this;
+        }
+
+        @Override
+        public void force(boolean metaData) throws IOException {
+            channel.force(metaData);
+        }
+
+        @Override
+        public long transferTo(long position, long count, WritableByteChannel target) throws IOException {
+            return channel.transferTo(position, count, target);
+        }
+
+        @Override
+        public MappedByteBuffer map(MapMode mode, long position, long size) throws IOException {
+            return channel.map(mode, position, size);
+        }
+
+        @Override
+        public FileLock lock(long position, long size, boolean shared) throws IOException {
+            return channel.lock(position, size, shared);
+        }
+
+        @Override
+        public FileLock tryLock(long position, long size, boolean shared) throws IOException {
+            return channel.tryLock(position, size, shared);
+        }
+
+        //Only called once, by close()
+        @Override
+        protected void implCloseChannel() throws IOException {
+            try {
+                channel.close();
+            } finally {
+                stats.addBytes(count);
+                stats.record(System.nanoTime() - openedAt, failed);
+            }
+        }
+    }
+}
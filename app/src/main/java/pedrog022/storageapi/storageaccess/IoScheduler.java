@@ -0,0 +1,267 @@
+package pedrog022.storageapi.storageaccess;
+
+import android.os.Looper;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+//Bounded worker pool shared by every StorageAccess I/O operation
+public class IoScheduler {
+    public static final int PRIORITY_LOW = 0;
+    public static final int PRIORITY_NORMAL = 5;
+    public static final int PRIORITY_HIGH = 10;
+
+    public enum BackpressurePolicy {
+        //Submitting thread waits until a pending slot frees up. The main thread never waits, it gets
+        //a RejectedExecutionException instead.
+        BLOCK,
+        //Submit throws RejectedExecutionException
+        REJECT,
+        //Task runs synchronously on the submitting thread
+        CALLER_RUNS
+    }
+
+    private final ThreadPoolExecutor executor;
+    private final int maxPerKey;
+    private final Semaphore pendingSlots;
+    private final BackpressurePolicy policy;
+
+    private final AtomicLong sequence = new AtomicLong();
+    private final HashMap<String, KeyState> keys = new HashMap<>();
+
+    //Rejects when full, the shared instance is reached from the UI thread
+    public IoScheduler() {
+        this(Math.max(2, Runtime.getRuntime().availableProcessors()), 4, 256, BackpressurePolicy.REJECT);
+    }
+
+    public IoScheduler(int workers, int maxPerKey, int maxPending, BackpressurePolicy policy) {
+        if (workers < 1 || maxPerKey < 1 || maxPending < 1)
+            throw new IllegalArgumentException("Workers, per key and pending limits must be positive!");
+
+        this.maxPerKey = maxPerKey;
+        this.pendingSlots = new Semaphore(maxPending);
+        this.policy = policy;
+
+        executor = new ThreadPoolExecutor(workers, workers, 30, TimeUnit.SECONDS,
+                new PriorityBlockingQueue<>(), new IoThreadFactory(),
+                (runnable, pool) -> ((Task<?>) runnable).cancel(false));
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    public <T> Task<T> submit(Callable<T> callable) {
+        return submit(null, PRIORITY_NORMAL, callable);
+    }
+
+    //Tasks sharing the same key (e.g. a download host) never run more than maxPerKey at once
+    public <T> Task<T> submit(String key, int priority, Callable<T> callable) {
+        if (executor.isShutdown())
+            throw new RejectedExecutionException("Scheduler was shut down!");
+
+        Task<T> task = new Task<>(callable, key, priority, sequence.getAndIncrement());
+
+        if (!acquireSlot()) {
+            if (policy == BackpressurePolicy.REJECT)
+                throw new RejectedExecutionException("Too many pending I/O tasks!");
+
+            task.run();
+            return task;
+        }
+
+        task.holdsSlot = true;
+        enqueue(task);
+        return task;
+    }
+
+    private boolean acquireSlot() {
+        if (policy != BackpressurePolicy.BLOCK)
+            return pendingSlots.tryAcquire();
+
+        if (isMainThread()) {
+            if (!pendingSlots.tryAcquire())
+                throw new RejectedExecutionException("Too many pending I/O tasks, the main thread doesn't wait for them!");
+
+            return true;
+        }
+
+        try {
+            pendingSlots.acquire();
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RejectedExecutionException("Interrupted while waiting for a pending slot", e);
+        }
+    }
+
+    private static boolean isMainThread() {
+        try {
+            Looper mainLooper = Looper.getMainLooper();
+            return mainLooper != null && mainLooper.getThread() == Thread.currentThread();
+        } catch (RuntimeException e) {
+            //Local unit tests run without a main looper
+            return false;
+        }
+    }
+
+    private void enqueue(Task<?> task) {
+        synchronized (keys) {
+            if (task.key != null) {
+                KeyState state = keys.get(task.key);
+
+                if (state == null) {
+                    state = new KeyState();
+                    keys.put(task.key, state);
+                }
+
+                if (state.running >= maxPerKey) {
+                    state.waiting.add(task);
+                    return;
+                }
+
+                state.running++;
+            }
+
+            task.dispatched = true;
+        }
+
+        executor.execute(task);
+    }
+
+    private void onTaskDone(Task<?> task) {
+        if (task.holdsSlot)
+            pendingSlots.release();
+
+        if (task.key == null)
+            return;
+
+        Task<?> next = null;
+
+        synchronized (keys) {
+            KeyState state = keys.get(task.key);
+
+            if (state == null)
+                return;
+
+            if (!task.dispatched) {
+                state.waiting.remove(task);
+            } else {
+                state.running--;
+
+                while ((next = state.waiting.poll()) != null) {
+                    if (!next.isDone()) {
+                        state.running++;
+                        next.dispatched = true;
+                        break;
+                    }
+                }
+            }
+
+            if (state.running == 0 && state.waiting.isEmpty())
+                keys.remove(task.key);
+        }
+
+        if (next != null)
+            executor.execute(next);
+    }
+
+    public int getActiveCount() {
+        return executor.getActiveCount();
+    }
+
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    public void shutdownNow() {
+        executor.shutdownNow();
+    }
+
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return executor.awaitTermination(timeout, unit);
+    }
+
+    /*--------------------------------------------------------------------------------------------*/
+
+    public class Task<T> extends FutureTask<T> implements Comparable<Task<?>> {
+        private final String key;
+        private final int priority;
+        private final long order;
+        private volatile boolean holdsSlot;
+        private boolean dispatched;
+        private ArrayList<Runnable> listeners = new ArrayList<>();
+
+        private Task(Callable<T> callable, String key, int priority, long order) {
+            super(callable);
+            this.key = key;
+            this.priority = priority;
+            this.order = order;
+        }
+
+        public int getPriority() {
+            return priority;
+        }
+
+        //Runs once the task completed, failed or was cancelled, even when it never started. Runs
+        //right away when the task is already done.
+        public void whenDone(Runnable listener) {
+            synchronized (this) {
+                if (listeners != null) {
+                    listeners.add(listener);
+                    return;
+                }
+            }
+
+            listener.run();
+        }
+
+        @Override
+        protected void done() {
+            onTaskDone(this);
+
+            ArrayList<Runnable> done;
+            synchronized (this) {
+                done = listeners;
+                listeners = null;
+            }
+
+            for (Runnable listener : done)
+                listener.run();
+        }
+
+        @Override
+        public int compareTo(Task<?> other) {
+            if (priority != other.priority)
+                return priority > other.priority ? -1 : 1;
+
+            //Long.compare needs API 19
+            return order < other.order ? -1 : (order == other.order ? 0 : 1);
+        }
+    }
+
+    //Tasks waiting for their key are ordered like the executor's queue, by priority first
+    private static class KeyState {
+        private int running;
+        private final PriorityQueue<Task<?>> waiting = new PriorityQueue<>();
+    }
+
+    private static class IoThreadFactory implements ThreadFactory {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "StorageAccess-io-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
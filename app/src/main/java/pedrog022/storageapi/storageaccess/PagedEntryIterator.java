@@ -0,0 +1,75 @@
+package pedrog022.storageapi.storageaccess;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.NoSuchElementException;
+
+//Loads folder entries pageSize at a time, so huge folders are never fully materialized
+abstract class PagedEntryIterator implements FileProvider.EntryIterator {
+    private final int pageSize;
+    private final ArrayList<FileEntry> page;
+    private int position;
+    private boolean exhausted;
+    private boolean released;
+
+    PagedEntryIterator(int pageSize) {
+        this.pageSize = pageSize > 0 ? pageSize : 256;
+        this.page = new ArrayList<>(this.pageSize);
+    }
+
+    //Adds at most pageSize entries to page, returns false once the source has no more entries
+    protected abstract boolean fillPage(ArrayList<FileEntry> page, int pageSize) throws IOException;
+
+    protected abstract void release() throws IOException;
+
+    @Override
+    public boolean hasNext() {
+        if (position < page.size())
+            return true;
+
+        if (exhausted)
+            return false;
+
+        page.clear();
+        position = 0;
+
+        try {
+            exhausted = !fillPage(page, pageSize);
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to load the next entries page", e);
+        }
+
+        if (exhausted)
+            releaseQuietly();
+
+        return !page.isEmpty();
+    }
+
+    @Override
+    public FileEntry next() {
+        if (!hasNext())
+            throw new NoSuchElementException();
+
+        return page.get(position++);
+    }
+
+    @Override
+    public void close() throws IOException {
+        exhausted = true;
+        page.clear();
+        position = 0;
+
+        if (!released) {
+            released = true;
+            release();
+        }
+    }
+
+    private void releaseQuietly() {
+        try {
+            released = true;
+            release();
+        } catch (IOException ignored) {
+        }
+    }
+}
@@ -5,11 +5,9 @@ import static android.app.Activity.RESULT_CANCELED;
 import android.Manifest;
 import android.app.Activity;
 import android.app.AlertDialog;
-import android.content.ContentResolver;
 import android.content.Context;
 import android.content.Intent;
 import android.content.SharedPreferences;
-import android.content.UriPermission;
 import android.content.pm.PackageManager;
 import android.net.Uri;
 import android.os.Build;
@@ -27,7 +25,6 @@ import androidx.documentfile.provider.DocumentFile;
 
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Objects;
 
 import pedrog022.storageapi.utils.Utils;
@@ -38,24 +35,34 @@ public class PermissionUtil {
     }
 
     public void handleApiPermissions(Context context) {
+        if (arePermissionsGranted(context)) {
+            permissionsOk();
+        } else {
+            requestMissingPermissions(context);
+        }
+    }
+
+    //Only reads the current state, safe to call off the main thread
+    public boolean arePermissionsGranted(Context context) {
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M && Build.VERSION.SDK_INT < Build.VERSION_CODES.Q) {
-            if (!Normal.isWritePermissionGranted(context)) {
-                AlertDialog dialog = permissionsDialog(context,
-                        () -> ActivityCompat.requestPermissions((Activity) context,
-                                new String[]{Manifest.permission.WRITE_EXTERNAL_STORAGE}, 720)
-                        , () -> Utils.toast(context, Utils.Errors.PERMISSIONS_DENIED)).create();
-                dialog.show();
-            } else {
-                permissionsOk();
-            }
+            return Normal.isWritePermissionGranted(context);
         } else if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
-            if (!Scoped.areAllNeededPermissionsOk(context)) {
-                Scoped.askForMissingPermissions(context);
-            } else {
-                permissionsOk();
-            }
-        } else {
-            permissionsOk();
+            return Scoped.areAllNeededPermissionsOk(context);
+        }
+
+        return true;
+    }
+
+    //Asks for whatever is missing, must run on the main thread
+    public void requestMissingPermissions(Context context) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M && Build.VERSION.SDK_INT < Build.VERSION_CODES.Q) {
+            AlertDialog dialog = permissionsDialog(context,
+                    () -> ActivityCompat.requestPermissions((Activity) context,
+                            new String[]{Manifest.permission.WRITE_EXTERNAL_STORAGE}, 720)
+                    , () -> Utils.toast(context, Utils.Errors.PERMISSIONS_DENIED)).create();
+            dialog.show();
+        } else if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            Scoped.askForMissingPermissions(context);
         }
     }
 
@@ -80,6 +87,7 @@ public class PermissionUtil {
     public static class Scoped {
         private static final ArrayList<String> requiredStoragePermissions = new ArrayList<>();
         private static final HashMap<String, ActivityResultLauncher<Intent>> permissionsAndLaunchers = new HashMap<>();
+        private static final GrantIndex grants = new GrantIndex();
 
         public static void init(Context context, ArrayList<String> paths) {
             if (!requiredStoragePermissions.isEmpty())
@@ -108,7 +116,7 @@ public class PermissionUtil {
         }
 
         private static void android_r_permissions(Context context, Uri uri, int code) {
-            String granted = Uri.decode(uri.getPath()).substring(14);
+            String granted = GrantIndex.pathOf(uri.getPath());
 
             if (!requiredStoragePermissions.contains(granted))
                 Utils.toast(context, String.format("The selected path is incorrect! Please try again selecting the right path: %s!", requiredStoragePermissions.get(code)));
@@ -120,44 +128,41 @@ public class PermissionUtil {
                 context.getContentResolver().takePersistableUriPermission(uri, Intent.FLAG_GRANT_READ_URI_PERMISSION | Intent.FLAG_GRANT_WRITE_URI_PERMISSION);
             }
 
+            if (granted != null)
+                grants.add(granted, uri);
+
             SharedPreferences.Editor editor = context.getSharedPreferences("prefs", Context.MODE_PRIVATE).edit();
             editor.putString(requiredStoragePermissions.get(code), Objects.requireNonNull(locationDir).getUri().toString());
 
             editor.apply();
         }
 
+        //Loaded from the persisted grants once, then kept up to date by android_r_permissions
+        @RequiresApi(api = Build.VERSION_CODES.KITKAT)
+        public static GrantIndex getGrantIndex(Context context) {
+            synchronized (grants) {
+                if (!grants.isLoaded())
+                    grants.reload(context.getContentResolver());
+            }
+
+            return grants;
+        }
+
         @RequiresApi(api = Build.VERSION_CODES.KITKAT)
         private static boolean areAllNeededPermissionsOk(Context context) {
-            boolean allOk = true;
+            GrantIndex index = getGrantIndex(context);
 
             for (String permission : requiredStoragePermissions) {
-
-                if (isFilePermissionGranted(context, permission)) {
-                    allOk = false;
-                }
+                if (!index.isGranted(permission))
+                    return false;
             }
 
-            return allOk;
+            return true;
         }
 
         @RequiresApi(api = Build.VERSION_CODES.KITKAT)
         private static boolean isFilePermissionGranted(Context context, String path) {
-
-            ContentResolver resolver = context.getContentResolver();
-            List<UriPermission> permissions = resolver.getPersistedUriPermissions();
-
-            boolean found_permission = false;
-
-            for (UriPermission permission : permissions) {
-                String decodedUri = Uri.decode(permission.getUri().toString());
-
-                if (decodedUri.contains(path)) {
-                    found_permission = true;
-                    break;
-                }
-            }
-
-            return found_permission;
+            return getGrantIndex(context).isGranted(path);
         }
 
         private static boolean dialogShown = false;
@@ -0,0 +1,532 @@
+package pedrog022.storageapi.storageaccess;
+
+import org.jsoup.Connection;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RunnableFuture;
+import java.util.concurrent.TimeUnit;
+
+import pedrog022.storageapi.utils.Utils;
+
+//Downloads a file in parallel segments using HTTP Range requests, writing each segment at its
+//offset. Progress is kept in "<destination>.journal" so a failed or cancelled download resumes
+//from where it stopped. Servers without range support fall back to a single sequential stream.
+public class RangeDownloader {
+    public static final String JOURNAL_SUFFIX = ".journal";
+    private static final long MIN_SEGMENT_SIZE = 256 * 1024;
+    private static final long JOURNAL_INTERVAL_MILLIS = 1000;
+
+    private final DownloadEngine engine;
+    private final IoScheduler scheduler;
+
+    public RangeDownloader(IoScheduler scheduler) {
+        this(new DownloadEngine(), scheduler);
+    }
+
+    //Segments run on scheduler keyed by host, so its per key limit caps the connections
+    public RangeDownloader(DownloadEngine engine, IoScheduler scheduler) {
+        this.engine = engine;
+        this.scheduler = scheduler;
+    }
+
+    //Returns the size of the downloaded file
+    public long download(FileProvider provider, String url, String destinationPath, Options options,
+                         DownloadEngine.ProgressListener listener) throws Exception {
+        String journalPath = destinationPath + JOURNAL_SUFFIX;
+        Remote remote = probe(url);
+
+        if (remote == null) {
+            prepareTarget(provider, destinationPath, journalPath, options);
+
+            long size;
+            try (WritableByteChannel channel = provider.openWritableChannel(destinationPath)) {
+                size = engine.download(url, channel, listener);
+            }
+
+            verify(provider, destinationPath, journalPath, options);
+            return size;
+        }
+
+        Journal journal = Journal.load(provider, journalPath);
+
+        if (journal == null || !journal.matches(url, remote) || !provider.exists(destinationPath)) {
+            prepareTarget(provider, destinationPath, journalPath, options);
+            journal = new Journal(url, remote, split(remote.length, options.segments));
+            journal.save(provider, journalPath, null);
+        }
+
+        fetchSegments(provider, destinationPath, journalPath, journal, options, listener);
+        verify(provider, destinationPath, journalPath, options);
+        deleteQuietly(provider, journalPath);
+
+        return remote.length;
+    }
+
+    //Range of the first byte tells whether ranges work, how big the file is and its validator
+    private Remote probe(String url) throws IOException {
+        Connection.Response response = engine.connect(url)
+                .header("Range", "bytes=0-0")
+                .ignoreHttpErrors(true)
+                .execute();
+
+        InputStream body = response.bodyStream();
+        try {
+            if (response.statusCode() != 206)
+                return null;
+        } finally {
+            body.close();
+        }
+
+        String contentRange = response.header("Content-Range");
+
+        if (contentRange == null || contentRange.endsWith("/*"))
+            return null;
+
+        long length;
+        try {
+            length = Long.parseLong(contentRange.substring(contentRange.lastIndexOf("/") + 1).trim());
+        } catch (NumberFormatException e) {
+            return null;
+        }
+
+        String validator = response.header("ETag");
+
+        if (validator == null || validator.startsWith("W/"))
+            validator = response.header("Last-Modified");
+
+        return new Remote(length, validator);
+    }
+
+    private static void prepareTarget(FileProvider provider, String destinationPath, String journalPath,
+                                      Options options) throws Exception {
+        boolean stale = provider.exists(journalPath);
+
+        if (provider.exists(destinationPath)) {
+            if (!stale && !options.overwrite)
+                throw new Exception("Target download file already exits!");
+
+            provider.deleteFile(destinationPath);
+        }
+
+        deleteQuietly(provider, journalPath);
+
+        int index = destinationPath.lastIndexOf("/");
+        provider.createFile(destinationPath.substring(0, Math.max(index, 0)), destinationPath.substring(index + 1));
+    }
+
+    static List<Segment> split(long length, int segments) {
+        long count = Math.max(1, Math.min(segments, length / MIN_SEGMENT_SIZE));
+        long size = length / count;
+
+        ArrayList<Segment> result = new ArrayList<>();
+
+        for (int i = 0; i < count; i++) {
+            long start = i * size;
+            long end = i == count - 1 ? length - 1 : start + size - 1;
+            result.add(new Segment(start, end, 0));
+        }
+
+        return result;
+    }
+
+    private void fetchSegments(FileProvider provider, String destinationPath, String journalPath, Journal journal,
+                               Options options, DownloadEngine.ProgressListener listener) throws Exception {
+        FileChannel channel = provider.openPositionalWriteChannel(destinationPath);
+        Checkpoint checkpoint = new Checkpoint(provider, journalPath, journal, channel, listener);
+        ArrayList<RunnableFuture<Void>> tasks = new ArrayList<>();
+        String host = DownloadEngine.hostOf(journal.url);
+
+        try {
+            for (Segment segment : journal.segments) {
+                if (segment.isComplete())
+                    continue;
+
+                Callable<Void> callable = () -> {
+                    checkpoint.enter();
+                    try {
+                        fetch(journal, segment, channel, checkpoint, options.retries);
+                    } finally {
+                        checkpoint.exit();
+                    }
+
+                    return null;
+                };
+
+                try {
+                    tasks.add(scheduler.submit(host, IoScheduler.PRIORITY_NORMAL, callable));
+                } catch (RejectedExecutionException e) {
+                    //A full scheduler leaves the segment to this thread
+                    tasks.add(new FutureTask<>(callable));
+                }
+            }
+
+            for (RunnableFuture<Void> task : tasks) {
+                //Segments still waiting for a worker or a host slot run here instead, this thread may
+                //be holding one of those itself. Started or finished tasks don't run twice.
+                task.run();
+                task.get();
+            }
+
+            checkpoint.report(System.nanoTime());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Download was cancelled!");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof Exception ? (Exception) cause : new IOException(cause);
+        } finally {
+            for (RunnableFuture<Void> task : tasks)
+                task.cancel(true);
+
+            try {
+                checkpoint.awaitIdle(5000);
+                journal.save(provider, journalPath, channel);
+            } catch (Exception ignored) {
+            } finally {
+                channel.close();
+            }
+        }
+    }
+
+    private void fetch(Journal journal, Segment segment, FileChannel channel, Checkpoint checkpoint,
+                       int retries) throws IOException {
+        for (int attempt = 0; ; attempt++) {
+            try {
+                fetchOnce(journal, segment, channel, checkpoint);
+                return;
+            } catch (SocketTimeoutException e) {
+                //A stalled connection is retried from where the segment stopped
+                if (attempt >= retries || Thread.currentThread().isInterrupted())
+                    throw e;
+            } catch (InterruptedIOException e) {
+                throw e;
+            } catch (IOException e) {
+                if (attempt >= retries || Thread.currentThread().isInterrupted())
+                    throw e;
+            }
+        }
+    }
+
+    private void fetchOnce(Journal journal, Segment segment, FileChannel channel,
+                           Checkpoint checkpoint) throws IOException {
+        if (segment.isComplete())
+            return;
+
+        Connection connection = engine.connect(journal.url)
+                .header("Range", "bytes=" + segment.position() + "-" + segment.end);
+
+        //A changed file is sent whole with a 200 instead of the requested range
+        if (journal.validator != null)
+            connection.header("If-Range", journal.validator);
+
+        Connection.Response response = connection.execute();
+
+        try (InputStream body = engine.bodyOf(response)) {
+            if (response.statusCode() != 206)
+                throw new IOException("Remote file changed or no longer supports ranges!");
+
+            engine.transfer(body, new SegmentChannel(channel, segment), -1, checkpoint);
+        }
+
+        if (!segment.isComplete())
+            throw new IOException(String.format("Segment %d-%d ended early", segment.start, segment.end));
+    }
+
+    private static void verify(FileProvider provider, String destinationPath, String journalPath,
+                               Options options) throws Exception {
+        if (options.checksum == null)
+            return;
+
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance(options.checksumAlgorithm);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+
+        provider.readChunks(destinationPath, 0, (buffer, length) -> digest.update(buffer, 0, length));
+
+        if (!IndexCodec.toHex(digest.digest()).equalsIgnoreCase(options.checksum)) {
+            deleteQuietly(provider, destinationPath);
+            deleteQuietly(provider, journalPath);
+            throw new IOException(String.format("%s checksum mismatch for %s", options.checksumAlgorithm, destinationPath));
+        }
+    }
+
+    private static void deleteQuietly(FileProvider provider, String path) {
+        try {
+            if (provider.exists(path))
+                provider.deleteFile(path);
+        } catch (Exception ignored) {
+        }
+    }
+
+    /*--------------------------------------------------------------------------------------------*/
+
+    public static class Options {
+        private int segments = 4;
+        private int retries = 3;
+        private boolean overwrite;
+        private String checksumAlgorithm;
+        private String checksum;
+
+        //Parallel connections, small files use fewer
+        public Options setSegments(int segments) {
+            if (segments < 1)
+                throw new IllegalArgumentException("Segments must be positive!");
+
+            this.segments = segments;
+            return this;
+        }
+
+        //Attempts per segment after the first one fails
+        public Options setRetries(int retries) {
+            this.retries = Math.max(0, retries);
+            return this;
+        }
+
+        //Replaces an existing file that isn't a partial download
+        public Options setOverwrite(boolean overwrite) {
+            this.overwrite = overwrite;
+            return this;
+        }
+
+        //Hex digest checked once the file is complete, e.g. ("SHA-256", "9f86d0...")
+        public Options setChecksum(String algorithm, String hexDigest) {
+            this.checksumAlgorithm = algorithm;
+            this.checksum = hexDigest;
+            return this;
+        }
+    }
+
+    private static class Remote {
+        private final long length;
+        private final String validator;
+
+        private Remote(long length, String validator) {
+            this.length = length;
+            this.validator = validator;
+        }
+    }
+
+    static class Segment {
+        private final long start;
+        private final long end;
+        private volatile long done;
+
+        Segment(long start, long end, long done) {
+            this.start = start;
+            this.end = end;
+            this.done = done;
+        }
+
+        long position() {
+            return start + done;
+        }
+
+        long remaining() {
+            return end - position() + 1;
+        }
+
+        boolean isComplete() {
+            return remaining() <= 0;
+        }
+    }
+
+    //One line each for url, length and validator followed by "start end done" per segment
+    static class Journal {
+        private final String url;
+        private final long length;
+        private final String validator;
+        private final List<Segment> segments;
+
+        private Journal(String url, Remote remote, List<Segment> segments) {
+            this(url, remote.length, remote.validator, segments);
+        }
+
+        private Journal(String url, long length, String validator, List<Segment> segments) {
+            this.url = url;
+            this.length = length;
+            this.validator = validator;
+            this.segments = segments;
+        }
+
+        private boolean matches(String url, Remote remote) {
+            return this.url.equals(url) && length == remote.length
+                    && (validator == null ? remote.validator == null : validator.equals(remote.validator));
+        }
+
+        long completedBytes() {
+            long completed = 0;
+
+            for (Segment segment : segments)
+                completed += segment.done;
+
+            return completed;
+        }
+
+        static Journal load(FileProvider provider, String path) {
+            try {
+                if (!provider.exists(path))
+                    return null;
+
+                String[] lines = provider.readFile(path).split("\n");
+                ArrayList<Segment> segments = new ArrayList<>();
+
+                for (int i = 3; i < lines.length; i++) {
+                    String[] values = lines[i].trim().split(" ");
+                    segments.add(new Segment(Long.parseLong(values[0]), Long.parseLong(values[1]),
+                            Long.parseLong(values[2])));
+                }
+
+                if (segments.isEmpty())
+                    return null;
+
+                return new Journal(lines[0], Long.parseLong(lines[1]), lines[2].isEmpty() ? null : lines[2], segments);
+            } catch (Exception e) {
+                //A corrupt journal only means the download starts over
+                return null;
+            }
+        }
+
+        //Progress is read before flushing target, so the journal never claims bytes that aren't on disk
+        synchronized void save(FileProvider provider, String path, FileChannel target) throws Exception {
+            StringBuilder builder = new StringBuilder()
+                    .append(url).append('\n')
+                    .append(length).append('\n')
+                    .append(validator == null ? "" : validator).append('\n');
+
+            for (Segment segment : segments)
+                builder.append(segment.start).append(' ').append(segment.end).append(' ').append(segment.done).append('\n');
+
+            if (target != null)
+                target.force(false);
+
+            provider.writeFile(path, builder.toString(), new WriteOptions().setMode(WriteOptions.Mode.ATOMIC));
+        }
+    }
+
+    //Saves the journal and reports progress at most once per interval from whichever segment is
+    //transferring, and counts the segments still running so cleanup can wait for them
+    private static class Checkpoint implements DownloadEngine.ProgressListener {
+        private final FileProvider provider;
+        private final String journalPath;
+        private final Journal journal;
+        private final FileChannel channel;
+        private final DownloadEngine.ProgressListener listener;
+
+        private final long start = System.nanoTime();
+        private final long resumedBytes;
+        private long lastSave;
+        private int running;
+
+        private Checkpoint(FileProvider provider, String journalPath, Journal journal, FileChannel channel,
+                           DownloadEngine.ProgressListener listener) {
+            this.provider = provider;
+            this.journalPath = journalPath;
+            this.journal = journal;
+            this.channel = channel;
+            this.listener = listener;
+            this.resumedBytes = journal.completedBytes();
+            this.lastSave = start;
+        }
+
+        @Override
+        public void onProgress(long bytesTransferred, long totalBytes, double bytesPerSecond) {
+            long now = System.nanoTime();
+
+            synchronized (this) {
+                if (now - lastSave < TimeUnit.MILLISECONDS.toNanos(JOURNAL_INTERVAL_MILLIS))
+                    return;
+
+                lastSave = now;
+            }
+
+            try {
+                journal.save(provider, journalPath, channel);
+            } catch (Exception e) {
+                //The next checkpoint or the final save tries again
+                Utils.log("Couldn't save download journal: %s", journalPath);
+            }
+
+            report(now);
+        }
+
+        private void report(long now) {
+            if (listener == null)
+                return;
+
+            long completed = journal.completedBytes();
+            long elapsed = now - start;
+
+            listener.onProgress(completed, journal.length,
+                    elapsed <= 0 ? 0 : (completed - resumedBytes) * 1_000_000_000d / elapsed);
+        }
+
+        private synchronized void enter() {
+            running++;
+        }
+
+        private synchronized void exit() {
+            running--;
+            notifyAll();
+        }
+
+        private synchronized void awaitIdle(long timeoutMillis) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + timeoutMillis;
+
+            while (running > 0) {
+                long remaining = deadline - System.currentTimeMillis();
+
+                if (remaining <= 0)
+                    return;
+
+                wait(remaining);
+            }
+        }
+    }
+
+    //Positioned writes for one segment, progress only moves once bytes were written
+    private static class SegmentChannel implements WritableByteChannel {
+        private final FileChannel channel;
+        private final Segment segment;
+
+        private SegmentChannel(FileChannel channel, Segment segment) {
+            this.channel = channel;
+            this.segment = segment;
+        }
+
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            if (src.remaining() > segment.remaining())
+                throw new IOException("Server sent more bytes than requested!");
+
+            int written = channel.write(src, segment.position());
+            segment.done += written;
+            return written;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return channel.isOpen();
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -1,41 +1,69 @@
 package pedrog022.storageapi.storageaccess;
 
+import android.annotation.SuppressLint;
 import android.content.ContentResolver;
 import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
 import android.net.Uri;
 import android.os.Build;
 import android.os.Environment;
 import android.os.Handler;
 import android.os.Looper;
 import android.os.ParcelFileDescriptor;
+import android.provider.DocumentsContract;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.RequiresApi;
-import androidx.documentfile.provider.DocumentFile;
 
 import org.apache.commons.io.FileUtils;
-import org.jsoup.Jsoup;
+import org.apache.commons.io.IOUtils;
 
 import java.io.File;
-import java.io.FileDescriptor;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
 import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 
 import pedrog022.storageapi.utils.Utils;
 
 public class StorageAccess {
-    private static final String base = Environment.getExternalStorageDirectory().getAbsolutePath() + "/";
     private static final int SDK = Build.VERSION.SDK_INT;
+    //Shared by every StorageAccess of the process, so provider caches survive between calls
+    private static FileProvider processProvider;
+    private static final String METRICS_NAME = "StorageAccess";
+
     private final Context context;
     private final PermissionUtil permissionUtil = new PermissionUtil();
     private final String[] directories;
+    private final DownloadEngine downloadEngine = new DownloadEngine();
+    private final IoScheduler scheduler;
+    private final StorageMetrics metrics = new StorageMetrics();
+    private DownloadCache downloadCache;
+    private volatile FileProvider provider;
 
     /*--------------------------------------------------------------------------------------------*/
     /*--------------------------------------------------------------------------------------------*/
@@ -52,11 +80,79 @@ public class StorageAccess {
     }
 
     public StorageAccess(Context context, String[] directories) {
+        this(context, directories, new IoScheduler());
+    }
+
+    public StorageAccess(Context context, String[] directories, IoScheduler scheduler) {
         this.context = context;
         this.directories = directories;
+        this.scheduler = scheduler;
+    }
+
+    public IoScheduler getScheduler() {
+        return scheduler;
+    }
+
+    //Latency, throughput and error stats of every provider returned by getFileProvider
+    public StorageMetrics getMetrics() {
+        return metrics;
+    }
+
+    public interface ReadyListener {
+        //Called on the main thread, after missing permissions were requested
+        void onReady(boolean permissionsGranted);
     }
 
     public void init() {
+        ArrayList<String> folders = registerDirectories();
+        permissionUtil.handleApiPermissions(context);
+
+        //Provider creation, the grant lookup and the first SAF queries don't wait for the first operation
+        scheduler.submit(null, IoScheduler.PRIORITY_HIGH, () -> {
+            warmUp(folders);
+            return null;
+        });
+    }
+
+    //Only the permission launchers are registered on the calling thread, which must be the main
+    //thread before the activity starts. Permission checks and root resolution run on the scheduler.
+    //Both parts are timed in getMetrics() as StorageAccess "initMainThread" and "initBackground".
+    public Future<Boolean> initAsync(ReadyListener listener) {
+        long start = System.nanoTime();
+        ArrayList<String> folders = registerDirectories();
+        metrics.stats(METRICS_NAME, "initMainThread").record(System.nanoTime() - start, false);
+
+        Handler handler = new Handler(Looper.getMainLooper());
+
+        return scheduler.submit(null, IoScheduler.PRIORITY_HIGH, () -> {
+            long backgroundStart = System.nanoTime();
+            boolean granted;
+
+            try {
+                granted = permissionUtil.arePermissionsGranted(context);
+                warmUp(folders);
+            } catch (RuntimeException e) {
+                metrics.stats(METRICS_NAME, "initBackground").record(System.nanoTime() - backgroundStart, true);
+                throw e;
+            }
+
+            long nanos = System.nanoTime() - backgroundStart;
+            metrics.stats(METRICS_NAME, "initBackground").record(nanos, false);
+            Utils.log("Storage init kept %d ms off the main thread", TimeUnit.NANOSECONDS.toMillis(nanos));
+
+            handler.post(() -> {
+                if (!granted)
+                    permissionUtil.requestMissingPermissions(context);
+
+                if (listener != null)
+                    listener.onReady(granted);
+            });
+
+            return granted;
+        });
+    }
+
+    private ArrayList<String> registerDirectories() {
         ArrayList<String> sanitizedEntriesList = new ArrayList<>();
 
         for (String entry : directories) {
@@ -75,44 +171,199 @@ public class StorageAccess {
             PermissionUtil.Scoped.init(context, sanitizedEntriesList);
         }
 
-        permissionUtil.handleApiPermissions(context);
+        return sanitizedEntriesList;
     }
 
+    //Forward Activity.onRequestPermissionsResult here, the result is only used between M and Q
+    public void onRequestPermissionsResult(int requestCode, @NonNull String[] permissions, @NonNull int[] grantResults) {
+        PermissionUtil.Normal.onActivityResultOverride(context, requestCode, grantResults);
+    }
+
+    //Same instance on every call, safe to use from any thread
     public FileProvider getFileProvider() {
-        switch (SDK_CASE()) {
-            case 1:
-                return new LollipopFiles(context);
-            case 2:
-                return new QFiles().init(context);
-            case 0:
-            default:
-                return new KitKatFiles();
+        FileProvider current = provider;
+
+        if (current == null) {
+            synchronized (this) {
+                if (provider == null)
+                    provider = new InstrumentedFileProvider(processProvider(context, scheduler), metrics);
+
+                current = provider;
+            }
+        }
+
+        return current;
+    }
+
+    //Operations run on the scheduler, results are delivered on the main thread
+    @RequiresApi(api = Build.VERSION_CODES.N)
+    public AsyncFileProvider getAsyncFileProvider() {
+        Handler handler = new Handler(Looper.getMainLooper());
+        return getAsyncFileProvider(handler::post);
+    }
+
+    @RequiresApi(api = Build.VERSION_CODES.N)
+    public AsyncFileProvider getAsyncFileProvider(Executor callbackExecutor) {
+        return new AsyncFileProvider(getFileProvider(), scheduler, callbackExecutor);
+    }
+
+    //Built on the application context, a process wide instance must not keep an activity alive.
+    //QFiles runs its watch rescans on the scheduler of the StorageAccess that created it.
+    //SDK_CASE() is only 2 from Q on, which lint can't see through.
+    @SuppressLint("NewApi")
+    private static synchronized FileProvider processProvider(Context context, IoScheduler scheduler) {
+        if (processProvider == null) {
+            Context applicationContext = context.getApplicationContext() != null ? context.getApplicationContext() : context;
+
+            switch (SDK_CASE()) {
+                case 1:
+                    processProvider = new LollipopFiles(applicationContext);
+                    break;
+                case 2:
+                    processProvider = new QFiles().setScheduler(scheduler).init(applicationContext);
+                    break;
+                case 0:
+                default:
+                    processProvider = new KitKatFiles();
+                    break;
+            }
         }
+
+        return processProvider;
+    }
+
+    //Only a QFiles instance, so only Q and later, gets warmed up
+    @SuppressLint("NewApi")
+    private void warmUp(List<String> folderPaths) {
+        getFileProvider();
+        FileProvider shared = processProvider(context, scheduler);
+
+        if (shared instanceof QFiles)
+            ((QFiles) shared).warmUp(folderPaths);
+    }
+
+    public Future<Void> downloadFile(String fileUrl, String destinationPath, boolean overwriteIfExists,
+                                     Runnable onComplete, Runnable onError) {
+        return downloadFile(fileUrl, destinationPath, overwriteIfExists, null, onComplete, onError);
+    }
+
+    public Future<Void> downloadFile(String fileUrl, String destinationPath, boolean overwriteIfExists,
+                                     DownloadEngine.ProgressListener onProgress, Runnable onComplete, Runnable onError) {
+        return downloadFile(fileUrl, destinationPath, overwriteIfExists, IoScheduler.PRIORITY_NORMAL,
+                onProgress, onComplete, onError);
     }
 
-    public void downloadFile(String fileUrl, String destinationPath, boolean overwriteIfExists,
-                             Runnable onComplete, Runnable onError) {
+    //The returned future can be cancelled, which aborts the transfer and removes the partial file.
+    //Throws RejectedExecutionException when the scheduler already holds too many pending tasks.
+    public Future<Void> downloadFile(String fileUrl, String destinationPath, boolean overwriteIfExists, int priority,
+                                     DownloadEngine.ProgressListener onProgress, Runnable onComplete, Runnable onError) {
         FileProvider provider = getFileProvider();
 
-        ExecutorService executor = Executors.newSingleThreadExecutor();
         Handler handler = new Handler(Looper.getMainLooper());
 
         String fileName = destinationPath.substring(destinationPath.lastIndexOf("/") + 1);
         String folder = destinationPath.substring(0, destinationPath.lastIndexOf("/"));
 
-        executor.execute(() -> {
+        DownloadEngine.ProgressListener progressListener = onProgress == null ? null :
+                (bytesTransferred, totalBytes, bytesPerSecond) -> handler.post(() ->
+                        onProgress.onProgress(bytesTransferred, totalBytes, bytesPerSecond));
+
+        return scheduler.submit(DownloadEngine.hostOf(fileUrl), priority, () -> {
+            boolean created = false;
+
             try {
                 if (provider.exists(destinationPath))
                     if (overwriteIfExists)
                         provider.deleteFile(destinationPath);
                     else throw new Exception("Target download file already exits!");
 
-                byte[] fileBytes = getBytes(fileUrl);
-
                 provider.createFile(folder, fileName);
-                provider.writeFile(destinationPath, new String(fileBytes));
+                created = true;
+
+                try (WritableByteChannel channel = provider.openWritableChannel(destinationPath)) {
+                    downloadEngine.download(fileUrl, channel, progressListener);
+                }
+
+                handler.post(onComplete);
+            } catch (Exception e) {
+                if (created)
+                    deletePartialDownload(provider, destinationPath);
+
+                if (Thread.currentThread().isInterrupted()) {
+                    Utils.log("Download cancelled: %s", fileUrl);
+                    return null;
+                }
+
+                Utils.log("An download error occurred");
+                e.printStackTrace();
+                handler.post(onError);
+            }
+
+            return null;
+        });
+    }
+
+    //Parallel range download, a failed or cancelled download keeps its partial file and journal
+    //so calling this again with the same url and destination resumes it
+    public Future<Void> downloadFileResumable(String fileUrl, String destinationPath, RangeDownloader.Options options,
+                                              DownloadEngine.ProgressListener onProgress, Runnable onComplete,
+                                              Runnable onError) {
+        FileProvider provider = getFileProvider();
+
+        Handler handler = new Handler(Looper.getMainLooper());
+
+        DownloadEngine.ProgressListener progressListener = onProgress == null ? null :
+                (bytesTransferred, totalBytes, bytesPerSecond) -> handler.post(() ->
+                        onProgress.onProgress(bytesTransferred, totalBytes, bytesPerSecond));
+
+        return scheduler.submit(DownloadEngine.hostOf(fileUrl), IoScheduler.PRIORITY_NORMAL, () -> {
+            try {
+                new RangeDownloader(downloadEngine, scheduler).download(provider, fileUrl, destinationPath, options, progressListener);
                 handler.post(onComplete);
             } catch (Exception e) {
+                if (Thread.currentThread().isInterrupted()) {
+                    Utils.log("Download paused: %s", fileUrl);
+                    return null;
+                }
+
+                Utils.log("An download error occurred");
+                e.printStackTrace();
+                handler.post(onError);
+            }
+
+            return null;
+        });
+    }
+
+    //Index of previous downloads, shared by every downloadFileCached call
+    public synchronized DownloadCache getDownloadCache() {
+        if (downloadCache == null)
+            downloadCache = new DownloadCache(context, downloadEngine, scheduler);
+
+        return downloadCache;
+    }
+
+    //Only transfers when the server has a different version than the last download to destinationPath,
+    //concurrent requests for the same url and destination share a single transfer
+    public Future<Boolean> downloadFileCached(String fileUrl, String destinationPath,
+                                              DownloadEngine.ProgressListener onProgress, Runnable onComplete,
+                                              Runnable onError) {
+        Handler handler = new Handler(Looper.getMainLooper());
+
+        return getDownloadCache().download(getFileProvider(), fileUrl, destinationPath, new DownloadCache.Callback() {
+            @Override
+            public void onProgress(long bytesTransferred, long totalBytes, double bytesPerSecond) {
+                if (onProgress != null)
+                    handler.post(() -> onProgress.onProgress(bytesTransferred, totalBytes, bytesPerSecond));
+            }
+
+            @Override
+            public void onComplete(boolean transferred) {
+                handler.post(onComplete);
+            }
+
+            @Override
+            public void onError(Exception e) {
                 Utils.log("An download error occurred");
                 e.printStackTrace();
                 handler.post(onError);
@@ -120,12 +371,23 @@ public class StorageAccess {
         });
     }
 
-    private static byte[] getBytes(String url) throws IOException {
-        return Jsoup.connect(url)
-                .maxBodySize(0)
-                .ignoreContentType(true)
-                .execute()
-                .bodyAsBytes();
+    private static long rangeLength(long fileSize, long offset, int length) throws IOException {
+        if (offset < 0 || length < 0)
+            throw new IOException("Range offset and length must not be negative!");
+
+        if (fileSize < 0)
+            return length;
+
+        return Math.max(0, Math.min(length, fileSize - offset));
+    }
+
+    private static void deletePartialDownload(FileProvider provider, String destinationPath) {
+        try {
+            if (provider.exists(destinationPath))
+                provider.deleteFile(destinationPath);
+        } catch (Exception e) {
+            Utils.log("Unable to delete partial download: %s", destinationPath);
+        }
     }
 
     /*--------------------------------------------------------------------------------------------*/
@@ -149,14 +411,85 @@ public class StorageAccess {
         }
     }
 
+    //Only created from Q on, its DocumentsContract tree calls need API 21
+    @RequiresApi(api = Build.VERSION_CODES.Q)
     public static class QFiles implements FileProvider {
+        private static final String[] DOCUMENT_PROJECTION = new String[]{
+                DocumentsContract.Document.COLUMN_DOCUMENT_ID,
+                DocumentsContract.Document.COLUMN_DISPLAY_NAME,
+                DocumentsContract.Document.COLUMN_MIME_TYPE,
+                DocumentsContract.Document.COLUMN_SIZE,
+                DocumentsContract.Document.COLUMN_LAST_MODIFIED,
+                DocumentsContract.Document.COLUMN_FLAGS
+        };
+
+        private static final String ATOMIC_SUFFIX = ".atomic";
+
+        //Folder document ids only change when a folder is moved or deleted, which invalidates them
+        private static final long FOLDER_ID_TTL_MILLIS = 5 * 60_000;
+
         private Context context;
-        private final KitKatFiles wrapper = new KitKatFiles();
+        private volatile GrantIndex grants;
+        private volatile IoScheduler scheduler;
+        private final DocumentCache<CachedDocument> cache;
+        private final DocumentCache<String> folderIds;
+
+        public QFiles() {
+            this(DocumentCache.DEFAULT_MAX_ENTRIES, DocumentCache.DEFAULT_TTL_MILLIS);
+        }
+
+        public QFiles(int cacheSize, long cacheTtlMillis) {
+            this.cache = new DocumentCache<>(cacheSize, cacheTtlMillis);
+            this.folderIds = new DocumentCache<>(cacheSize, FOLDER_ID_TTL_MILLIS);
+        }
+
+        private GrantIndex grants() {
+            if (grants == null)
+                grants = Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT
+                        ? PermissionUtil.Scoped.getGrantIndex(context) : new GrantIndex();
+
+            return grants;
+        }
+
+        //Granted tree root + the folder's document id. Every folder below the root is looked up
+        //in its parent's listing once, later calls on the same or deeper paths reuse the ids.
+        private Folder resolveFolder(String folderPath) throws FileNotFoundException {
+            folderPath = sanitizePath(folderPath);
+            GrantIndex.Grant grant = grants().nearestGrant(folderPath);
+
+            if (grant == null) {
+                //No known grant covers the path, only works when exactly this folder was granted
+                Uri treeUri = Utils.getOpenIntentPathUri(folderPath);
+                return new Folder(treeUri, DocumentsContract.getTreeDocumentId(treeUri));
+            }
 
-        private DocumentFile file(String filePath) {
-            filePath = sanitizePath(filePath);
-            Uri uri = Utils.getOpenIntentPathUri(filePath);
-            return DocumentFile.fromTreeUri(context, uri);
+            Uri treeUri = grant.getTreeUri();
+
+            if (grant.relativize(folderPath).isEmpty())
+                return new Folder(treeUri, DocumentsContract.getTreeDocumentId(treeUri));
+
+            String documentId = folderIds.get(folderPath);
+
+            if (documentId == null) {
+                String parentPath = parentOf(folderPath);
+                CachedDocument document = cache.get(folderPath);
+
+                if (document == null)
+                    document = loadChildren(parentPath, resolveFolder(parentPath), nameOf(folderPath));
+
+                if (document == null || !document.entry.isDirectory())
+                    throw new FileNotFoundException(String.format("Folder not found: %s", folderPath));
+
+                documentId = document.entry.getDocumentId();
+                folderIds.put(folderPath, documentId);
+            }
+
+            return new Folder(treeUri, documentId);
+        }
+
+        private void invalidateTree(String path) {
+            cache.invalidateTree(path);
+            folderIds.invalidateTree(path);
         }
 
         private String sanitizePath(String path) {
@@ -169,13 +502,121 @@ public class StorageAccess {
             return path;
         }
 
-        private DocumentFile findFileOnFolder(String filepath) {
-            String upperFolder = filepath.substring(0, filepath.lastIndexOf("/"));
-            String targetFile = filepath.substring(filepath.lastIndexOf("/") + 1);
+        private static String parentOf(String path) {
+            int index = path.lastIndexOf("/");
+            return index < 0 ? "" : path.substring(0, index);
+        }
+
+        private static String nameOf(String path) {
+            return path.substring(path.lastIndexOf("/") + 1);
+        }
+
+        //Cached lookup, a miss lists the parent folder once and caches all of its children.
+        //A granted root has no listable parent, its own document is queried instead.
+        private CachedDocument findFileOnFolder(String filepath) {
+            filepath = sanitizePath(filepath);
+
+            CachedDocument cached = cache.get(filepath);
+            if (cached != null)
+                return cached;
+
+            GrantIndex.Grant grant = grants().nearestGrant(filepath);
+            if (grant != null && grant.relativize(filepath).isEmpty())
+                return queryRoot(filepath, grant.getTreeUri());
+
+            try {
+                String folderPath = parentOf(filepath);
+                return loadChildren(folderPath, resolveFolder(folderPath), nameOf(filepath));
+            } catch (FileNotFoundException e) {
+                return null;
+            }
+        }
+
+        private CachedDocument loadChildren(String folderPath, Folder folder, String wanted) {
+            CachedDocument found = null;
+
+            try (Cursor cursor = queryChildren(folder)) {
+                if (cursor == null)
+                    return null;
+
+                while (cursor.moveToNext()) {
+                    CachedDocument document = cacheRow(folderPath, folder.treeUri, cursor);
+
+                    if (document.entry.getName().equals(wanted))
+                        found = document;
+                }
+            } catch (Exception e) {
+                Utils.log("Unable to list folder %s: %s", folderPath, e.getMessage());
+            }
+
+            return found;
+        }
+
+        //One provider query returns every child with the projected metadata columns
+        private Cursor queryChildren(Folder folder) {
+            Uri childrenUri = DocumentsContract.buildChildDocumentsUriUsingTree(folder.treeUri, folder.documentId);
+
+            return context.getContentResolver().query(childrenUri, DOCUMENT_PROJECTION, null, null, null);
+        }
+
+        private CachedDocument queryRoot(String rootPath, Uri treeUri) {
+            Uri documentUri = DocumentsContract.buildDocumentUriUsingTree(treeUri,
+                    DocumentsContract.getTreeDocumentId(treeUri));
 
-            DocumentFile folder = file(upperFolder);
+            try (Cursor cursor = context.getContentResolver().query(documentUri, DOCUMENT_PROJECTION, null, null, null)) {
+                if (cursor == null || !cursor.moveToFirst())
+                    return null;
 
-            return folder.findFile(targetFile);
+                CachedDocument document = readRow(treeUri, cursor);
+                cache.put(rootPath, document);
+                return document;
+            } catch (Exception e) {
+                Utils.log("Unable to query granted folder %s: %s", rootPath, e.getMessage());
+                return null;
+            }
+        }
+
+        private CachedDocument cacheRow(String folderPath, Uri treeUri, Cursor cursor) {
+            CachedDocument document = readRow(treeUri, cursor);
+            cache.put(childPath(folderPath, document.entry.getName()), document);
+            return document;
+        }
+
+        private static CachedDocument readRow(Uri treeUri, Cursor cursor) {
+            FileEntry entry = new FileEntry(
+                    cursor.getString(1),
+                    DocumentsContract.Document.MIME_TYPE_DIR.equals(cursor.getString(2)),
+                    cursor.isNull(3) ? 0 : cursor.getLong(3),
+                    cursor.isNull(4) ? 0 : cursor.getLong(4),
+                    cursor.getString(0));
+
+            return new CachedDocument(
+                    DocumentsContract.buildDocumentUriUsingTree(treeUri, entry.getDocumentId()), entry,
+                    cursor.getString(2), cursor.isNull(5) ? 0 : cursor.getInt(5));
+        }
+
+        private static String childPath(String folderPath, String name) {
+            return folderPath.isEmpty() ? name : folderPath + "/" + name;
+        }
+
+        public void invalidateCache() {
+            cache.clear();
+            folderIds.clear();
+        }
+
+        //Loads the grant index and resolves the folders, so the first real operations on them
+        //find their document ids and metadata cached
+        public void warmUp(List<String> folderPaths) {
+            grants();
+
+            for (String folderPath : folderPaths) {
+                try {
+                    resolveFolder(folderPath);
+                    findFileOnFolder(folderPath);
+                } catch (FileNotFoundException e) {
+                    Utils.log("Unable to warm up %s: %s", folderPath, e.getMessage());
+                }
+            }
         }
 
         /*--------------------------------------------------------------------------------------------*/
@@ -193,215 +634,1113 @@ public class StorageAccess {
             return this;
         }
 
+        //Runs the rescans of watches that don't bring their own scheduler in WatchOptions
+        public QFiles setScheduler(IoScheduler scheduler) {
+            this.scheduler = scheduler;
+            return this;
+        }
+
         @Override
         public String readFile(String filepath) throws IOException {
-            DocumentFile file = findFileOnFolder(filepath);
-
-            if (findFileOnFolder(filepath) == null)
-                throw new FileNotFoundException("File to be read was not found");
-
-            ParcelFileDescriptor pfd = context.getContentResolver()
-                    .openFileDescriptor(file.getUri(), "r");
-
-            byte[] data = new byte[(int) pfd.getStatSize()];
-
-            FileDescriptor fd = pfd.getFileDescriptor();
-            FileInputStream fileStream = new FileInputStream(fd);
-            fileStream.read(data);
-
-            return new String(data);
+            return readFile(filepath, DEFAULT_CHARSET);
         }
 
         @RequiresApi(api = Build.VERSION_CODES.O)
         @Override
         public void createFolder(String folderPath) throws Exception {
             folderPath = sanitizePath(folderPath);
+            String upperFolderPath = parentOf(folderPath);
 
-            String upperFolderPath = folderPath.substring(0, folderPath.lastIndexOf("/"));
-            String targetFolder = folderPath.substring(folderPath.lastIndexOf("/") + 1);
+            if (findFileOnFolder(folderPath) != null)
+                throw new FileAlreadyExistsException("Folder to be created already exists!");
 
-            DocumentFile upperFolder = file(upperFolderPath);
+            Uri created = DocumentsContract.createDocument(context.getContentResolver(),
+                    folderDocumentUri(upperFolderPath), DocumentsContract.Document.MIME_TYPE_DIR, nameOf(folderPath));
+            cache.invalidate(folderPath);
 
-            if (upperFolder != null) {
-                if (upperFolder.findFile(targetFolder) != null)
-                    throw new FileAlreadyExistsException("Folder to be created already exists!");
-                else
-                    upperFolder.createDirectory(targetFolder);
-            } else
-                throw new Exception(String.format("The upper folder (%s) is null!", upperFolderPath));
+            if (created == null)
+                throw new Exception(String.format("Unable to create folder %s in %s!", nameOf(folderPath), upperFolderPath));
         }
 
         @RequiresApi(api = Build.VERSION_CODES.O)
         @Override
         public void createFile(String folderPath, String filename) throws Exception {
-            DocumentFile folder = file(folderPath);
+            String filepath = childPath(sanitizePath(folderPath), filename);
 
-            if (folder.findFile(filename) != null)
+            if (findFileOnFolder(filepath) != null)
                 throw new FileAlreadyExistsException("Target file already exists!");
 
-            folder.createFile("text", filename);
+            Uri created = DocumentsContract.createDocument(context.getContentResolver(),
+                    folderDocumentUri(folderPath), "text", filename);
+            cache.invalidate(filepath);
+
+            if (created == null)
+                throw new IOException(String.format("Unable to create file: %s", filepath));
         }
 
         @Override
         public String[] getFolderContent(String folderPath) throws Exception {
-            DocumentFile folder = file(folderPath);
+            List<FileEntry> entries = listEntries(folderPath);
+            String[] filenames = new String[entries.size()];
 
-            if (folder == null)
-                throw new Exception(String.format("The upper folder (%s) is null!", folderPath));
+            for (int i = 0; i < filenames.length; i++) {
+                filenames[i] = entries.get(i).getName();
+            }
 
-            ArrayList<String> filenames = new ArrayList<>();
+            return filenames;
+        }
 
-            DocumentFile[] files = folder.listFiles();
-            for (DocumentFile file : files) {
-                filenames.add(file.getName());
+        @Override
+        public List<FileEntry> listEntries(String folderPath) throws Exception {
+            String folder = sanitizePath(folderPath);
+            Folder resolved = resolveFolder(folder);
+            ArrayList<FileEntry> entries = new ArrayList<>();
+
+            try (Cursor cursor = queryChildren(resolved)) {
+                if (cursor == null)
+                    throw new FileNotFoundException(String.format("Unable to list folder: %s", folderPath));
+
+                while (cursor.moveToNext()) {
+                    entries.add(cacheRow(folder, resolved.treeUri, cursor).entry);
+                }
             }
 
-            return filenames.toArray(new String[0]);
+            return entries;
+        }
+
+        @Override
+        public EntryIterator iterateEntries(String folderPath, int pageSize) throws Exception {
+            String folder = sanitizePath(folderPath);
+            Folder resolved = resolveFolder(folder);
+            Cursor cursor = queryChildren(resolved);
+
+            if (cursor == null)
+                throw new FileNotFoundException(String.format("Unable to list folder: %s", folderPath));
+
+            return new PagedEntryIterator(pageSize) {
+                @Override
+                protected boolean fillPage(ArrayList<FileEntry> page, int pageSize) {
+                    while (page.size() < pageSize) {
+                        if (!cursor.moveToNext())
+                            return false;
+
+                        page.add(cacheRow(folder, resolved.treeUri, cursor).entry);
+                    }
+
+                    return true;
+                }
+
+                @Override
+                protected void release() {
+                    cursor.close();
+                }
+            };
         }
 
         @Override
         public void deleteFile(String filepath) throws Exception {
-            DocumentFile file = findFileOnFolder(filepath);
+            CachedDocument file = findFileOnFolder(filepath);
 
             if (file != null) {
-                file.delete();
+                DocumentsContract.deleteDocument(context.getContentResolver(), file.uri);
+                invalidateTree(sanitizePath(filepath));
             } else throw new FileNotFoundException("Unable to delete file: File not found!");
         }
 
         @Override
         public void cleanFolder(String folderPath) throws Exception {
-            throw new Exception("Not yet implemented or unnecessary!");
+            cleanFolder(folderPath, new TreeOptions());
+        }
+
+        @Override
+        public void copyTree(String sourcePath, String targetPath, TreeOptions options) throws Exception {
+            TreeOperations.copyTree(this, sourcePath, targetPath, options);
+        }
+
+        //deleteDocument removes a folder with its whole content in a single provider call
+        @Override
+        public void deleteTree(String path, TreeOptions options) throws Exception {
+            TreeOperations.deleteTree(this, path, options, true);
+        }
+
+        @Override
+        public void cleanFolder(String folderPath, TreeOptions options) throws Exception {
+            TreeOperations.cleanFolder(this, folderPath, options, true);
+        }
+
+        @Override
+        public long computeSize(String path, TreeOptions options) throws Exception {
+            return TreeOperations.computeSize(this, path, options);
         }
 
         @RequiresApi(api = Build.VERSION_CODES.O)
         @Override
         public void renameFile(String filepath, String newName) throws Exception {
-            DocumentFile file = findFileOnFolder(filepath);
+            filepath = sanitizePath(filepath);
+            CachedDocument file = findFileOnFolder(filepath);
+
+            if (file == null)
+                throw new FileNotFoundException("File to be renamed was not found!");
 
-            String folder = filepath.substring(0, filepath.lastIndexOf("/"));
+            String renamedPath = childPath(parentOf(filepath), newName);
 
-            DocumentFile rootFolder = file(folder);
-            if (rootFolder.findFile(newName) != null)
+            if (findFileOnFolder(renamedPath) != null)
                 throw new FileAlreadyExistsException("File to be renamed already exists!");
 
-            file.renameTo(newName);
+            DocumentsContract.renameDocument(context.getContentResolver(), file.uri, newName);
+            invalidateTree(filepath);
+            cache.invalidate(renamedPath);
         }
 
-        @RequiresApi(api = Build.VERSION_CODES.KITKAT)
         @Override
         public void writeFile(String filepath, String content) throws IOException {
-            DocumentFile targetFile = findFileOnFolder(filepath);
+            writeFile(filepath, content.getBytes(StandardCharsets.UTF_8), new WriteOptions());
+        }
 
+        @Override
+        public void writeFile(String filepath, byte[] content, WriteOptions options) throws IOException {
+            filepath = sanitizePath(filepath);
+
+            try {
+                if (options.getMode() == WriteOptions.Mode.ATOMIC)
+                    replaceDocument(filepath, content, options.isSync());
+                else
+                    writeDocument(documentUri(filepath), options.getMode() == WriteOptions.Mode.APPEND ? "wa" : "wt",
+                            content, options.isSync(), filepath);
+            } finally {
+                cache.invalidate(filepath);
+            }
+        }
+
+        private void writeDocument(Uri uri, String mode, byte[] content, boolean sync, String filepath) throws IOException {
+            try (ParcelFileDescriptor pfd = context.getContentResolver().openFileDescriptor(uri, mode)) {
+                if (pfd == null)
+                    throw new IOException(String.format("Unable to open file descriptor: %s", filepath));
+
+                new FileOutputStream(pfd.getFileDescriptor()).write(content);
+
+                if (sync)
+                    pfd.getFileDescriptor().sync();
+            }
+        }
+
+        //SAF can't rename over an existing document, so the target is deleted right before the
+        //temporary document takes its name. A crash in between leaves the complete temporary
+        //document behind, never a torn target.
+        private void replaceDocument(String filepath, byte[] content, boolean sync) throws IOException {
             ContentResolver resolver = context.getContentResolver();
+            String folderPath = parentOf(filepath);
+            String name = nameOf(filepath);
+            String temporaryPath = childPath(folderPath, name + ATOMIC_SUFFIX);
+
+            CachedDocument leftover = findFileOnFolder(temporaryPath);
+            if (leftover != null)
+                DocumentsContract.deleteDocument(resolver, leftover.uri);
+
+            cache.invalidate(temporaryPath);
+
+            //Octet stream keeps providers from appending an extension to the temporary name
+            Uri temporary = DocumentsContract.createDocument(resolver, folderDocumentUri(folderPath),
+                    "application/octet-stream", name + ATOMIC_SUFFIX);
+
+            if (temporary == null)
+                throw new IOException(String.format("Unable to create the temporary file of %s", filepath));
 
-            OutputStream outputStream = resolver.openOutputStream(targetFile.getUri());
-            outputStream.write(content.getBytes(StandardCharsets.UTF_8));
-            outputStream.flush();
-            outputStream.close();
+            try {
+                writeDocument(temporary, "wt", content, sync, filepath);
+
+                CachedDocument target = findFileOnFolder(filepath);
+                if (target != null)
+                    DocumentsContract.deleteDocument(resolver, target.uri);
+
+                DocumentsContract.renameDocument(resolver, temporary, name);
+            } catch (IOException e) {
+                try {
+                    DocumentsContract.deleteDocument(resolver, temporary);
+                } catch (Exception ignored) {
+                }
+
+                throw e;
+            } finally {
+                cache.invalidate(temporaryPath);
+            }
         }
 
+        //Answered from the cached folder listings, a miss costs one query on the parent folder
         @Override
         public boolean isFile(String filepath) {
-            return wrapper.isFile(filepath);
+            CachedDocument document = findFileOnFolder(filepath);
+            return document != null && !document.entry.isDirectory();
         }
 
         @Override
         public boolean isFolder(String filepath) {
-            return wrapper.isFolder(filepath);
+            CachedDocument document = findFileOnFolder(filepath);
+            return document != null && document.entry.isDirectory();
         }
 
         @Override
         public boolean exists(String filePath) {
-            return wrapper.exists(filePath);
+            return findFileOnFolder(filePath) != null;
         }
 
-        @RequiresApi(api = Build.VERSION_CODES.O)
+        //Cached paths are answered right away, the rest is grouped by folder and every folder is
+        //listed with a single query
         @Override
-        public void copyFile(String originalFilepath, String newFilepath) throws Exception {
-            String targetPath = newFilepath.substring(0, newFilepath.lastIndexOf("/"));
-            String newFilename = newFilepath.substring(newFilepath.lastIndexOf("/") + 1);
+        public Map<String, FileEntry> stat(String... paths) throws Exception {
+            LinkedHashMap<String, FileEntry> entries = new LinkedHashMap<>();
+            LinkedHashMap<String, HashMap<String, String>> missing = new LinkedHashMap<>();
 
-            DocumentFile targetFolder = file(targetPath);
+            for (String path : paths) {
+                String sanitized = sanitizePath(path);
+                CachedDocument cached = cache.get(sanitized);
 
-            if (targetFolder.findFile(newFilename) != null)
-                throw new FileAlreadyExistsException("Target copy file already exists!");
+                if (cached != null) {
+                    entries.put(path, cached.entry);
+                    continue;
+                }
 
-            targetFolder.createFile("text", newFilename);
-            writeFile(newFilepath, readFile(originalFilepath));
-        }
-    }
+                GrantIndex.Grant grant = grants().nearestGrant(sanitized);
 
-    private static class KitKatFiles implements FileProvider {
-        @Override
-        public String name() {
-            return "KitKatFiles";
-        }
+                if (grant != null && grant.relativize(sanitized).isEmpty()) {
+                    CachedDocument root = queryRoot(sanitized, grant.getTreeUri());
 
-        @Override
-        public FileProvider init(Context context) {
-            return this;
-        }
+                    if (root != null)
+                        entries.put(path, root.entry);
 
-        @Override
-        public String readFile(String filepath) throws IOException {
-            File targetFile = new File(base + filepath);
+                    continue;
+                }
 
-            if (!targetFile.exists())
-                throw new FileNotFoundException();
+                HashMap<String, String> wanted = missing.get(parentOf(sanitized));
 
-            return FileUtils.readFileToString(targetFile, "UTF-8");
-        }
+                if (wanted == null) {
+                    wanted = new HashMap<>();
+                    missing.put(parentOf(sanitized), wanted);
+                }
 
-        @Override
-        public void createFile(String folderPath, String filename) throws Exception {
-            File targetFile = new File(base + folderPath + "/" + filename);
+                wanted.put(nameOf(sanitized), path);
+            }
 
-            if (!targetFile.createNewFile())
-                throw new Exception("File already exists!");
-        }
+            for (Map.Entry<String, HashMap<String, String>> folder : missing.entrySet()) {
+                Folder resolved;
 
-        @Override
-        public void createFolder(String folderPath) throws Exception {
-            File targetFolder = new File(base + folderPath);
+                try {
+                    resolved = resolveFolder(folder.getKey());
+                } catch (FileNotFoundException e) {
+                    continue;
+                }
 
-            if (targetFolder.exists())
-                throw new Exception("Folder already exists!");
+                try (Cursor cursor = queryChildren(resolved)) {
+                    if (cursor == null)
+                        continue;
 
-            if (!targetFolder.mkdir())
-                throw new Exception("Error creating folder!");
+                    while (cursor.moveToNext()) {
+                        FileEntry entry = cacheRow(folder.getKey(), resolved.treeUri, cursor).entry;
+                        String path = folder.getValue().get(entry.getName());
+
+                        if (path != null)
+                            entries.put(path, entry);
+                    }
+                }
+            }
+
+            return entries;
         }
 
+        @RequiresApi(api = Build.VERSION_CODES.O)
         @Override
-        public void deleteFile(String filepath) throws Exception {
-            File targetFile = new File(base + filepath);
+        public void copyFile(String originalFilepath, String newFilepath) throws Exception {
+            newFilepath = sanitizePath(newFilepath);
+            String newFilename = nameOf(newFilepath);
 
-            if (!targetFile.exists())
-                throw new FileNotFoundException();
+            CachedDocument original = findFileOnFolder(originalFilepath);
 
-            if (targetFile.isDirectory()) {
-                FileUtils.deleteDirectory(targetFile);
-            } else if (!targetFile.delete())
-                throw new Exception("Unable to delete file due to an unknown reason!");
+            if (original == null)
+                throw new FileNotFoundException("File to be copied was not found!");
+
+            if (findFileOnFolder(newFilepath) != null)
+                throw new FileAlreadyExistsException("Target copy file already exists!");
+
+            ContentResolver resolver = context.getContentResolver();
+            Uri targetFolder = folderDocumentUri(parentOf(newFilepath));
+
+            try {
+                if (original.supports(DocumentsContract.Document.FLAG_SUPPORTS_COPY)) {
+                    //The provider copies on its side, no bytes cross the process boundary
+                    Uri copy = DocumentsContract.copyDocument(resolver, original.uri, targetFolder);
+
+                    if (copy != null) {
+                        if (!original.entry.getName().equals(newFilename)) {
+                            try {
+                                DocumentsContract.renameDocument(resolver, copy, newFilename);
+                            } catch (Exception e) {
+                                //The copy would be left behind under the original name
+                                try {
+                                    DocumentsContract.deleteDocument(resolver, copy);
+                                } catch (Exception ignored) {
+                                }
+
+                                throw e;
+                            }
+                        }
+
+                        return;
+                    }
+                }
+
+                if (original.entry.isDirectory())
+                    throw new Exception("Folders can only be copied by providers supporting copyDocument!");
+
+                Uri copy = DocumentsContract.createDocument(resolver, targetFolder, original.mimeType, newFilename);
+
+                if (copy == null)
+                    throw new IOException(String.format("Unable to create the copy file: %s", newFilepath));
+
+                transferContent(original.uri, copy);
+            } finally {
+                cache.invalidate(newFilepath);
+            }
         }
 
+        @RequiresApi(api = Build.VERSION_CODES.O)
         @Override
-        public void cleanFolder(String folderPath) throws Exception {
-            File targetFile = new File(base + folderPath);
+        public void moveFile(String filepath, String folderPath) throws Exception {
+            filepath = sanitizePath(filepath);
+            folderPath = sanitizePath(folderPath);
+
+            CachedDocument original = findFileOnFolder(filepath);
+
+            if (original == null)
+                throw new FileNotFoundException("Original file not found!");
+
+            String movedPath = childPath(folderPath, original.entry.getName());
+
+            if (findFileOnFolder(movedPath) != null)
+                throw new FileAlreadyExistsException("Target file already exists!");
+
+            try {
+                if (original.supports(DocumentsContract.Document.FLAG_SUPPORTS_MOVE)) {
+                    Uri moved = DocumentsContract.moveDocument(context.getContentResolver(), original.uri,
+                            folderDocumentUri(parentOf(filepath)), folderDocumentUri(folderPath));
+
+                    if (moved != null)
+                        return;
+                }
+
+                copyFile(filepath, movedPath);
+                DocumentsContract.deleteDocument(context.getContentResolver(), original.uri);
+            } finally {
+                invalidateTree(filepath);
+                cache.invalidate(movedPath);
+            }
+        }
+
+        @Override
+        public FileBatch batch() {
+            return new FileBatch(this::runBatch);
+        }
+
+        //Each folder is listed at most once, created documents are tracked locally so later
+        //operations on them need no lookup. DocumentsProvider doesn't implement applyBatch,
+        //so every remaining call is a single DocumentsContract call.
+        private FileBatch.BatchResult runBatch(List<FileBatch.Operation> operations) {
+            ContentResolver resolver = context.getContentResolver();
+            HashMap<String, HashMap<String, Uri>> folders = new HashMap<>();
+            HashMap<String, Uri> createdFolders = new HashMap<>();
+            ArrayList<FileBatch.Result> results = new ArrayList<>();
+            int[] calls = new int[1];
+
+            for (FileBatch.Operation operation : operations) {
+                try {
+                    String folder = operation.getFolder();
+                    String name = operation.getName();
+                    HashMap<String, Uri> children = batchChildren(folders, folder, calls);
+                    Uri document = children.get(name);
+
+                    switch (operation.getType()) {
+                        case CREATE_FOLDER:
+                        case CREATE_FILE: {
+                            if (document != null)
+                                throw new FileAlreadyExistsException(String.format("Target already exists: %s", operation.getPath()));
+
+                            boolean isFolder = operation.getType() == FileBatch.Type.CREATE_FOLDER;
+                            Uri parent = createdFolders.containsKey(folder) ? createdFolders.get(folder) : folderDocumentUri(folder);
+
+                            calls[0]++;
+                            Uri created = DocumentsContract.createDocument(resolver, parent,
+                                    isFolder ? DocumentsContract.Document.MIME_TYPE_DIR : "text", name);
+
+                            if (created == null)
+                                throw new IOException(String.format("Unable to create: %s", operation.getPath()));
+
+                            children.put(name, created);
+
+                            if (isFolder) {
+                                createdFolders.put(operation.getPath(), created);
+                                folders.put(operation.getPath(), new HashMap<>());
+                            }
+                            break;
+                        }
+                        case WRITE: {
+                            if (document == null)
+                                throw new FileNotFoundException(String.format("File not found: %s", operation.getPath()));
+
+                            calls[0]++;
+                            try (OutputStream outputStream = resolver.openOutputStream(document, "wt")) {
+                                if (outputStream == null)
+                                    throw new IOException(String.format("Unable to open output stream: %s", operation.getPath()));
+
+                                outputStream.write(operation.getContent());
+                            }
+                            break;
+                        }
+                        case RENAME: {
+                            if (document == null)
+                                throw new FileNotFoundException(String.format("File not found: %s", operation.getPath()));
+
+                            if (children.containsKey(operation.getNewName()))
+                                throw new FileAlreadyExistsException("File to be renamed already exists!");
+
+                            calls[0]++;
+                            Uri renamed = DocumentsContract.renameDocument(resolver, document, operation.getNewName());
+
+                            children.remove(name);
+                            children.put(operation.getNewName(), renamed != null ? renamed : document);
+                            forgetBatchFolder(folders, createdFolders, operation.getPath());
+                            break;
+                        }
+                        case DELETE: {
+                            if (document == null)
+                                throw new FileNotFoundException(String.format("File not found: %s", operation.getPath()));
+
+                            calls[0]++;
+                            DocumentsContract.deleteDocument(resolver, document);
+
+                            children.remove(name);
+                            forgetBatchFolder(folders, createdFolders, operation.getPath());
+                            break;
+                        }
+                    }
+
+                    results.add(new FileBatch.Result(operation, null));
+                } catch (Exception e) {
+                    results.add(new FileBatch.Result(operation, e));
+                }
+
+                invalidateTree(operation.getPath());
+
+                if (operation.getNewName() != null)
+                    cache.invalidate(childPath(operation.getFolder(), operation.getNewName()));
+            }
+
+            return new FileBatch.BatchResult(results, calls[0]);
+        }
+
+        private HashMap<String, Uri> batchChildren(HashMap<String, HashMap<String, Uri>> folders,
+                                                   String folder, int[] calls) throws IOException {
+            HashMap<String, Uri> children = folders.get(folder);
+
+            if (children != null)
+                return children;
+
+            children = new HashMap<>();
+            Folder resolved = resolveFolder(folder);
+
+            calls[0]++;
+            try (Cursor cursor = queryChildren(resolved)) {
+                if (cursor == null)
+                    throw new FileNotFoundException(String.format("Unable to list folder: %s", folder));
+
+                while (cursor.moveToNext()) {
+                    children.put(cursor.getString(1),
+                            DocumentsContract.buildDocumentUriUsingTree(resolved.treeUri, cursor.getString(0)));
+                }
+            }
+
+            folders.put(folder, children);
+            return children;
+        }
+
+        private static void forgetBatchFolder(HashMap<String, HashMap<String, Uri>> folders,
+                                              HashMap<String, Uri> createdFolders, String path) {
+            String prefix = path + "/";
+
+            for (Iterator<String> iterator = folders.keySet().iterator(); iterator.hasNext(); ) {
+                String folder = iterator.next();
+
+                if (folder.equals(path) || folder.startsWith(prefix))
+                    iterator.remove();
+            }
+
+            for (Iterator<String> iterator = createdFolders.keySet().iterator(); iterator.hasNext(); ) {
+                String folder = iterator.next();
+
+                if (folder.equals(path) || folder.startsWith(prefix))
+                    iterator.remove();
+            }
+        }
+
+        private Uri folderDocumentUri(String folderPath) throws FileNotFoundException {
+            Folder folder = resolveFolder(folderPath);
+            return DocumentsContract.buildDocumentUriUsingTree(folder.treeUri, folder.documentId);
+        }
+
+        //Kernel side transferTo when both ends are seekable descriptors, buffered copy otherwise
+        private void transferContent(Uri from, Uri to) throws IOException {
+            ContentResolver resolver = context.getContentResolver();
+
+            try (ParcelFileDescriptor source = resolver.openFileDescriptor(from, "r");
+                 ParcelFileDescriptor target = resolver.openFileDescriptor(to, "wt")) {
+                if (source == null || target == null)
+                    throw new IOException("Unable to open the copy file descriptors!");
+
+                long size = source.getStatSize();
+
+                if (size >= 0) {
+                    FileChannel input = new FileInputStream(source.getFileDescriptor()).getChannel();
+                    FileChannel output = new FileOutputStream(target.getFileDescriptor()).getChannel();
+
+                    long position = 0;
+                    while (position < size) {
+                        long transferred = input.transferTo(position, size - position, output);
+
+                        if (transferred <= 0)
+                            break;
+
+                        position += transferred;
+                    }
+
+                    if (position == size)
+                        return;
+
+                    output.truncate(0);
+                    output.position(0);
+                    input.position(0);
+                }
+
+                IOUtils.copyLarge(new FileInputStream(source.getFileDescriptor()),
+                        new FileOutputStream(target.getFileDescriptor()), new byte[DEFAULT_CHUNK_SIZE]);
+            }
+        }
+
+        private Uri documentUri(String filepath) throws FileNotFoundException {
+            CachedDocument file = findFileOnFolder(filepath);
+
+            if (file == null)
+                throw new FileNotFoundException(String.format("File not found: %s", filepath));
+
+            return file.uri;
+        }
+
+        @Override
+        public ByteBuffer readRange(String filepath, long offset, int length) throws IOException {
+            try (ParcelFileDescriptor pfd = context.getContentResolver()
+                    .openFileDescriptor(documentUri(filepath), "r")) {
+                if (pfd == null)
+                    throw new IOException(String.format("Unable to open file descriptor: %s", filepath));
+
+                FileChannel channel = new FileInputStream(pfd.getFileDescriptor()).getChannel();
+                ByteBuffer buffer = ByteBuffer.allocate((int) rangeLength(pfd.getStatSize(), offset, length));
+
+                //Positional reads, only the requested slice crosses the descriptor
+                while (buffer.hasRemaining()) {
+                    if (channel.read(buffer, offset + buffer.position()) < 0)
+                        break;
+                }
+
+                buffer.flip();
+                return buffer;
+            }
+        }
+
+        @Override
+        public ByteBuffer map(String filepath) throws IOException {
+            try (ParcelFileDescriptor pfd = context.getContentResolver()
+                    .openFileDescriptor(documentUri(filepath), "r")) {
+                if (pfd == null)
+                    throw new IOException(String.format("Unable to open file descriptor: %s", filepath));
+
+                if (pfd.getStatSize() < 0)
+                    throw new IOException(String.format("The document isn't backed by a seekable file: %s", filepath));
+
+                //The mapping stays valid after the descriptor is closed
+                return new FileInputStream(pfd.getFileDescriptor()).getChannel()
+                        .map(FileChannel.MapMode.READ_ONLY, 0, pfd.getStatSize());
+            }
+        }
+
+        @Override
+        public InputStream openInputStream(String filepath) throws IOException {
+            InputStream inputStream = context.getContentResolver().openInputStream(documentUri(filepath));
+
+            if (inputStream == null)
+                throw new IOException(String.format("Unable to open input stream: %s", filepath));
+
+            return inputStream;
+        }
+
+        @Override
+        public OutputStream openOutputStream(String filepath) throws IOException {
+            OutputStream outputStream = context.getContentResolver().openOutputStream(documentUri(filepath), "wt");
+            cache.invalidate(sanitizePath(filepath));
+
+            if (outputStream == null)
+                throw new IOException(String.format("Unable to open output stream: %s", filepath));
+
+            return outputStream;
+        }
+
+        @Override
+        public ReadableByteChannel openReadableChannel(String filepath) throws IOException {
+            ParcelFileDescriptor pfd = context.getContentResolver()
+                    .openFileDescriptor(documentUri(filepath), "r");
+
+            if (pfd == null)
+                throw new IOException(String.format("Unable to open file descriptor: %s", filepath));
+
+            //Closing the channel closes the stream, which closes the descriptor
+            return new ParcelFileDescriptor.AutoCloseInputStream(pfd).getChannel();
+        }
+
+        @Override
+        public WritableByteChannel openWritableChannel(String filepath) throws IOException {
+            ParcelFileDescriptor pfd = context.getContentResolver()
+                    .openFileDescriptor(documentUri(filepath), "wt");
+            cache.invalidate(sanitizePath(filepath));
+
+            if (pfd == null)
+                throw new IOException(String.format("Unable to open file descriptor: %s", filepath));
+
+            return new ParcelFileDescriptor.AutoCloseOutputStream(pfd).getChannel();
+        }
+
+        @Override
+        public FileChannel openPositionalWriteChannel(String filepath) throws IOException {
+            ParcelFileDescriptor pfd = context.getContentResolver()
+                    .openFileDescriptor(documentUri(filepath), "rw");
+            cache.invalidate(sanitizePath(filepath));
+
+            if (pfd == null)
+                throw new IOException(String.format("Unable to open file descriptor: %s", filepath));
+
+            return new ParcelFileDescriptor.AutoCloseOutputStream(pfd).getChannel();
+        }
+
+        @RequiresApi(api = Build.VERSION_CODES.KITKAT)
+        @Override
+        public Watch watch(String folderPath, WatchOptions options, WatchListener listener) throws Exception {
+            return new DocumentWatch(sanitizePath(folderPath), options, listener);
+        }
+
+        //Providers only watch a folder while a cursor over its children is open, so every watched
+        //folder keeps one open and listens on its notification uri. Notifications don't tell what
+        //changed, the folder is listed again after the debounce delay and compared with the last listing.
+        //The listings run on the IoScheduler, the FileWatcher thread only debounces and delivers.
+        @RequiresApi(api = Build.VERSION_CODES.KITKAT)
+        private class DocumentWatch implements Watch {
+            private final String rootPath;
+            private final boolean recursive;
+            private final long debounceMillis;
+            private final IoScheduler scheduler;
+            private final ChangeQueue queue;
+            private final HashMap<String, WatchedFolder> folders = new HashMap<>();
+            private boolean closed;
+
+            private class WatchedFolder extends ContentObserver {
+                private final String path;
+                private Cursor cursor;
+                private HashMap<String, FileEntry> children = new HashMap<>();
+                private boolean rescanQueued;
+                private Future<?> delay;
+                private Future<?> rescan;
+
+                private WatchedFolder(String path) {
+                    super(null);
+                    this.path = path;
+                }
+
+                @Override
+                public void onChange(boolean selfChange) {
+                    scheduleRescan(this);
+                }
+            }
+
+            private DocumentWatch(String folderPath, WatchOptions options, WatchListener listener) throws Exception {
+                this.rootPath = folderPath;
+                this.recursive = options.isRecursive();
+                this.debounceMillis = options.getDebounceMillis();
+                this.scheduler = options.getScheduler() != null ? options.getScheduler() : QFiles.this.scheduler;
+
+                if (scheduler == null)
+                    throw new IllegalStateException("Watches need an IoScheduler, set one with WatchOptions.setScheduler!");
+                this.queue = new ChangeQueue(options, listener);
+
+                synchronized (this) {
+                    try {
+                        watchFolder(folderPath, false);
+                    } catch (Exception e) {
+                        close();
+                        throw e;
+                    }
+                }
+            }
+
+            private void watchFolder(String folderPath, boolean reportContent) throws Exception {
+                if (folders.containsKey(folderPath))
+                    return;
+
+                WatchedFolder folder = new WatchedFolder(folderPath);
+                folders.put(folderPath, folder);
+                scan(folder, reportContent);
+            }
+
+            private synchronized void scheduleRescan(WatchedFolder folder) {
+                if (closed || folder.rescanQueued)
+                    return;
+
+                folder.rescanQueued = true;
+                folder.delay = ChangeQueue.executor().schedule(() -> submitRescan(folder), debounceMillis, TimeUnit.MILLISECONDS);
+            }
+
+            //Submitted without holding the watch, a BLOCK scheduler may wait here and rescan() needs it
+            private void submitRescan(WatchedFolder folder) {
+                synchronized (this) {
+                    if (closed || folders.get(folder.path) != folder)
+                        return;
+                }
+
+                Future<?> task;
+
+                try {
+                    task = scheduler.submit("watch:" + rootPath, IoScheduler.PRIORITY_LOW, () -> {
+                        rescan(folder);
+                        return null;
+                    });
+                } catch (RejectedExecutionException e) {
+                    //The scheduler is busy, try again later instead of losing the change
+                    synchronized (this) {
+                        if (!closed)
+                            folder.delay = ChangeQueue.executor().schedule(() -> submitRescan(folder),
+                                    Math.max(debounceMillis, WatchOptions.DEFAULT_DEBOUNCE_MILLIS), TimeUnit.MILLISECONDS);
+                    }
+
+                    return;
+                }
+
+                //Only kept to cancel it, it may have run already
+                synchronized (this) {
+                    folder.rescan = task;
+
+                    if (closed)
+                        task.cancel(false);
+                }
+            }
+
+            private synchronized void rescan(WatchedFolder folder) {
+                folder.rescanQueued = false;
+
+                if (closed || folders.get(folder.path) != folder)
+                    return;
+
+                try {
+                    scan(folder, true);
+                } catch (Exception e) {
+                    //Gone, the parent's listing reports it unless it's the watched folder itself
+                    forgetTree(folder.path);
+
+                    if (folder.path.equals(rootPath))
+                        queue.add(FileChange.Type.DELETED, rootPath);
+                }
+            }
+
+            private void scan(WatchedFolder folder, boolean report) throws Exception {
+                Folder resolved = resolveFolder(folder.path);
+                Cursor cursor = queryChildren(resolved);
+
+                if (cursor == null)
+                    throw new FileNotFoundException(String.format("Unable to list folder: %s", folder.path));
+
+                HashMap<String, FileEntry> children = new HashMap<>();
+
+                while (cursor.moveToNext()) {
+                    FileEntry entry = cacheRow(folder.path, resolved.treeUri, cursor).entry;
+                    children.put(entry.getName(), entry);
+                }
+
+                //The new cursor keeps the provider watching, the observer stays registered on the same uri
+                if (folder.cursor == null) {
+                    Uri notificationUri = cursor.getNotificationUri();
+
+                    if (notificationUri == null) {
+                        cursor.close();
+                        throw new Exception(String.format("The provider doesn't report changes of %s!", folder.path));
+                    }
+
+                    context.getContentResolver().registerContentObserver(notificationUri, false, folder);
+                } else {
+                    folder.cursor.close();
+                }
+
+                folder.cursor = cursor;
+                HashMap<String, FileEntry> previous = folder.children;
+                folder.children = children;
+
+                for (FileEntry entry : children.values()) {
+                    String path = childPath(folder.path, entry.getName());
+                    FileEntry before = previous.get(entry.getName());
+
+                    if (before == null || before.isDirectory() != entry.isDirectory()) {
+                        if (report)
+                            queue.add(before == null ? FileChange.Type.CREATED : FileChange.Type.MODIFIED, path);
+
+                        if (recursive && entry.isDirectory())
+                            watchFolder(path, report);
+                    } else if (report && entry.isFile() && (before.getSize() != entry.getSize()
+                            || before.getLastModified() != entry.getLastModified())) {
+                        queue.add(FileChange.Type.MODIFIED, path);
+                    }
+                }
+
+                for (FileEntry entry : previous.values()) {
+                    if (!children.containsKey(entry.getName())) {
+                        String path = childPath(folder.path, entry.getName());
+
+                        queue.add(FileChange.Type.DELETED, path);
+                        forgetTree(path);
+                        invalidateTree(path);
+                    }
+                }
+            }
+
+            private void forgetTree(String path) {
+                String prefix = path + "/";
+
+                for (Iterator<WatchedFolder> iterator = folders.values().iterator(); iterator.hasNext(); ) {
+                    WatchedFolder folder = iterator.next();
+
+                    if (folder.path.equals(path) || folder.path.startsWith(prefix)) {
+                        release(folder);
+                        iterator.remove();
+                    }
+                }
+            }
+
+            private void release(WatchedFolder folder) {
+                context.getContentResolver().unregisterContentObserver(folder);
+
+                if (folder.delay != null)
+                    folder.delay.cancel(false);
+
+                if (folder.rescan != null)
+                    folder.rescan.cancel(false);
+
+                if (folder.cursor != null)
+                    folder.cursor.close();
+            }
+
+            @Override
+            public synchronized void close() {
+                closed = true;
+
+                for (WatchedFolder folder : folders.values())
+                    release(folder);
+
+                folders.clear();
+                queue.close();
+            }
+        }
+    }
+
+    private static class Folder {
+        private final Uri treeUri;
+        private final String documentId;
+
+        private Folder(Uri treeUri, String documentId) {
+            this.treeUri = treeUri;
+            this.documentId = documentId;
+        }
+    }
+
+    private static class CachedDocument {
+        private final Uri uri;
+        private final FileEntry entry;
+        private final String mimeType;
+        private final int flags;
+
+        private CachedDocument(Uri uri, FileEntry entry, String mimeType, int flags) {
+            this.uri = uri;
+            this.entry = entry;
+            this.mimeType = mimeType;
+            this.flags = flags;
+        }
+
+        private boolean supports(int flag) {
+            return (flags & flag) != 0;
+        }
+    }
+
+    public static class KitKatFiles implements FileProvider {
+        private final String base;
+
+        KitKatFiles() {
+            this(Environment.getExternalStorageDirectory());
+        }
+
+        //Works on any folder the app can write to, used by tests and benchmarks
+        public KitKatFiles(File root) {
+            this.base = root.getAbsolutePath() + "/";
+        }
+
+        @Override
+        public String name() {
+            return "KitKatFiles";
+        }
+
+        @Override
+        public FileProvider init(Context context) {
+            return this;
+        }
+
+        @Override
+        public String readFile(String filepath) throws IOException {
+            return readFile(filepath, DEFAULT_CHARSET);
+        }
+
+        @Override
+        public void createFile(String folderPath, String filename) throws Exception {
+            File targetFile = new File(base + folderPath + "/" + filename);
+
+            if (!targetFile.createNewFile())
+                throw new Exception("File already exists!");
+        }
+
+        @Override
+        public void createFolder(String folderPath) throws Exception {
+            File targetFolder = new File(base + folderPath);
+
+            if (targetFolder.exists())
+                throw new Exception("Folder already exists!");
+
+            if (!targetFolder.mkdir())
+                throw new Exception("Error creating folder!");
+        }
+
+        @Override
+        public void deleteFile(String filepath) throws Exception {
+            File targetFile = new File(base + filepath);
 
             if (!targetFile.exists())
                 throw new FileNotFoundException();
 
             if (targetFile.isDirectory()) {
-                File[] folderContent = targetFile.listFiles();
-
-                if (folderContent != null)
-                    for (File file : folderContent) {
-                        if (file.isDirectory())
-                            FileUtils.deleteDirectory(file);
-                        else if (!file.delete())
-                            throw new Exception("Unable to delete file due to an unknown reason!");
+                FileUtils.deleteDirectory(targetFile);
+            } else if (!targetFile.delete())
+                throw new Exception("Unable to delete file due to an unknown reason!");
+        }
+
+        @Override
+        public void cleanFolder(String folderPath) throws Exception {
+            cleanFolder(folderPath, new TreeOptions());
+        }
+
+        @Override
+        public FileBatch batch() {
+            return new FileBatch(this::runBatch);
+        }
+
+        //A file creation directly followed by a write to it is done with a single open call
+        private FileBatch.BatchResult runBatch(List<FileBatch.Operation> operations) {
+            ArrayList<FileBatch.Result> results = new ArrayList<>();
+            int calls = 0;
+
+            for (int i = 0; i < operations.size(); i++) {
+                FileBatch.Operation operation = operations.get(i);
+                FileBatch.Operation next = i + 1 < operations.size() ? operations.get(i + 1) : null;
+
+                try {
+                    calls++;
+
+                    switch (operation.getType()) {
+                        case CREATE_FOLDER:
+                            createFolder(operation.getPath());
+                            break;
+                        case CREATE_FILE:
+                            //An existing file fails the creation and is then written as usual
+                            if (next != null && next.getType() == FileBatch.Type.WRITE
+                                    && next.getPath().equals(operation.getPath())
+                                    && !new File(base + operation.getPath()).exists()) {
+                                i++;
+                                createAndWrite(operation, next, results);
+                                continue;
+                            }
+
+                            createFile(operation.getFolder(), operation.getName());
+                            break;
+                        case WRITE:
+                            FileUtils.writeByteArrayToFile(existingFile(operation.getPath()), operation.getContent());
+                            break;
+                        case RENAME:
+                            renameFile(operation.getPath(), operation.getNewName());
+                            break;
+                        case DELETE:
+                            deleteFile(operation.getPath());
+                            break;
                     }
-            } else throw new Exception("Selected target is a file!");
+
+                    results.add(new FileBatch.Result(operation, null));
+                } catch (Exception e) {
+                    results.add(new FileBatch.Result(operation, e));
+                }
+            }
+
+            return new FileBatch.BatchResult(results, calls);
+        }
+
+        //The stream creates the file, it fails like createFile when the folder is missing. Once it's
+        //open the creation succeeded, even if the write fails.
+        private void createAndWrite(FileBatch.Operation create, FileBatch.Operation write, List<FileBatch.Result> results) {
+            File targetFile = new File(base + create.getPath());
+            FileOutputStream output;
+
+            try {
+                if (!targetFile.getParentFile().isDirectory())
+                    throw new FileNotFoundException(String.format("Folder not found: %s", create.getFolder()));
+
+                output = new FileOutputStream(targetFile);
+            } catch (IOException e) {
+                results.add(new FileBatch.Result(create, e));
+                results.add(new FileBatch.Result(write, e));
+                return;
+            }
+
+            results.add(new FileBatch.Result(create, null));
+
+            try (FileOutputStream stream = output) {
+                stream.write(write.getContent());
+                results.add(new FileBatch.Result(write, null));
+            } catch (IOException e) {
+                results.add(new FileBatch.Result(write, e));
+            }
+        }
+
+        @Override
+        public void copyTree(String sourcePath, String targetPath, TreeOptions options) throws Exception {
+            TreeOperations.copyTree(this, sourcePath, targetPath, options);
+        }
+
+        @Override
+        public void deleteTree(String path, TreeOptions options) throws Exception {
+            TreeOperations.deleteTree(this, path, options, false);
+        }
+
+        @Override
+        public void cleanFolder(String folderPath, TreeOptions options) throws Exception {
+            TreeOperations.cleanFolder(this, folderPath, options, false);
+        }
+
+        @Override
+        public long computeSize(String path, TreeOptions options) throws Exception {
+            return TreeOperations.computeSize(this, path, options);
         }
 
         @Override
@@ -420,12 +1759,42 @@ public class StorageAccess {
 
         @Override
         public void writeFile(String filepath, String content) throws IOException {
+            writeFile(filepath, content.getBytes(DEFAULT_CHARSET), new WriteOptions());
+        }
+
+        @Override
+        public void writeFile(String filepath, byte[] content, WriteOptions options) throws IOException {
             File targetFile = new File(base + filepath);
 
-            if (!targetFile.exists())
-                throw new FileNotFoundException();
+            if (options.getMode() != WriteOptions.Mode.ATOMIC) {
+                if (!targetFile.exists())
+                    throw new FileNotFoundException();
+
+                write(targetFile, content, options.getMode() == WriteOptions.Mode.APPEND, options.isSync());
+                return;
+            }
+
+            //Same folder, rename only replaces atomically within one file system
+            File temporaryFile = File.createTempFile("." + targetFile.getName() + "-", ".tmp", targetFile.getParentFile());
+
+            try {
+                write(temporaryFile, content, false, options.isSync());
+
+                if (!temporaryFile.renameTo(targetFile))
+                    throw new IOException(String.format("Unable to replace file: %s", filepath));
+            } catch (IOException e) {
+                temporaryFile.delete();
+                throw e;
+            }
+        }
 
-            FileUtils.writeByteArrayToFile(targetFile, content.getBytes("UTF-8"));
+        private static void write(File file, byte[] content, boolean append, boolean sync) throws IOException {
+            try (FileOutputStream outputStream = new FileOutputStream(file, append)) {
+                outputStream.write(content);
+
+                if (sync)
+                    outputStream.getFD().sync();
+            }
         }
 
         //Works on SDK 30
@@ -449,6 +1818,20 @@ public class StorageAccess {
             return targetFile.exists();
         }
 
+        @Override
+        public Map<String, FileEntry> stat(String... paths) {
+            LinkedHashMap<String, FileEntry> entries = new LinkedHashMap<>();
+
+            for (String path : paths) {
+                File file = new File(base + path);
+
+                if (file.exists())
+                    entries.put(path, new FileEntry(file.getName(), file.isDirectory(), file.length(), file.lastModified(), null));
+            }
+
+            return entries;
+        }
+
         @Override
         public void copyFile(String originalFilepath, String newFilepath) throws Exception {
             File originalFile = new File(base + originalFilepath);
@@ -463,6 +1846,7 @@ public class StorageAccess {
             FileUtils.copyFile(originalFile, newFile);
         }
 
+        @Override
         public void moveFile(String filepath, String folderPath) throws Exception {
             File originalFile = new File(base + filepath);
             File targetDirectory = new File(base + folderPath);
@@ -491,6 +1875,151 @@ public class StorageAccess {
 
             return folder.list();
         }
+
+        @Override
+        public List<FileEntry> listEntries(String folderPath) throws Exception {
+            ArrayList<FileEntry> entries = new ArrayList<>();
+
+            try (EntryIterator iterator = iterateEntries(folderPath, 512)) {
+                while (iterator.hasNext()) {
+                    entries.add(iterator.next());
+                }
+            }
+
+            return entries;
+        }
+
+        @Override
+        public EntryIterator iterateEntries(String folderPath, int pageSize) throws Exception {
+            File folder = new File(base + folderPath);
+
+            if (!folder.exists())
+                throw new FileNotFoundException();
+
+            if (folder.isFile())
+                throw new Exception("The selected path is a file!");
+
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O)
+                return streamEntries(folder, pageSize);
+
+            String[] names = folder.list();
+
+            if (names == null)
+                throw new IOException(String.format("Unable to list folder: %s", folderPath));
+
+            return new PagedEntryIterator(pageSize) {
+                private int index;
+
+                @Override
+                protected boolean fillPage(ArrayList<FileEntry> page, int pageSize) {
+                    while (page.size() < pageSize) {
+                        if (index >= names.length)
+                            return false;
+
+                        File file = new File(folder, names[index++]);
+                        page.add(new FileEntry(file.getName(), file.isDirectory(), file.length(),
+                                file.lastModified(), null));
+                    }
+
+                    return true;
+                }
+
+                @Override
+                protected void release() {
+                }
+            };
+        }
+
+        //A directory stream plus one attributes read per child instead of three stat calls
+        @RequiresApi(api = Build.VERSION_CODES.O)
+        private EntryIterator streamEntries(File folder, int pageSize) throws IOException {
+            DirectoryStream<Path> stream = Files.newDirectoryStream(folder.toPath());
+            Iterator<Path> paths = stream.iterator();
+
+            return new PagedEntryIterator(pageSize) {
+                @Override
+                protected boolean fillPage(ArrayList<FileEntry> page, int pageSize) throws IOException {
+                    while (page.size() < pageSize) {
+                        if (!paths.hasNext())
+                            return false;
+
+                        Path path = paths.next();
+                        BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+
+                        page.add(new FileEntry(path.getFileName().toString(), attributes.isDirectory(),
+                                attributes.size(), attributes.lastModifiedTime().toMillis(), null));
+                    }
+
+                    return true;
+                }
+
+                @Override
+                protected void release() throws IOException {
+                    stream.close();
+                }
+            };
+        }
+
+        private File existingFile(String filepath) throws FileNotFoundException {
+            File targetFile = new File(base + filepath);
+
+            if (!targetFile.exists())
+                throw new FileNotFoundException(String.format("File not found: %s", filepath));
+
+            return targetFile;
+        }
+
+        @Override
+        public ByteBuffer readRange(String filepath, long offset, int length) throws IOException {
+            try (RandomAccessFile file = new RandomAccessFile(existingFile(filepath), "r")) {
+                FileChannel channel = file.getChannel();
+                long rangeLength = rangeLength(channel.size(), offset, length);
+
+                if (rangeLength == 0)
+                    return ByteBuffer.allocate(0);
+
+                return channel.map(FileChannel.MapMode.READ_ONLY, offset, rangeLength);
+            }
+        }
+
+        @Override
+        public ByteBuffer map(String filepath) throws IOException {
+            try (RandomAccessFile file = new RandomAccessFile(existingFile(filepath), "r")) {
+                FileChannel channel = file.getChannel();
+                return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            }
+        }
+
+        @Override
+        public InputStream openInputStream(String filepath) throws IOException {
+            return FileUtils.openInputStream(existingFile(filepath));
+        }
+
+        @Override
+        public OutputStream openOutputStream(String filepath) throws IOException {
+            return FileUtils.openOutputStream(existingFile(filepath));
+        }
+
+        @Override
+        public ReadableByteChannel openReadableChannel(String filepath) throws IOException {
+            return FileUtils.openInputStream(existingFile(filepath)).getChannel();
+        }
+
+        @Override
+        public WritableByteChannel openWritableChannel(String filepath) throws IOException {
+            return FileUtils.openOutputStream(existingFile(filepath)).getChannel();
+        }
+
+        @Override
+        public FileChannel openPositionalWriteChannel(String filepath) throws IOException {
+            return new RandomAccessFile(existingFile(filepath), "rw").getChannel();
+        }
+
+        //Before Q, FileObservers on the same folder replace each other, so a folder should only be watched once
+        @Override
+        public Watch watch(String folderPath, WatchOptions options, WatchListener listener) throws Exception {
+            return new FileObserverWatch(base, folderPath, options, listener);
+        }
     }
 
 }
\ No newline at end of file
@@ -0,0 +1,213 @@
+package pedrog022.storageapi.storageaccess;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+//Counts, bytes, errors and latencies of every FileProvider operation, grouped by provider name.
+//Values are cumulative since creation or the last reset().
+public class StorageMetrics {
+    public interface Listener {
+        //Called on the metrics thread
+        void onMetrics(Snapshot snapshot);
+    }
+
+    //Provider name -> operation name -> stats, nested so lookups don't build keys on every call
+    private final ConcurrentHashMap<String, ConcurrentHashMap<String, OperationStats>> providers =
+            new ConcurrentHashMap<>();
+    private final HashMap<Listener, ScheduledFuture<?>> listeners = new HashMap<>();
+    private ScheduledThreadPoolExecutor timer;
+
+    OperationStats stats(String provider, String operation) {
+        ConcurrentHashMap<String, OperationStats> operations = providers.get(provider);
+
+        if (operations == null) {
+            ConcurrentHashMap<String, OperationStats> created = new ConcurrentHashMap<>();
+            operations = providers.putIfAbsent(provider, created);
+
+            if (operations == null)
+                operations = created;
+        }
+
+        OperationStats stats = operations.get(operation);
+
+        if (stats == null) {
+            OperationStats created = new OperationStats(provider, operation);
+            stats = operations.putIfAbsent(operation, created);
+
+            if (stats == null)
+                stats = created;
+        }
+
+        return stats;
+    }
+
+    public Snapshot snapshot() {
+        ArrayList<OperationSnapshot> snapshots = new ArrayList<>();
+
+        for (ConcurrentHashMap<String, OperationStats> operations : providers.values()) {
+            for (OperationStats stats : operations.values())
+                snapshots.add(stats.snapshot());
+        }
+
+        return new Snapshot(System.currentTimeMillis(), snapshots);
+    }
+
+    public void reset() {
+        providers.clear();
+    }
+
+    public synchronized void addListener(Listener listener, long periodMillis) {
+        removeListener(listener);
+
+        if (timer == null) {
+            timer = new ScheduledThreadPoolExecutor(1, runnable -> {
+                Thread thread = new Thread(runnable, "StorageMetrics");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+
+        listeners.put(listener, timer.scheduleAtFixedRate(() -> listener.onMetrics(snapshot()),
+                periodMillis, periodMillis, TimeUnit.MILLISECONDS));
+    }
+
+    public synchronized void removeListener(Listener listener) {
+        ScheduledFuture<?> future = listeners.remove(listener);
+
+        if (future != null)
+            future.cancel(false);
+
+        if (listeners.isEmpty() && timer != null) {
+            timer.shutdown();
+            timer = null;
+        }
+    }
+
+    /*--------------------------------------------------------------------------------------------*/
+
+    static class OperationStats {
+        private final String provider;
+        private final String operation;
+        private final AtomicLong calls = new AtomicLong();
+        private final AtomicLong errors = new AtomicLong();
+        private final AtomicLong bytes = new AtomicLong();
+        private final LatencyHistogram latency = new LatencyHistogram();
+
+        private OperationStats(String provider, String operation) {
+            this.provider = provider;
+            this.operation = operation;
+        }
+
+        void record(long nanos, boolean failed) {
+            calls.incrementAndGet();
+            latency.record(nanos);
+
+            if (failed)
+                errors.incrementAndGet();
+        }
+
+        void addBytes(long count) {
+            if (count > 0)
+                bytes.addAndGet(count);
+        }
+
+        private OperationSnapshot snapshot() {
+            return new OperationSnapshot(provider, operation, calls.get(), errors.get(), bytes.get(), latency.snapshot());
+        }
+    }
+
+    public static class Snapshot {
+        private final long timestamp;
+        private final List<OperationSnapshot> operations;
+
+        private Snapshot(long timestamp, List<OperationSnapshot> operations) {
+            this.timestamp = timestamp;
+            this.operations = Collections.unmodifiableList(operations);
+        }
+
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        public List<OperationSnapshot> getOperations() {
+            return operations;
+        }
+
+        public OperationSnapshot getOperation(String provider, String operation) {
+            for (OperationSnapshot snapshot : operations) {
+                if (snapshot.provider.equals(provider) && snapshot.operation.equals(operation))
+                    return snapshot;
+            }
+
+            return null;
+        }
+    }
+
+    public static class OperationSnapshot {
+        private final String provider;
+        private final String operation;
+        private final long calls;
+        private final long errors;
+        private final long bytes;
+        private final LatencyHistogram.Snapshot latency;
+
+        private OperationSnapshot(String provider, String operation, long calls, long errors, long bytes,
+                                  LatencyHistogram.Snapshot latency) {
+            this.provider = provider;
+            this.operation = operation;
+            this.calls = calls;
+            this.errors = errors;
+            this.bytes = bytes;
+            this.latency = latency;
+        }
+
+        //FileProvider.name() of the provider that ran the operation
+        public String getProvider() {
+            return provider;
+        }
+
+        public String getOperation() {
+            return operation;
+        }
+
+        public long getCalls() {
+            return calls;
+        }
+
+        public long getErrors() {
+            return errors;
+        }
+
+        public double getErrorRate() {
+            return calls == 0 ? 0 : (double) errors / calls;
+        }
+
+        public long getBytes() {
+            return bytes;
+        }
+
+        //Bytes per second of the time spent inside the operation
+        public double getBytesPerSecond() {
+            long nanos = latency.getTotalNanos();
+            return nanos == 0 ? 0 : bytes * 1_000_000_000.0 / nanos;
+        }
+
+        public LatencyHistogram.Snapshot getLatency() {
+            return latency;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s.%s calls=%d errors=%d bytes=%d p50=%dns p99=%dns max=%dns", provider, operation,
+                    calls, errors, bytes, latency.getPercentileNanos(50), latency.getPercentileNanos(99),
+                    latency.getMaxNanos());
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package pedrog022.storageapi.storageaccess;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+//Incremental decoder reusing the same byte, char and line buffers for every read.
+//Each thread keeps one pooled instance, so parsing a file line by line only allocates
+//when a line is turned into a String.
+class TextReader implements Closeable {
+    private static final int BUFFER_SIZE = 16 * 1024;
+
+    private static final ThreadLocal<TextReader> pool = new ThreadLocal<TextReader>() {
+        @Override
+        protected TextReader initialValue() {
+            return new TextReader();
+        }
+    };
+
+    private final ByteBuffer bytes = ByteBuffer.allocate(BUFFER_SIZE);
+    private final CharBuffer chars = CharBuffer.allocate(BUFFER_SIZE);
+    private final StringBuilder line = new StringBuilder();
+    private CharsetDecoder decoder;
+
+    private InputStream input;
+    private boolean endOfInput;
+    private boolean finished;
+    private boolean skipLineFeed;
+    private boolean inUse;
+
+    //Pooled instance for the current thread, must be handed back with close()
+    static TextReader acquire(InputStream input, Charset charset) {
+        TextReader reader = pool.get();
+
+        if (reader.inUse)
+            reader = new TextReader();
+
+        reader.open(input, charset);
+        return reader;
+    }
+
+    static String readAll(InputStream input, Charset charset) throws IOException {
+        try (TextReader reader = acquire(input, charset)) {
+            return reader.readAll();
+        }
+    }
+
+    void open(InputStream input, Charset charset) {
+        if (decoder == null || !decoder.charset().equals(charset)) {
+            decoder = charset.newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        } else {
+            decoder.reset();
+        }
+
+        this.input = input;
+        bytes.clear();
+        chars.clear();
+        chars.flip();
+        line.setLength(0);
+        endOfInput = false;
+        finished = false;
+        skipLineFeed = false;
+        inUse = true;
+    }
+
+    //Loads the next line without its terminator into line(), returns false at the end of the input
+    boolean readLine() throws IOException {
+        line.setLength(0);
+
+        while (true) {
+            while (chars.hasRemaining()) {
+                char c = chars.get();
+
+                if (skipLineFeed) {
+                    skipLineFeed = false;
+
+                    if (c == '\n')
+                        continue;
+                }
+
+                if (c == '\n')
+                    return true;
+
+                if (c == '\r') {
+                    skipLineFeed = true;
+                    return true;
+                }
+
+                line.append(c);
+            }
+
+            if (!fill())
+                return line.length() > 0;
+        }
+    }
+
+    //Only valid until the next readLine call
+    CharSequence line() {
+        return line;
+    }
+
+    String readAll() throws IOException {
+        StringBuilder content = new StringBuilder();
+
+        do {
+            content.append(chars);
+            chars.position(chars.limit());
+        } while (fill());
+
+        return content.toString();
+    }
+
+    private boolean fill() throws IOException {
+        if (finished)
+            return false;
+
+        chars.clear();
+
+        while (true) {
+            if (!endOfInput) {
+                int read = input.read(bytes.array(), bytes.arrayOffset() + bytes.position(), bytes.remaining());
+
+                if (read < 0)
+                    endOfInput = true;
+                else
+                    bytes.position(bytes.position() + read);
+            }
+
+            bytes.flip();
+            CoderResult result = decoder.decode(bytes, chars, endOfInput);
+            bytes.compact();
+
+            if (endOfInput && result.isUnderflow()) {
+                decoder.flush(chars);
+                finished = true;
+                break;
+            }
+
+            if (chars.position() > 0)
+                break;
+        }
+
+        chars.flip();
+        return chars.hasRemaining();
+    }
+
+    @Override
+    public void close() throws IOException {
+        InputStream stream = input;
+
+        input = null;
+        inUse = false;
+
+        //Don't keep a huge line buffer pooled after an unusually long line
+        if (line.capacity() > BUFFER_SIZE * 4) {
+            line.setLength(0);
+            line.trimToSize();
+        }
+
+        if (stream != null)
+            stream.close();
+    }
+}
@@ -0,0 +1,264 @@
+package pedrog022.storageapi.storageaccess;
+
+import java.io.FileNotFoundException;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+//Recursive operations built on the FileProvider primitives, every subfolder is handled as its own task.
+//Tasks never block waiting on their children, folders are finished by the last child to complete.
+class TreeOperations {
+    interface Step {
+        void run() throws Exception;
+    }
+
+    interface FileVisitor {
+        //Called from worker threads for every file below the walked folder. The returned step runs
+        //as a task of its own, so expensive work per file is spread over the pool as well.
+        Step visit(String path, FileEntry entry) throws Exception;
+    }
+
+    private static class Folder {
+        private final String path;
+        private final Folder parent;
+        private final boolean deleteSelf;
+        private final AtomicInteger remaining = new AtomicInteger();
+
+        private Folder(String path, Folder parent, boolean deleteSelf) {
+            this.path = path;
+            this.parent = parent;
+            this.deleteSelf = deleteSelf;
+        }
+    }
+
+    private final FileProvider provider;
+    private final TreeOptions options;
+    private final boolean recursiveDelete;
+    private final ThreadPoolExecutor pool;
+
+    private final AtomicInteger pending = new AtomicInteger();
+    private final CountDownLatch finished = new CountDownLatch(1);
+    private final AtomicLong entriesProcessed = new AtomicLong();
+    private final AtomicLong bytesProcessed = new AtomicLong();
+    private final AtomicLong totalSize = new AtomicLong();
+    private volatile Exception failure;
+
+    //recursiveDelete tells that provider.deleteFile already removes whole folders in one call
+    private TreeOperations(FileProvider provider, TreeOptions options, boolean recursiveDelete) {
+        this.provider = provider;
+        this.options = options;
+        this.recursiveDelete = recursiveDelete;
+        this.pool = new ThreadPoolExecutor(options.getParallelism(), options.getParallelism(),
+                1, TimeUnit.SECONDS, new LinkedBlockingQueue<>());
+    }
+
+    static void copyTree(FileProvider provider, String sourcePath, String targetPath, TreeOptions options) throws Exception {
+        if (!provider.exists(sourcePath))
+            throw new FileNotFoundException(String.format("Folder to be copied was not found: %s", sourcePath));
+
+        if (!provider.isFolder(sourcePath))
+            throw new Exception("The selected source is a file!");
+
+        TreeOperations operation = new TreeOperations(provider, options, false);
+        operation.run(() -> operation.copyFolder(trim(sourcePath), trim(targetPath)));
+    }
+
+    static void deleteTree(FileProvider provider, String path, TreeOptions options, boolean recursiveDelete) throws Exception {
+        if (!provider.exists(path))
+            throw new FileNotFoundException(String.format("Path to be deleted was not found: %s", path));
+
+        if (recursiveDelete || !provider.isFolder(path)) {
+            provider.deleteFile(path);
+            return;
+        }
+
+        TreeOperations operation = new TreeOperations(provider, options, false);
+        operation.run(() -> operation.deleteFolder(trim(path), null, true));
+    }
+
+    static void cleanFolder(FileProvider provider, String folderPath, TreeOptions options, boolean recursiveDelete) throws Exception {
+        if (!provider.exists(folderPath))
+            throw new FileNotFoundException(String.format("Folder to be cleaned was not found: %s", folderPath));
+
+        if (!provider.isFolder(folderPath))
+            throw new Exception("Selected target is a file!");
+
+        TreeOperations operation = new TreeOperations(provider, options, recursiveDelete);
+        operation.run(() -> operation.deleteFolder(trim(folderPath), null, false));
+    }
+
+    static long computeSize(FileProvider provider, String path, TreeOptions options) throws Exception {
+        if (!provider.isFolder(path))
+            return sizeOfFile(provider, path);
+
+        TreeOperations operation = new TreeOperations(provider, options, false);
+        operation.run(() -> operation.sizeFolder(trim(path)));
+
+        return operation.totalSize.get();
+    }
+
+    static void walkFiles(FileProvider provider, String folderPath, TreeOptions options, FileVisitor visitor) throws Exception {
+        if (!provider.isFolder(folderPath))
+            throw new FileNotFoundException(String.format("Folder to be walked was not found: %s", folderPath));
+
+        TreeOperations operation = new TreeOperations(provider, options, false);
+        operation.run(() -> operation.walkFolder(trim(folderPath), visitor));
+    }
+
+    //A single stat, the parent folder isn't listed
+    private static long sizeOfFile(FileProvider provider, String path) throws Exception {
+        FileEntry entry = provider.stat(path).get(path);
+
+        if (entry == null)
+            throw new FileNotFoundException(String.format("File not found: %s", path));
+
+        return entry.getSize();
+    }
+
+    /*--------------------------------------------------------------------------------------------*/
+
+    private void copyFolder(String source, String target) throws Exception {
+        if (!provider.exists(target))
+            provider.createFolder(target);
+
+        progress(0);
+
+        for (FileEntry child : provider.listEntries(source)) {
+            String childSource = join(source, child.getName());
+            String childTarget = join(target, child.getName());
+
+            if (child.isDirectory()) {
+                submit(() -> copyFolder(childSource, childTarget));
+            } else {
+                submit(() -> {
+                    provider.copyFile(childSource, childTarget);
+                    progress(child.getSize());
+                });
+            }
+        }
+    }
+
+    private void deleteFolder(String path, Folder parent, boolean deleteSelf) throws Exception {
+        Folder folder = new Folder(path, parent, deleteSelf);
+        List<FileEntry> children = provider.listEntries(path);
+
+        //The extra count is released once every child was scheduled
+        folder.remaining.set(children.size() + 1);
+
+        for (FileEntry child : children) {
+            String childPath = join(path, child.getName());
+
+            if (child.isDirectory() && !recursiveDelete) {
+                submit(() -> deleteFolder(childPath, folder, true));
+            } else {
+                submit(() -> {
+                    provider.deleteFile(childPath);
+                    progress(child.isDirectory() ? 0 : child.getSize());
+                    childDone(folder);
+                });
+            }
+        }
+
+        childDone(folder);
+    }
+
+    private void childDone(Folder folder) throws Exception {
+        while (folder != null && folder.remaining.decrementAndGet() == 0) {
+            if (folder.deleteSelf) {
+                provider.deleteFile(folder.path);
+                progress(0);
+            }
+
+            folder = folder.parent;
+        }
+    }
+
+    private void sizeFolder(String path) throws Exception {
+        for (FileEntry child : provider.listEntries(path)) {
+            if (child.isDirectory()) {
+                String childPath = join(path, child.getName());
+                submit(() -> sizeFolder(childPath));
+            } else {
+                totalSize.addAndGet(child.getSize());
+                progress(child.getSize());
+            }
+        }
+    }
+
+    private void walkFolder(String path, FileVisitor visitor) throws Exception {
+        for (FileEntry child : provider.listEntries(path)) {
+            String childPath = join(path, child.getName());
+
+            if (child.isDirectory()) {
+                submit(() -> walkFolder(childPath, visitor));
+            } else {
+                Step step = visitor.visit(childPath, child);
+                progress(child.getSize());
+
+                if (step != null)
+                    submit(step);
+            }
+        }
+    }
+
+    /*--------------------------------------------------------------------------------------------*/
+
+    private void run(Step root) throws Exception {
+        submit(root);
+
+        try {
+            finished.await();
+        } catch (InterruptedException e) {
+            options.cancel();
+            Thread.currentThread().interrupt();
+            throw new CancellationException("Tree operation was interrupted!");
+        } finally {
+            pool.shutdownNow();
+        }
+
+        if (failure != null)
+            throw failure;
+
+        if (options.isCancelled())
+            throw new CancellationException("Tree operation was cancelled!");
+    }
+
+    private void submit(Step step) {
+        pending.incrementAndGet();
+
+        pool.execute(() -> {
+            try {
+                if (failure == null && !options.isCancelled())
+                    step.run();
+            } catch (Exception e) {
+                if (failure == null)
+                    failure = e;
+            } finally {
+                if (pending.decrementAndGet() == 0)
+                    finished.countDown();
+            }
+        });
+    }
+
+    private void progress(long bytes) {
+        long entries = entriesProcessed.incrementAndGet();
+        long totalBytes = bytesProcessed.addAndGet(bytes);
+
+        TreeOptions.ProgressListener listener = options.getProgressListener();
+        if (listener != null)
+            listener.onProgress(entries, totalBytes);
+    }
+
+    private static String trim(String path) {
+        return path.endsWith("/") ? path.substring(0, path.length() - 1) : path;
+    }
+
+    private static String join(String folder, String name) {
+        return folder.isEmpty() ? name : folder + "/" + name;
+    }
+}
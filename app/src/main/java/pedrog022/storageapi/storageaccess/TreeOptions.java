@@ -0,0 +1,46 @@
+package pedrog022.storageapi.storageaccess;
+
+//Settings shared by the recursive copyTree/deleteTree/cleanFolder/computeSize operations
+public class TreeOptions {
+    public interface ProgressListener {
+        //Called from worker threads
+        void onProgress(long entriesProcessed, long bytesProcessed);
+    }
+
+    private final int parallelism;
+    private ProgressListener progressListener;
+    private volatile boolean cancelled;
+
+    public TreeOptions() {
+        this(Math.max(2, Runtime.getRuntime().availableProcessors()));
+    }
+
+    public TreeOptions(int parallelism) {
+        if (parallelism < 1)
+            throw new IllegalArgumentException("Parallelism must be positive!");
+
+        this.parallelism = parallelism;
+    }
+
+    public TreeOptions setProgressListener(ProgressListener progressListener) {
+        this.progressListener = progressListener;
+        return this;
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    public ProgressListener getProgressListener() {
+        return progressListener;
+    }
+
+    //Stops scheduling new work, the running operation then throws a CancellationException
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+}
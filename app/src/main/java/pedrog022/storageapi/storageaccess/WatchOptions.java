@@ -0,0 +1,74 @@
+package pedrog022.storageapi.storageaccess;
+
+//Settings of FileProvider.watch
+public class WatchOptions {
+    public static final long DEFAULT_DEBOUNCE_MILLIS = 200;
+    public static final long DEFAULT_MAX_DELAY_MILLIS = 2_000;
+    public static final int DEFAULT_MAX_PENDING_CHANGES = 1024;
+
+    private boolean recursive;
+    private long debounceMillis = DEFAULT_DEBOUNCE_MILLIS;
+    private long maxDelayMillis = DEFAULT_MAX_DELAY_MILLIS;
+    private int maxPendingChanges = DEFAULT_MAX_PENDING_CHANGES;
+    private IoScheduler scheduler;
+
+    //Also watches every subfolder, including the ones created while watching
+    public WatchOptions setRecursive(boolean recursive) {
+        this.recursive = recursive;
+        return this;
+    }
+
+    //Changes are delivered once nothing happened for this long...
+    public WatchOptions setDebounceMillis(long debounceMillis) {
+        if (debounceMillis < 0)
+            throw new IllegalArgumentException("Debounce can't be negative!");
+
+        this.debounceMillis = debounceMillis;
+        return this;
+    }
+
+    //...or at the latest this long after the first pending change
+    public WatchOptions setMaxDelayMillis(long maxDelayMillis) {
+        if (maxDelayMillis < 0)
+            throw new IllegalArgumentException("Max delay can't be negative!");
+
+        this.maxDelayMillis = maxDelayMillis;
+        return this;
+    }
+
+    //Distinct paths held between deliveries, beyond that the changes are dropped and onOverflow is called
+    public WatchOptions setMaxPendingChanges(int maxPendingChanges) {
+        if (maxPendingChanges < 1)
+            throw new IllegalArgumentException("Max pending changes must be positive!");
+
+        this.maxPendingChanges = maxPendingChanges;
+        return this;
+    }
+
+    //Where QFiles lists changed folders again, by default the scheduler of the StorageAccess that
+    //created the provider
+    public WatchOptions setScheduler(IoScheduler scheduler) {
+        this.scheduler = scheduler;
+        return this;
+    }
+
+    public boolean isRecursive() {
+        return recursive;
+    }
+
+    public long getDebounceMillis() {
+        return debounceMillis;
+    }
+
+    public long getMaxDelayMillis() {
+        return maxDelayMillis;
+    }
+
+    public int getMaxPendingChanges() {
+        return maxPendingChanges;
+    }
+
+    public IoScheduler getScheduler() {
+        return scheduler;
+    }
+}
@@ -0,0 +1,36 @@
+package pedrog022.storageapi.storageaccess;
+
+//Settings of FileProvider.writeFile
+public class WriteOptions {
+    public enum Mode {
+        //Replaces the content of the existing file in place
+        TRUNCATE,
+        //Adds the content at the end of the existing file
+        APPEND,
+        //Writes a sibling temporary file and renames it over the target, readers never see a torn
+        //file. The target is created when missing.
+        ATOMIC
+    }
+
+    private Mode mode = Mode.TRUNCATE;
+    private boolean sync;
+
+    public WriteOptions setMode(Mode mode) {
+        this.mode = mode;
+        return this;
+    }
+
+    //Flushes the written bytes to the storage device before returning, so they survive a power loss
+    public WriteOptions setSync(boolean sync) {
+        this.sync = sync;
+        return this;
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    public boolean isSync() {
+        return sync;
+    }
+}
@@ -0,0 +1,116 @@
+package pedrog022.storageapi.storageaccess;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.FileNotFoundException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class AsyncFileProviderTest {
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private IoScheduler scheduler;
+    private ExecutorService callbacks;
+    private AsyncFileProvider provider;
+
+    @Before
+    public void setUp() {
+        scheduler = new IoScheduler(2, 2, 16, IoScheduler.BackpressurePolicy.BLOCK);
+        callbacks = Executors.newSingleThreadExecutor();
+        provider = new AsyncFileProvider(new StorageAccess.KitKatFiles(temporaryFolder.getRoot()), scheduler, callbacks);
+    }
+
+    @After
+    public void tearDown() {
+        scheduler.shutdownNow();
+        callbacks.shutdownNow();
+    }
+
+    @Test
+    public void dependentOperations_chainWithoutBlocking() throws Exception {
+        String content = provider.createFile("", "chained.txt")
+                .thenCompose(ignored -> provider.writeFile("chained.txt", "chained"))
+                .thenCompose(ignored -> provider.readFile("chained.txt"))
+                .get(5, TimeUnit.SECONDS);
+
+        assertEquals("chained", content);
+    }
+
+    @Test
+    public void results_areDeliveredOnTheCallbackExecutor() throws Exception {
+        AtomicInteger delivered = new AtomicInteger();
+        AsyncFileProvider counted = new AsyncFileProvider(provider.getProvider(), scheduler, runnable -> {
+            delivered.incrementAndGet();
+            callbacks.execute(runnable);
+        });
+
+        assertFalse(counted.exists("anything").get(5, TimeUnit.SECONDS));
+        assertEquals(1, delivered.get());
+    }
+
+    @Test
+    public void failures_completeExceptionally() throws Exception {
+        try {
+            provider.readFile("missing.txt").get(5, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof FileNotFoundException);
+        }
+    }
+
+    @Test
+    public void cancelledOpen_closesWhatWasOpened() throws Exception {
+        AtomicBoolean closed = new AtomicBoolean();
+        StorageAccess.KitKatFiles tracked = new StorageAccess.KitKatFiles(temporaryFolder.getRoot()) {
+            @Override
+            public InputStream openInputStream(String filepath) throws IOException {
+                return new FilterInputStream(super.openInputStream(filepath)) {
+                    @Override
+                    public void close() throws IOException {
+                        closed.set(true);
+                        super.close();
+                    }
+                };
+            }
+        };
+
+        temporaryFolder.newFile("opened.txt");
+
+        //Completions are held back until the future was cancelled
+        LinkedBlockingQueue<Runnable> held = new LinkedBlockingQueue<>();
+        AsyncFileProvider delayed = new AsyncFileProvider(tracked, scheduler, held::add);
+
+        CompletableFuture<InputStream> future = delayed.openInputStream("opened.txt");
+        Runnable completion = held.poll(5, TimeUnit.SECONDS);
+        future.cancel(true);
+        completion.run();
+
+        assertTrue(closed.get());
+    }
+
+    @Test
+    public void rejectedCallback_stillCompletesTheFuture() throws Exception {
+        AsyncFileProvider rejecting = new AsyncFileProvider(provider.getProvider(), scheduler, runnable -> {
+            throw new RejectedExecutionException("Callbacks were shut down");
+        });
+
+        assertFalse(rejecting.exists("anything").get(5, TimeUnit.SECONDS));
+    }
+}
@@ -0,0 +1,89 @@
+package pedrog022.storageapi.storageaccess;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class ChangeQueueTest {
+    private static class Recorder implements FileProvider.WatchListener {
+        private final List<List<FileChange>> batches = new ArrayList<>();
+        private final AtomicInteger overflows = new AtomicInteger();
+        private final CountDownLatch delivered = new CountDownLatch(1);
+
+        @Override
+        public synchronized void onChanges(List<FileChange> changes) {
+            batches.add(changes);
+            delivered.countDown();
+        }
+
+        @Override
+        public void onOverflow() {
+            overflows.incrementAndGet();
+            delivered.countDown();
+        }
+    }
+
+    @Test
+    public void merge_keepsTheNetEffect() {
+        assertEquals(FileChange.Type.CREATED, ChangeQueue.merge(FileChange.Type.CREATED, FileChange.Type.MODIFIED));
+        assertNull(ChangeQueue.merge(FileChange.Type.CREATED, FileChange.Type.DELETED));
+        assertEquals(FileChange.Type.MODIFIED, ChangeQueue.merge(FileChange.Type.DELETED, FileChange.Type.CREATED));
+        assertEquals(FileChange.Type.DELETED, ChangeQueue.merge(FileChange.Type.MODIFIED, FileChange.Type.DELETED));
+    }
+
+    @Test
+    public void burst_isDeliveredAsOneBatch() throws Exception {
+        Recorder recorder = new Recorder();
+        ChangeQueue queue = new ChangeQueue(new WatchOptions().setDebounceMillis(50), recorder);
+
+        queue.add(FileChange.Type.CREATED, "a.txt");
+        queue.add(FileChange.Type.MODIFIED, "a.txt");
+        queue.add(FileChange.Type.DELETED, "b.txt");
+        queue.add(FileChange.Type.CREATED, "tmp.txt");
+        queue.add(FileChange.Type.DELETED, "tmp.txt");
+
+        assertTrue(recorder.delivered.await(5, TimeUnit.SECONDS));
+        Thread.sleep(100);
+
+        synchronized (recorder) {
+            assertEquals(1, recorder.batches.size());
+            assertEquals("[CREATED a.txt, DELETED b.txt]", recorder.batches.get(0).toString());
+        }
+    }
+
+    @Test
+    public void tooManyChanges_reportOverflow() throws Exception {
+        Recorder recorder = new Recorder();
+        ChangeQueue queue = new ChangeQueue(new WatchOptions().setDebounceMillis(20).setMaxPendingChanges(2), recorder);
+
+        for (int i = 0; i < 5; i++)
+            queue.add(FileChange.Type.CREATED, "file" + i);
+
+        assertTrue(recorder.delivered.await(5, TimeUnit.SECONDS));
+        assertEquals(1, recorder.overflows.get());
+        assertTrue(recorder.batches.isEmpty());
+    }
+
+    @Test
+    public void steadyChanges_areDeliveredAfterMaxDelay() throws Exception {
+        Recorder recorder = new Recorder();
+        ChangeQueue queue = new ChangeQueue(new WatchOptions().setDebounceMillis(100).setMaxDelayMillis(150), recorder);
+        long start = System.nanoTime();
+
+        //Never quiet for the debounce period, only the max delay flushes
+        while (recorder.delivered.getCount() > 0 && System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5)) {
+            queue.add(FileChange.Type.MODIFIED, "log.txt");
+            Thread.sleep(10);
+        }
+
+        queue.close();
+        assertEquals(0, recorder.delivered.getCount());
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(1));
+    }
+}
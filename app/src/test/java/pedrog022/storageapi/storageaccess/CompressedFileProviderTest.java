@@ -0,0 +1,172 @@
+package pedrog022.storageapi.storageaccess;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+import static org.junit.Assert.*;
+
+public class CompressedFileProviderTest {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private StorageAccess.KitKatFiles plain;
+    private CompressedFileProvider provider;
+
+    @Before
+    public void setUp() {
+        plain = new StorageAccess.KitKatFiles(temporaryFolder.getRoot());
+        provider = new CompressedFileProvider(plain);
+    }
+
+    private static String config(int entries) {
+        StringBuilder builder = new StringBuilder("{");
+
+        for (int i = 0; i < entries; i++)
+            builder.append("\"key").append(i).append("\": \"value\",\n");
+
+        return builder.append("}").toString();
+    }
+
+    private long storedSize(String path) {
+        return new File(temporaryFolder.getRoot(), path).length();
+    }
+
+    @Test
+    public void writtenFile_isStoredCompressedAndReadBack() throws Exception {
+        String content = config(2_000);
+        provider.createFile("", "config.json");
+        provider.writeFile("config.json", content);
+
+        assertTrue(provider.isCompressed("config.json"));
+        assertTrue(storedSize("config.json") * 5 < content.length());
+        assertEquals(content, provider.readFile("config.json"));
+        assertEquals(content.length(), provider.size("config.json"));
+        assertEquals(content.length(), provider.listEntries("").get(0).getSize());
+    }
+
+    @Test
+    public void listings_reportUncompressedSizes_readingOnlySelectedFiles() throws Exception {
+        String content = config(2_000);
+        provider.createFile("", "a.json");
+        provider.createFile("", "texture.png");
+        provider.writeFile("a.json", content);
+        provider.writeFile("texture.png", content);
+
+        StorageMetrics metrics = new StorageMetrics();
+        CompressedFileProvider instrumented = new CompressedFileProvider(new InstrumentedFileProvider(plain, metrics));
+
+        for (FileEntry entry : instrumented.listEntries(""))
+            assertEquals(content.length(), entry.getSize());
+
+        assertEquals(content.length(), instrumented.stat("a.json").get("a.json").getSize());
+        assertEquals(2L * content.length(), instrumented.computeSize("", new TreeOptions(1)));
+
+        try (FileProvider.EntryIterator entries = instrumented.iterateEntries("", 1)) {
+            while (entries.hasNext())
+                assertEquals(content.length(), entries.next().getSize());
+        }
+
+        //One header read per listing of a.json, texture.png is never read
+        assertEquals(4, metrics.snapshot().getOperation("KitKatFiles", "readRange").getCalls());
+    }
+
+    @Test
+    public void readRange_atTheListedEnd_returnsTheLastBytes() throws Exception {
+        String content = config(2_000);
+        provider.createFile("", "config.json");
+        provider.writeFile("config.json", content);
+
+        long size = provider.listEntries("").get(0).getSize();
+        ByteBuffer tail = provider.readRange("config.json", size - 10, 10);
+
+        assertEquals(content.substring(content.length() - 10), UTF_8.decode(tail).toString());
+    }
+
+    @Test
+    public void appends_addFrames() throws Exception {
+        String first = config(500);
+        String second = config(300);
+        provider.createFile("", "events.log");
+
+        provider.writeFile("events.log", first, new WriteOptions().setMode(WriteOptions.Mode.APPEND));
+        provider.writeFile("events.log", second, new WriteOptions().setMode(WriteOptions.Mode.APPEND));
+        provider.writeFile("events.log", "x", new WriteOptions().setMode(WriteOptions.Mode.APPEND));
+
+        assertEquals(first + second + "x", provider.readFile("events.log"));
+        assertEquals(first.length() + second.length() + 1, provider.size("events.log"));
+    }
+
+    @Test
+    public void outputStream_patchesTheHeaderOnClose() throws Exception {
+        String content = config(1_000);
+        provider.createFile("", "stream.txt");
+
+        try (OutputStream output = provider.openOutputStream("stream.txt")) {
+            output.write(content.getBytes(UTF_8));
+        }
+
+        assertTrue(storedSize("stream.txt") < content.length());
+        assertEquals(content.length(), provider.size("stream.txt"));
+        assertEquals(content, provider.readFile("stream.txt"));
+    }
+
+    @Test
+    public void smallAndUnselectedFiles_areStoredAsTheyAre() throws Exception {
+        String content = config(2_000);
+        provider.createFile("", "small.json");
+        provider.createFile("", "texture.png");
+        provider.writeFile("small.json", "{}");
+        provider.writeFile("texture.png", content);
+
+        assertFalse(provider.isCompressed("small.json"));
+        assertFalse(provider.isCompressed("texture.png"));
+        assertEquals(content.length(), storedSize("texture.png"));
+        assertEquals("{}", provider.readFile("small.json"));
+    }
+
+    @Test
+    public void plainFiles_areReadUntouched() throws Exception {
+        String content = config(100);
+        plain.createFile("", "legacy.json");
+        plain.writeFile("legacy.json", content);
+
+        assertEquals(content, provider.readFile("legacy.json"));
+        assertEquals(content.length(), provider.size("legacy.json"));
+    }
+
+    @Test
+    public void readRange_decompressesUpToTheRange() throws Exception {
+        String content = config(2_000);
+        provider.createFile("", "config.json");
+        provider.writeFile("config.json", content);
+
+        ByteBuffer range = provider.readRange("config.json", 10_000, 100);
+        byte[] bytes = new byte[range.remaining()];
+        range.get(bytes);
+
+        assertEquals(content.substring(10_000, 10_100), new String(bytes, UTF_8));
+    }
+
+    @Test
+    public void batchWrites_areCompressed() throws Exception {
+        String content = config(2_000);
+
+        FileBatch.BatchResult result = provider.batch()
+                .createFile("", "batched.json")
+                .writeFile("batched.json", content)
+                .apply();
+
+        assertTrue(result.isSuccessful());
+        assertTrue(provider.isCompressed("batched.json"));
+        assertEquals(content, provider.readFile("batched.json"));
+    }
+}
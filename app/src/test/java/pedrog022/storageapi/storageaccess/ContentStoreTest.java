@@ -0,0 +1,155 @@
+package pedrog022.storageapi.storageaccess;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class ContentStoreTest {
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private StorageAccess.KitKatFiles provider;
+    private byte[] texture;
+
+    @Before
+    public void setUp() throws Exception {
+        provider = new StorageAccess.KitKatFiles(temporaryFolder.getRoot());
+        provider.createFolder("packs");
+
+        texture = new byte[100_000];
+        new Random(7).nextBytes(texture);
+    }
+
+    private String[] objects() {
+        return new File(temporaryFolder.getRoot(), "packs/.objects").list((folder, name) -> !name.equals("index"));
+    }
+
+    @Test
+    public void duplicateContent_isStoredOnce() throws Exception {
+        ContentStore store = ContentStore.open(provider, "packs", "SHA-256");
+
+        String first = store.put("a/texture.png", new ByteArrayInputStream(texture));
+        String second = store.put("b/texture.png", new ByteArrayInputStream(texture));
+        store.put("b/other.png", "other".getBytes("UTF-8"));
+
+        assertEquals(first, second);
+        assertEquals(2, objects().length);
+        assertEquals(texture.length + 5, store.getBytesWritten());
+        assertEquals(texture.length, store.getBytesDeduplicated());
+        assertArrayEquals(texture, Files.readAllBytes(new File(temporaryFolder.getRoot(), store.blobPath("b/texture.png")).toPath()));
+    }
+
+    @Test
+    public void importFile_onlyCopiesNewContent() throws Exception {
+        provider.createFile("", "source.png");
+        provider.writeFile("source.png", texture, new WriteOptions());
+        ContentStore store = ContentStore.open(provider, "packs", "SHA-256");
+
+        store.importFile("source.png", "a/texture.png");
+        store.importFile("source.png", "b/texture.png");
+        store.copy("a/texture.png", "c/texture.png");
+
+        assertEquals(1, objects().length);
+        assertEquals(texture.length, store.getBytesWritten());
+        assertEquals(2L * texture.length, store.getBytesDeduplicated());
+    }
+
+    @Test
+    public void flushedIndex_isReadBack() throws Exception {
+        ContentStore store = ContentStore.open(provider, "packs", "SHA-256");
+        String hash = store.put("a/texture.png", texture);
+        store.put("a/other.png", "other".getBytes("UTF-8"));
+        store.copy("a/texture.png", "b/texture.png");
+        store.flush();
+
+        ContentStore reopened = ContentStore.open(provider, "packs", "SHA-256");
+
+        assertEquals(Arrays.asList("a/other.png", "a/texture.png", "b/texture.png"), reopened.list());
+        assertEquals(hash, reopened.hashOf("b/texture.png"));
+
+        reopened.materialize("b/texture.png", "texture.png");
+        assertArrayEquals(texture, Files.readAllBytes(new File(temporaryFolder.getRoot(), "texture.png").toPath()));
+    }
+
+    @Test
+    public void lastReference_deletesTheBlob() throws Exception {
+        ContentStore store = ContentStore.open(provider, "packs", "SHA-256");
+        store.put("a/texture.png", texture);
+        store.copy("a/texture.png", "b/texture.png");
+
+        store.remove("a/texture.png");
+        assertEquals(1, objects().length);
+
+        store.remove("b/texture.png");
+        assertEquals(1, objects().length);
+
+        //The blob outlives its last path until the index without it is written
+        store.flush();
+        assertEquals(0, objects().length);
+
+        try {
+            store.open("b/texture.png");
+            fail();
+        } catch (FileNotFoundException expected) {
+        }
+    }
+
+    @Test
+    public void prune_removesUnreferencedBlobs() throws Exception {
+        ContentStore store = ContentStore.open(provider, "packs", "SHA-256");
+        store.put("a/texture.png", texture);
+        store.put("a/other.png", "other".getBytes("UTF-8"));
+
+        //Never flushed, so the reopened store doesn't know these blobs
+        ContentStore reopened = ContentStore.open(provider, "packs", "SHA-256");
+        provider.createFile("packs/.objects", ".incoming-1-1");
+
+        assertEquals(3, reopened.prune());
+        assertEquals(0, objects().length);
+    }
+
+    @Test
+    public void prune_onlyDeletesFilesOfTheStore() throws Exception {
+        ContentStore store = ContentStore.open(provider, "packs", "SHA-256");
+        String hash = store.put("a/texture.png", texture);
+        store.flush();
+
+        provider.createFile("packs/.objects", ".index-123.tmp");
+        provider.createFile("packs/.objects", "index.atomic");
+        provider.createFile("packs/.objects", ".nomedia");
+        provider.createFile("packs/.objects", "index-notes.txt");
+
+        assertEquals(2, store.prune());
+        assertEquals(Arrays.asList(".nomedia", hash, "index-notes.txt"), sorted(objects()));
+    }
+
+    @Test
+    public void replacedBlob_survivesUntilFlush() throws Exception {
+        ContentStore store = ContentStore.open(provider, "packs", "SHA-256");
+        String first = store.put("a/texture.png", texture);
+        store.flush();
+
+        store.put("a/texture.png", "other".getBytes("UTF-8"));
+        ContentStore reopened = ContentStore.open(provider, "packs", "SHA-256");
+        assertArrayEquals(texture, Files.readAllBytes(new File(temporaryFolder.getRoot(), reopened.blobPath("a/texture.png")).toPath()));
+
+        store.flush();
+        assertFalse(new File(temporaryFolder.getRoot(), "packs/.objects/" + first).exists());
+    }
+
+    private static List<String> sorted(String[] names) {
+        Arrays.sort(names);
+        return Arrays.asList(names);
+    }
+}
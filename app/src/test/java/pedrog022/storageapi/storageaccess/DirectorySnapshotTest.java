@@ -0,0 +1,95 @@
+package pedrog022.storageapi.storageaccess;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.file.Files;
+
+import static org.junit.Assert.*;
+
+public class DirectorySnapshotTest {
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private StorageMetrics metrics;
+    private FileProvider provider;
+
+    @Before
+    public void setUp() throws Exception {
+        metrics = new StorageMetrics();
+        provider = new InstrumentedFileProvider(new StorageAccess.KitKatFiles(temporaryFolder.getRoot()), metrics);
+
+        write("assets/a.txt", "alpha");
+        write("assets/b.txt", "beta");
+        write("assets/textures/c.png", "gamma");
+        write("assets/textures/d.png", "delta");
+    }
+
+    private File write(String path, String content) throws Exception {
+        File file = new File(temporaryFolder.getRoot(), path);
+        file.getParentFile().mkdirs();
+        Files.write(file.toPath(), content.getBytes("UTF-8"));
+        return file;
+    }
+
+    private long hashedFiles() {
+        StorageMetrics.OperationSnapshot reads = metrics.snapshot().getOperation("KitKatFiles", "readChunks");
+        return reads == null ? 0 : reads.getCalls();
+    }
+
+    @Test
+    public void firstComparison_reportsEverythingAsAdded() throws Exception {
+        DirectorySnapshot.Diff diff = new DirectorySnapshot("assets", "SHA-256").compare(provider, new TreeOptions(2));
+
+        assertEquals("[a.txt, b.txt, textures/c.png, textures/d.png]", diff.getAdded().toString());
+        assertTrue(diff.getRemoved().isEmpty());
+        assertTrue(diff.getModified().isEmpty());
+        assertEquals(4, hashedFiles());
+    }
+
+    @Test
+    public void laterComparison_onlyHashesChangedMetadata() throws Exception {
+        DirectorySnapshot snapshot = new DirectorySnapshot("assets", "SHA-256").compare(provider, new TreeOptions(2)).getSnapshot();
+        snapshot.write(provider, "assets.index");
+        metrics.reset();
+
+        write("assets/a.txt", "alpha, longer");
+        File touched = new File(temporaryFolder.getRoot(), "assets/b.txt");
+        touched.setLastModified(touched.lastModified() - 10_000);
+        new File(temporaryFolder.getRoot(), "assets/textures/c.png").delete();
+        write("assets/textures/e.png", "epsilon");
+
+        DirectorySnapshot.Diff diff = DirectorySnapshot.read(provider, "assets.index").compare(provider, new TreeOptions(2));
+
+        assertEquals("[textures/e.png]", diff.getAdded().toString());
+        assertEquals("[textures/c.png]", diff.getRemoved().toString());
+        assertEquals("[a.txt]", diff.getModified().toString());
+        assertEquals(3, hashedFiles());
+
+        DirectorySnapshot.Diff unchanged = diff.getSnapshot().compare(provider, new TreeOptions(2));
+        assertTrue(unchanged.isEmpty());
+        assertEquals(3, hashedFiles());
+    }
+
+    @Test
+    public void index_roundTripsEveryEntry() throws Exception {
+        DirectorySnapshot snapshot = new DirectorySnapshot("assets/", null).compare(provider, new TreeOptions(1)).getSnapshot();
+        snapshot.write(provider, "assets.index");
+
+        DirectorySnapshot read = DirectorySnapshot.read(provider, "assets.index");
+
+        assertEquals("assets", read.getFolderPath());
+        assertNull(read.getHashAlgorithm());
+        assertEquals(4, read.size());
+
+        for (DirectorySnapshot.Entry entry : snapshot.getEntries()) {
+            DirectorySnapshot.Entry copy = read.get(entry.getPath());
+            assertEquals(entry.getSize(), copy.getSize());
+            assertEquals(entry.getLastModified(), copy.getLastModified());
+            assertNull(copy.getHash());
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package pedrog022.storageapi.storageaccess;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class DocumentCacheTest {
+    @Test
+    public void leastRecentlyUsed_isEvicted() {
+        DocumentCache<String> cache = new DocumentCache<>(2, 60_000);
+
+        cache.put("a", "A");
+        cache.put("b", "B");
+        cache.get("a");
+        cache.put("c", "C");
+
+        assertEquals("A", cache.get("a"));
+        assertNull(cache.get("b"));
+        assertEquals("C", cache.get("c"));
+    }
+
+    @Test
+    public void expiredEntries_areMisses() throws Exception {
+        DocumentCache<String> cache = new DocumentCache<>(16, 1);
+
+        cache.put("a", "A");
+        Thread.sleep(5);
+
+        assertNull(cache.get("a"));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void invalidateTree_removesDescendantsOnly() {
+        DocumentCache<String> cache = new DocumentCache<>(16, 60_000);
+
+        cache.put("root/folder", "folder");
+        cache.put("root/folder/file", "file");
+        cache.put("root/folder2", "sibling");
+
+        cache.invalidateTree("root/folder");
+
+        assertNull(cache.get("root/folder"));
+        assertNull(cache.get("root/folder/file"));
+        assertEquals("sibling", cache.get("root/folder2"));
+    }
+}
@@ -0,0 +1,276 @@
+package pedrog022.storageapi.storageaccess;
+
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class DownloadCacheTest {
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private HttpServer server;
+    private ExecutorService serverThreads;
+    private IoScheduler scheduler;
+    private DownloadCache cache;
+    private DownloadCache.Store store;
+    private StorageAccess.KitKatFiles provider;
+
+    private final AtomicInteger transfers = new AtomicInteger();
+    private volatile String version = "v1";
+    private volatile CountDownLatch gate = new CountDownLatch(0);
+
+    @Before
+    public void setUp() throws Exception {
+        serverThreads = Executors.newCachedThreadPool();
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.setExecutor(serverThreads);
+        server.createContext("/asset.txt", exchange -> {
+            String etag = "\"" + version + "\"";
+            exchange.getResponseHeaders().add("ETag", etag);
+
+            if (etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                exchange.sendResponseHeaders(304, -1);
+                exchange.close();
+                return;
+            }
+
+            try {
+                gate.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException ignored) {
+            }
+
+            byte[] body = ("content " + version).getBytes("UTF-8");
+            transfers.incrementAndGet();
+            exchange.sendResponseHeaders(200, body.length);
+
+            try (OutputStream output = exchange.getResponseBody()) {
+                output.write(body);
+            }
+        });
+        server.createContext("/other.txt", exchange -> {
+            try {
+                gate.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException ignored) {
+            }
+
+            byte[] body = ("other " + version).getBytes("UTF-8");
+            transfers.incrementAndGet();
+            exchange.sendResponseHeaders(200, body.length);
+
+            try (OutputStream output = exchange.getResponseBody()) {
+                output.write(body);
+            }
+        });
+        server.start();
+
+        HashMap<String, DownloadCache.Entry> entries = new HashMap<>();
+        store = new DownloadCache.Store() {
+            @Override
+            public synchronized DownloadCache.Entry get(String destinationPath) {
+                return entries.get(destinationPath);
+            }
+
+            @Override
+            public synchronized void put(String destinationPath, DownloadCache.Entry entry) {
+                entries.put(destinationPath, entry);
+            }
+
+            @Override
+            public synchronized void remove(String destinationPath) {
+                entries.remove(destinationPath);
+            }
+        };
+
+        scheduler = new IoScheduler(4, 4, 16, IoScheduler.BackpressurePolicy.BLOCK);
+        cache = new DownloadCache(store, new DownloadEngine(), scheduler);
+        provider = new StorageAccess.KitKatFiles(temporaryFolder.getRoot());
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+        serverThreads.shutdownNow();
+        scheduler.shutdownNow();
+    }
+
+    private String url() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/asset.txt";
+    }
+
+    private String url(String path) {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + path;
+    }
+
+    private String content() throws Exception {
+        return new String(Files.readAllBytes(new File(temporaryFolder.getRoot(), "asset.txt").toPath()), "UTF-8");
+    }
+
+    @Test
+    public void unchangedFile_isRevalidatedWithoutTransfer() throws Exception {
+        assertTrue(cache.download(provider, url(), "asset.txt", null).get(5, TimeUnit.SECONDS));
+        assertFalse(cache.download(provider, url(), "asset.txt", null).get(5, TimeUnit.SECONDS));
+
+        assertEquals(1, transfers.get());
+        assertEquals("content v1", content());
+    }
+
+    @Test
+    public void changedFile_isDownloadedAgain() throws Exception {
+        cache.download(provider, url(), "asset.txt", null).get(5, TimeUnit.SECONDS);
+        version = "v2";
+
+        assertTrue(cache.download(provider, url(), "asset.txt", null).get(5, TimeUnit.SECONDS));
+        assertEquals(2, transfers.get());
+        assertEquals("content v2", content());
+    }
+
+    @Test
+    public void concurrentRequests_shareOneTransfer() throws Exception {
+        gate = new CountDownLatch(1);
+        AtomicInteger completions = new AtomicInteger();
+        DownloadCache.Callback callback = new DownloadCache.Callback() {
+            @Override
+            public void onComplete(boolean transferred) {
+                completions.incrementAndGet();
+            }
+
+            @Override
+            public void onError(Exception e) {
+            }
+        };
+
+        Future<Boolean> first = cache.download(provider, url(), "asset.txt", callback);
+        Future<Boolean> second = cache.download(provider, url(), "asset.txt", callback);
+        gate.countDown();
+
+        assertSame(first, second);
+        assertTrue(first.get(5, TimeUnit.SECONDS));
+        assertEquals(1, transfers.get());
+        assertEquals(2, completions.get());
+    }
+
+    @Test
+    public void blockedSubmitter_doesNotStallRunningTransfers() throws Exception {
+        IoScheduler single = new IoScheduler(1, 1, 1, IoScheduler.BackpressurePolicy.BLOCK);
+        DownloadCache blocking = new DownloadCache(store, new DownloadEngine(), single);
+        ExecutorService submitter = Executors.newSingleThreadExecutor();
+        gate = new CountDownLatch(1);
+
+        try {
+            Future<Boolean> first = blocking.download(provider, url(), "first.txt", null);
+            //Waits for the only pending slot
+            Future<Future<Boolean>> second = submitter.submit(() -> blocking.download(provider, url(), "second.txt", null));
+
+            Thread.sleep(100);
+            gate.countDown();
+
+            assertTrue(first.get(5, TimeUnit.SECONDS));
+            assertTrue(second.get(5, TimeUnit.SECONDS).get(5, TimeUnit.SECONDS));
+        } finally {
+            submitter.shutdownNow();
+            single.shutdownNow();
+        }
+    }
+
+    @Test
+    public void cancelledQueuedDownload_releasesItsEntry() throws Exception {
+        IoScheduler single = new IoScheduler(1, 1, 16, IoScheduler.BackpressurePolicy.REJECT);
+        DownloadCache queued = new DownloadCache(store, new DownloadEngine(), single);
+        gate = new CountDownLatch(1);
+
+        try {
+            Future<Boolean> running = queued.download(provider, url(), "first.txt", null);
+            Future<Boolean> cancelled = queued.download(provider, url(), "second.txt", null);
+            assertTrue(cancelled.cancel(false));
+
+            Future<Boolean> retried = queued.download(provider, url(), "second.txt", null);
+            assertNotSame(cancelled, retried);
+
+            gate.countDown();
+            assertTrue(running.get(5, TimeUnit.SECONDS));
+            assertTrue(retried.get(5, TimeUnit.SECONDS));
+        } finally {
+            single.shutdownNow();
+        }
+    }
+
+    @Test
+    public void truncatedTransfer_keepsThePreviousCopy() throws Exception {
+        cache.download(provider, url(), "asset.txt", null).get(5, TimeUnit.SECONDS);
+
+        //Sends half of the announced length, then drops the connection
+        try (ServerSocket truncating = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            Thread serving = new Thread(() -> {
+                try (Socket socket = truncating.accept()) {
+                    BufferedReader request = new BufferedReader(new InputStreamReader(socket.getInputStream(), "US-ASCII"));
+                    String line;
+
+                    while ((line = request.readLine()) != null && !line.isEmpty()) ;
+
+                    OutputStream output = socket.getOutputStream();
+                    output.write(("HTTP/1.1 200 OK\r\nETag: \"cut\"\r\nContent-Length: 1000000\r\n\r\n").getBytes("US-ASCII"));
+                    output.write(new byte[500_000]);
+                    output.flush();
+                } catch (IOException ignored) {
+                }
+            });
+            serving.start();
+
+            String truncatedUrl = "http://127.0.0.1:" + truncating.getLocalPort() + "/asset.txt";
+
+            try {
+                cache.download(provider, truncatedUrl, "asset.txt", null).get(10, TimeUnit.SECONDS);
+                fail();
+            } catch (ExecutionException expected) {
+                assertTrue(expected.getCause() instanceof IOException);
+            }
+
+            serving.join();
+        }
+
+        assertNull(store.get("asset.txt"));
+        assertEquals("content v1", content());
+        assertArrayEquals(new String[]{"asset.txt"}, temporaryFolder.getRoot().list());
+    }
+
+    @Test
+    public void differentUrls_forOneDestination_doNotShareTheTemporaryFile() throws Exception {
+        gate = new CountDownLatch(1);
+
+        Future<Boolean> first = cache.download(provider, url(), "asset.txt", null);
+        Future<Boolean> second = cache.download(provider, url("/other.txt"), "asset.txt", null);
+        assertNotSame(first, second);
+        gate.countDown();
+
+        assertTrue(first.get(5, TimeUnit.SECONDS));
+        assertTrue(second.get(5, TimeUnit.SECONDS));
+        assertEquals(2, transfers.get());
+        assertTrue(content().equals("content v1") || content().equals("other v1"));
+        assertArrayEquals(new String[]{"asset.txt"}, temporaryFolder.getRoot().list());
+    }
+}
@@ -0,0 +1,160 @@
+package pedrog022.storageapi.storageaccess;
+
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+public class DownloadEngineTest {
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private HttpServer server;
+    private byte[] payload;
+
+    @Before
+    public void startServer() throws Exception {
+        payload = new byte[3 * 1024 * 1024 + 17];
+        new Random(42).nextBytes(payload);
+
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/blob.bin", exchange -> {
+            exchange.getResponseHeaders().add("Content-Type", "application/octet-stream");
+            exchange.sendResponseHeaders(200, payload.length);
+
+            try (OutputStream body = exchange.getResponseBody()) {
+                body.write(payload);
+            }
+        });
+        server.start();
+    }
+
+    @After
+    public void stopServer() {
+        server.stop(0);
+    }
+
+    private String url(String path) {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + path;
+    }
+
+    @Test
+    public void download_isByteExact() throws Exception {
+        File target = temporaryFolder.newFile("blob.bin");
+        DownloadEngine engine = new DownloadEngine(8 * 1024);
+
+        long written;
+        try (FileChannel channel = new FileOutputStream(target).getChannel()) {
+            written = engine.download(url("/blob.bin"), channel, null);
+        }
+
+        assertEquals(payload.length, written);
+        assertArrayEquals(payload, Files.readAllBytes(target.toPath()));
+    }
+
+    @Test
+    public void download_reportsFinalProgress() throws Exception {
+        File target = temporaryFolder.newFile("progress.bin");
+        AtomicLong lastTransferred = new AtomicLong();
+        AtomicLong lastTotal = new AtomicLong();
+
+        try (FileChannel channel = new FileOutputStream(target).getChannel()) {
+            new DownloadEngine().download(url("/blob.bin"), channel, (bytesTransferred, totalBytes, bytesPerSecond) -> {
+                assertTrue(bytesPerSecond >= 0);
+                lastTransferred.set(bytesTransferred);
+                lastTotal.set(totalBytes);
+            });
+        }
+
+        assertEquals(payload.length, lastTransferred.get());
+        assertEquals(payload.length, lastTotal.get());
+    }
+
+    @Test
+    public void truncatedBody_fails() throws Exception {
+        File target = temporaryFolder.newFile("short.bin");
+
+        //Announces the whole payload but drops the connection halfway
+        try (ServerSocket shortServer = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            Thread serving = new Thread(() -> {
+                try (Socket socket = shortServer.accept()) {
+                    BufferedReader request = new BufferedReader(new InputStreamReader(socket.getInputStream(), "US-ASCII"));
+                    String line;
+
+                    while ((line = request.readLine()) != null && !line.isEmpty()) ;
+
+                    OutputStream output = socket.getOutputStream();
+                    output.write(("HTTP/1.1 200 OK\r\nContent-Type: application/octet-stream\r\nContent-Length: "
+                            + payload.length + "\r\n\r\n").getBytes("US-ASCII"));
+                    output.write(payload, 0, payload.length / 2);
+                    output.flush();
+                } catch (IOException ignored) {
+                }
+            });
+            serving.start();
+
+            try (FileChannel channel = new FileOutputStream(target).getChannel()) {
+                new DownloadEngine().download("http://127.0.0.1:" + shortServer.getLocalPort() + "/short.bin", channel, null);
+                fail();
+            } catch (IOException expected) {
+                assertFalse(expected instanceof InterruptedIOException);
+            }
+
+            serving.join();
+        }
+    }
+
+    @Test
+    public void interruptedDownload_isCancelledInsteadOfCut() throws Exception {
+        //Interrupted after the first buffer, jsoup alone would end the body there
+        WritableByteChannel interrupting = new WritableByteChannel() {
+            @Override
+            public int write(ByteBuffer src) {
+                int length = src.remaining();
+                src.position(src.limit());
+                Thread.currentThread().interrupt();
+                return length;
+            }
+
+            @Override
+            public boolean isOpen() {
+                return true;
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+
+        try {
+            new DownloadEngine(8 * 1024).download(url("/blob.bin"), interrupting, null);
+            fail();
+        } catch (InterruptedIOException expected) {
+        } finally {
+            Thread.interrupted();
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package pedrog022.storageapi.storageaccess;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.file.Files;
+
+import static org.junit.Assert.*;
+
+public class FileBatchTest {
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void batch_appliesOperationsInOrder() throws Exception {
+        StorageAccess.KitKatFiles provider = new StorageAccess.KitKatFiles(temporaryFolder.getRoot());
+
+        FileBatch batch = provider.batch()
+                .createFolder("pack")
+                .createFile("pack", "a.txt")
+                .writeFile("pack/a.txt", "first")
+                .createFile("pack", "b.txt")
+                .renameFile("pack/b.txt", "c.txt")
+                .deleteFile("pack/missing.txt");
+
+        FileBatch.BatchResult result = batch.apply();
+
+        assertEquals(batch.size(), result.getResults().size());
+        assertEquals(1, result.getFailures().size());
+        assertEquals(FileBatch.Type.DELETE, result.getFailures().get(0).getOperation().getType());
+
+        File pack = new File(temporaryFolder.getRoot(), "pack");
+        assertEquals("first", new String(Files.readAllBytes(new File(pack, "a.txt").toPath()), "UTF-8"));
+        assertTrue(new File(pack, "c.txt").exists());
+        assertFalse(new File(pack, "b.txt").exists());
+
+        //create + write of a.txt open a single stream, every other operation is one call
+        assertEquals(5, result.getProviderCalls());
+    }
+
+    @Test
+    public void mergedCreateAndWrite_doesNotCreateMissingFolders() throws Exception {
+        StorageAccess.KitKatFiles provider = new StorageAccess.KitKatFiles(temporaryFolder.getRoot());
+
+        FileBatch.BatchResult result = provider.batch()
+                .createFile("missing", "a.txt")
+                .writeFile("missing/a.txt", "first")
+                .apply();
+
+        assertEquals(2, result.getFailures().size());
+        assertFalse(new File(temporaryFolder.getRoot(), "missing").exists());
+    }
+
+    @Test
+    public void createAndWrite_ofAnExistingFile_behavesLikeSeparateCalls() throws Exception {
+        StorageAccess.KitKatFiles provider = new StorageAccess.KitKatFiles(temporaryFolder.getRoot());
+        provider.createFile("", "a.txt");
+
+        FileBatch.BatchResult result = provider.batch()
+                .createFile("", "a.txt")
+                .writeFile("a.txt", "replaced")
+                .apply();
+
+        assertEquals(1, result.getFailures().size());
+        assertEquals(FileBatch.Type.CREATE_FILE, result.getFailures().get(0).getOperation().getType());
+        assertEquals("replaced", provider.readFile("a.txt"));
+        assertEquals(2, result.getProviderCalls());
+    }
+}
@@ -0,0 +1,52 @@
+package pedrog022.storageapi.storageaccess;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class GrantIndexTest {
+    @Test
+    public void grant_coversItsSubtreeOnly() {
+        GrantIndex index = new GrantIndex();
+        index.add("Android/media", null);
+
+        assertTrue(index.isGranted("Android/media"));
+        assertTrue(index.isGranted("/Android/media/com.app/files/"));
+        assertFalse(index.isGranted("Android"));
+        assertFalse(index.isGranted("Android/data"));
+        assertFalse(index.isGranted("Android/mediaX"));
+    }
+
+    @Test
+    public void nearestGrant_isTheDeepestRoot() {
+        GrantIndex index = new GrantIndex();
+        index.add("Android", null);
+        index.add("Android/data/com.app", null);
+
+        GrantIndex.Grant grant = index.nearestGrant("Android/data/com.app/files/a.txt");
+        assertEquals("Android/data/com.app", grant.getPath());
+        assertEquals("files/a.txt", grant.relativize("Android/data/com.app/files/a.txt"));
+        assertEquals("", grant.relativize("Android/data/com.app"));
+
+        assertEquals("Android", index.nearestGrant("Android/data/other").getPath());
+        assertNull(index.nearestGrant("Download"));
+    }
+
+    @Test
+    public void wholeStorageGrant_coversEverything() {
+        GrantIndex index = new GrantIndex();
+        index.add("", null);
+
+        assertTrue(index.isGranted("Download/file.bin"));
+        assertEquals("Download/file.bin", index.nearestGrant("Download/file.bin").relativize("Download/file.bin"));
+    }
+
+    @Test
+    public void pathOf_parsesPrimaryTreeUris() {
+        assertEquals("Android/media", GrantIndex.pathOf("/tree/primary:Android/media"));
+        assertEquals("Android", GrantIndex.pathOf("/tree/primary:Android/document/primary:Android/data"));
+        assertEquals("", GrantIndex.pathOf("/tree/primary:"));
+        assertNull(GrantIndex.pathOf("/tree/1234-5678:Music"));
+        assertNull(GrantIndex.pathOf(null));
+    }
+}
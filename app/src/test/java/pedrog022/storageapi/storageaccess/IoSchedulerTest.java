@@ -0,0 +1,154 @@
+package pedrog022.storageapi.storageaccess;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class IoSchedulerTest {
+    private IoScheduler scheduler;
+
+    @After
+    public void shutdown() {
+        if (scheduler != null)
+            scheduler.shutdownNow();
+    }
+
+    @Test
+    public void perKeyLimit_isRespected() throws Exception {
+        scheduler = new IoScheduler(8, 2, 64, IoScheduler.BackpressurePolicy.BLOCK);
+
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger peak = new AtomicInteger();
+        List<Future<Void>> tasks = new ArrayList<>();
+
+        for (int i = 0; i < 20; i++) {
+            tasks.add(scheduler.submit("example.com", IoScheduler.PRIORITY_NORMAL, () -> {
+                peak.accumulateAndGet(running.incrementAndGet(), Math::max);
+                Thread.sleep(5);
+                running.decrementAndGet();
+                return null;
+            }));
+        }
+
+        for (Future<Void> task : tasks)
+            task.get(5, TimeUnit.SECONDS);
+
+        assertTrue(peak.get() <= 2);
+    }
+
+    @Test
+    public void higherPriority_runsFirstWithinABusyKey() throws Exception {
+        scheduler = new IoScheduler(4, 1, 64, IoScheduler.BackpressurePolicy.BLOCK);
+
+        CountDownLatch gate = new CountDownLatch(1);
+        List<Integer> order = Collections.synchronizedList(new ArrayList<>());
+
+        scheduler.submit("example.com", IoScheduler.PRIORITY_NORMAL, () -> {
+            gate.await();
+            return null;
+        });
+
+        Future<Void> low = scheduler.submit("example.com", IoScheduler.PRIORITY_LOW, () -> {
+            order.add(IoScheduler.PRIORITY_LOW);
+            return null;
+        });
+        Future<Void> high = scheduler.submit("example.com", IoScheduler.PRIORITY_HIGH, () -> {
+            order.add(IoScheduler.PRIORITY_HIGH);
+            return null;
+        });
+
+        gate.countDown();
+        low.get(5, TimeUnit.SECONDS);
+        high.get(5, TimeUnit.SECONDS);
+
+        assertEquals(Arrays.asList(IoScheduler.PRIORITY_HIGH, IoScheduler.PRIORITY_LOW), order);
+    }
+
+    @Test
+    public void higherPriority_runsFirst() throws Exception {
+        scheduler = new IoScheduler(1, 1, 64, IoScheduler.BackpressurePolicy.BLOCK);
+
+        CountDownLatch gate = new CountDownLatch(1);
+        List<Integer> order = Collections.synchronizedList(new ArrayList<>());
+
+        scheduler.submit(() -> {
+            gate.await();
+            return null;
+        });
+
+        scheduler.submit(null, IoScheduler.PRIORITY_LOW, () -> order.add(IoScheduler.PRIORITY_LOW));
+        Future<Boolean> last = scheduler.submit(null, IoScheduler.PRIORITY_HIGH,
+                () -> order.add(IoScheduler.PRIORITY_HIGH));
+
+        gate.countDown();
+        last.get(5, TimeUnit.SECONDS);
+        scheduler.shutdown();
+        scheduler.awaitTermination(5, TimeUnit.SECONDS);
+
+        assertEquals(IoScheduler.PRIORITY_HIGH, (int) order.get(0));
+        assertEquals(IoScheduler.PRIORITY_LOW, (int) order.get(1));
+    }
+
+    @Test(expected = RejectedExecutionException.class)
+    public void rejectPolicy_throwsWhenFull() throws Exception {
+        scheduler = new IoScheduler(1, 1, 1, IoScheduler.BackpressurePolicy.REJECT);
+        CountDownLatch gate = new CountDownLatch(1);
+
+        scheduler.submit(() -> {
+            gate.await();
+            return null;
+        });
+
+        try {
+            scheduler.submit(() -> null);
+        } finally {
+            gate.countDown();
+        }
+    }
+
+    @Test(expected = RejectedExecutionException.class)
+    public void defaultScheduler_rejectsInsteadOfBlocking() throws Exception {
+        scheduler = new IoScheduler();
+        CountDownLatch gate = new CountDownLatch(1);
+
+        try {
+            for (int i = 0; i <= 256; i++) {
+                scheduler.submit(() -> {
+                    gate.await();
+                    return null;
+                });
+            }
+        } finally {
+            gate.countDown();
+        }
+    }
+
+    @Test(expected = CancellationException.class)
+    public void waitingTask_canBeCancelled() throws Exception {
+        scheduler = new IoScheduler(2, 1, 64, IoScheduler.BackpressurePolicy.BLOCK);
+        CountDownLatch gate = new CountDownLatch(1);
+
+        scheduler.submit("host", IoScheduler.PRIORITY_NORMAL, () -> {
+            gate.await();
+            return null;
+        });
+
+        Future<Object> waiting = scheduler.submit("host", IoScheduler.PRIORITY_NORMAL, () -> null);
+        assertTrue(waiting.cancel(true));
+        gate.countDown();
+
+        waiting.get();
+    }
+}
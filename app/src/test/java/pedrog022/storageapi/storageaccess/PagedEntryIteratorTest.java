@@ -0,0 +1,72 @@
+package pedrog022.storageapi.storageaccess;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+
+import static org.junit.Assert.*;
+
+public class PagedEntryIteratorTest {
+    private static class CountingIterator extends PagedEntryIterator {
+        private final int total;
+        private int produced;
+        private int pagesLoaded;
+        private boolean released;
+
+        CountingIterator(int total, int pageSize) {
+            super(pageSize);
+            this.total = total;
+        }
+
+        @Override
+        protected boolean fillPage(ArrayList<FileEntry> page, int pageSize) {
+            pagesLoaded++;
+
+            while (page.size() < pageSize) {
+                if (produced >= total)
+                    return false;
+
+                page.add(new FileEntry("file" + produced++, false, 0, 0, null));
+            }
+
+            return true;
+        }
+
+        @Override
+        protected void release() {
+            released = true;
+        }
+    }
+
+    @Test
+    public void entries_areLoadedOnePageAtATime() {
+        CountingIterator iterator = new CountingIterator(25, 10);
+
+        for (int i = 0; i < 10; i++)
+            assertEquals("file" + i, iterator.next().getName());
+
+        assertEquals(1, iterator.pagesLoaded);
+
+        int remaining = 0;
+        while (iterator.hasNext()) {
+            iterator.next();
+            remaining++;
+        }
+
+        assertEquals(15, remaining);
+        assertEquals(3, iterator.pagesLoaded);
+        assertTrue(iterator.released);
+    }
+
+    @Test
+    public void close_releasesSourceEarly() throws Exception {
+        CountingIterator iterator = new CountingIterator(100, 10);
+
+        iterator.next();
+        iterator.close();
+
+        assertTrue(iterator.released);
+        assertFalse(iterator.hasNext());
+        assertEquals(1, iterator.pagesLoaded);
+    }
+}
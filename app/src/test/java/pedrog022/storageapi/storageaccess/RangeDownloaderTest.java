@@ -0,0 +1,257 @@
+package pedrog022.storageapi.storageaccess;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+public class RangeDownloaderTest {
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private HttpServer server;
+    private ExecutorService serverThreads;
+    private byte[] payload;
+    private StorageAccess.KitKatFiles provider;
+    private IoScheduler scheduler;
+
+    private final AtomicInteger rangeRequests = new AtomicInteger();
+    private final AtomicInteger activeRanges = new AtomicInteger();
+    private final AtomicInteger maxActiveRanges = new AtomicInteger();
+    private final AtomicLong bytesServed = new AtomicLong();
+    private final AtomicBoolean failHalfway = new AtomicBoolean();
+    private final AtomicBoolean stallOnce = new AtomicBoolean();
+    private final AtomicBoolean trickle = new AtomicBoolean();
+
+    @Before
+    public void setUp() throws Exception {
+        payload = new byte[2 * 1024 * 1024 + 123];
+        new Random(3).nextBytes(payload);
+        provider = new StorageAccess.KitKatFiles(temporaryFolder.getRoot());
+        scheduler = new IoScheduler();
+
+        serverThreads = Executors.newCachedThreadPool();
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.setExecutor(serverThreads);
+        server.createContext("/ranged.bin", exchange -> serve(exchange, true));
+        server.createContext("/plain.bin", exchange -> serve(exchange, false));
+        server.start();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+        serverThreads.shutdownNow();
+        scheduler.shutdownNow();
+    }
+
+    private void serve(HttpExchange exchange, boolean ranges) throws IOException {
+        String range = exchange.getRequestHeaders().getFirst("Range");
+        int from = 0;
+        int to = payload.length - 1;
+        int status = 200;
+
+        if (ranges && range != null) {
+            String[] bounds = range.substring("bytes=".length()).split("-");
+            from = Integer.parseInt(bounds[0]);
+            to = Math.min(to, Integer.parseInt(bounds[1]));
+            status = 206;
+
+            exchange.getResponseHeaders().add("Content-Range", "bytes " + from + "-" + to + "/" + payload.length);
+            exchange.getResponseHeaders().add("ETag", "\"v1\"");
+
+            if (to > from) {
+                rangeRequests.incrementAndGet();
+                maxActiveRanges.accumulateAndGet(activeRanges.incrementAndGet(), Math::max);
+            }
+        }
+
+        int length = to - from + 1;
+
+        try {
+            serveRange(exchange, status, from, length);
+        } finally {
+            if (ranges && range != null && to > from)
+                activeRanges.decrementAndGet();
+        }
+    }
+
+    private void serveRange(HttpExchange exchange, int status, int from, int length) throws IOException {
+        exchange.sendResponseHeaders(status, length);
+
+        try (OutputStream body = exchange.getResponseBody()) {
+            if (failHalfway.get() && length > 1) {
+                body.write(payload, from, length / 2);
+                bytesServed.addAndGet(length / 2);
+                body.flush();
+                //Gives the client time to take the first half before the connection drops
+                sleep(300);
+                throw new IOException("Connection dropped");
+            }
+
+            if (length > 1 && stallOnce.compareAndSet(true, false)) {
+                body.write(payload, from, length / 2);
+                body.flush();
+                sleep(5_000);
+                return;
+            }
+
+            if (trickle.get()) {
+                int piece = length / 4 + 1;
+
+                for (int offset = 0; offset < length; offset += piece) {
+                    body.write(payload, from + offset, Math.min(piece, length - offset));
+                    body.flush();
+                    sleep(150);
+                }
+
+                bytesServed.addAndGet(length);
+                return;
+            }
+
+            body.write(payload, from, length);
+            bytesServed.addAndGet(length);
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException ignored) {
+        }
+    }
+
+    private String url(String path) {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + path;
+    }
+
+    private String sha256(byte[] content) throws Exception {
+        return IndexCodec.toHex(MessageDigest.getInstance("SHA-256").digest(content));
+    }
+
+    @Test
+    public void download_fetchesSegmentsInParallel() throws Exception {
+        RangeDownloader.Options options = new RangeDownloader.Options()
+                .setSegments(4)
+                .setChecksum("SHA-256", sha256(payload));
+
+        long size = new RangeDownloader(scheduler).download(provider, url("/ranged.bin"), "ranged.bin", options, null);
+
+        assertEquals(payload.length, size);
+        assertEquals(4, rangeRequests.get());
+        assertArrayEquals(payload, Files.readAllBytes(new File(temporaryFolder.getRoot(), "ranged.bin").toPath()));
+        assertFalse(provider.exists("ranged.bin" + RangeDownloader.JOURNAL_SUFFIX));
+    }
+
+    @Test
+    public void interruptedDownload_resumesFromTheJournal() throws Exception {
+        RangeDownloader.Options options = new RangeDownloader.Options().setSegments(4).setRetries(0);
+        RangeDownloader downloader = new RangeDownloader(scheduler);
+
+        failHalfway.set(true);
+        try {
+            downloader.download(provider, url("/ranged.bin"), "resumed.bin", options, null);
+            fail();
+        } catch (IOException expected) {
+        }
+
+        assertTrue(provider.exists("resumed.bin" + RangeDownloader.JOURNAL_SUFFIX));
+
+        failHalfway.set(false);
+        bytesServed.set(0);
+        downloader.download(provider, url("/ranged.bin"), "resumed.bin", options, null);
+
+        assertTrue(bytesServed.get() < payload.length);
+        assertArrayEquals(payload, Files.readAllBytes(new File(temporaryFolder.getRoot(), "resumed.bin").toPath()));
+        assertFalse(provider.exists("resumed.bin" + RangeDownloader.JOURNAL_SUFFIX));
+    }
+
+    @Test
+    public void segments_shareTheSchedulersHostLimit() throws Exception {
+        IoScheduler oneSlot = new IoScheduler(1, 1, 16, IoScheduler.BackpressurePolicy.REJECT);
+        RangeDownloader.Options options = new RangeDownloader.Options().setSegments(4);
+        String url = url("/ranged.bin");
+
+        try {
+            //The download itself holds the only worker and host slot, its segments must still run
+            oneSlot.submit(DownloadEngine.hostOf(url), IoScheduler.PRIORITY_NORMAL, () ->
+                    new RangeDownloader(oneSlot).download(provider, url, "capped.bin", options, null))
+                    .get(30, TimeUnit.SECONDS);
+        } finally {
+            oneSlot.shutdownNow();
+        }
+
+        assertEquals(4, rangeRequests.get());
+        assertEquals(1, maxActiveRanges.get());
+        assertArrayEquals(payload, Files.readAllBytes(new File(temporaryFolder.getRoot(), "capped.bin").toPath()));
+    }
+
+    @Test
+    public void checksumMismatch_removesTheFile() throws Exception {
+        RangeDownloader.Options options = new RangeDownloader.Options().setChecksum("SHA-256", sha256(new byte[1]));
+
+        try {
+            new RangeDownloader(scheduler).download(provider, url("/ranged.bin"), "corrupt.bin", options, null);
+            fail();
+        } catch (IOException expected) {
+        }
+
+        assertFalse(provider.exists("corrupt.bin"));
+    }
+
+    @Test
+    public void serverWithoutRanges_fallsBackToOneStream() throws Exception {
+        long size = new RangeDownloader(scheduler).download(provider, url("/plain.bin"), "plain.bin",
+                new RangeDownloader.Options(), null);
+
+        assertEquals(payload.length, size);
+        assertEquals(0, rangeRequests.get());
+        assertArrayEquals(payload, Files.readAllBytes(new File(temporaryFolder.getRoot(), "plain.bin").toPath()));
+    }
+
+    @Test
+    public void stalledSegment_timesOutAndIsRetried() throws Exception {
+        RangeDownloader.Options options = new RangeDownloader.Options().setSegments(2).setRetries(2);
+        RangeDownloader downloader = new RangeDownloader(new DownloadEngine(DownloadEngine.DEFAULT_BUFFER_SIZE, 300), scheduler);
+
+        stallOnce.set(true);
+        long start = System.nanoTime();
+        downloader.download(provider, url("/ranged.bin"), "stalled.bin", options, null);
+
+        //The stalled response would only end after 5 seconds
+        assertTrue(System.nanoTime() - start < 3_000_000_000L);
+        assertTrue(rangeRequests.get() > 2);
+        assertArrayEquals(payload, Files.readAllBytes(new File(temporaryFolder.getRoot(), "stalled.bin").toPath()));
+    }
+
+    @Test
+    public void slowTransfer_outlivesTheTimeout() throws Exception {
+        RangeDownloader downloader = new RangeDownloader(new DownloadEngine(DownloadEngine.DEFAULT_BUFFER_SIZE, 400), scheduler);
+
+        trickle.set(true);
+        downloader.download(provider, url("/plain.bin"), "slow.bin", new RangeDownloader.Options(), null);
+
+        assertArrayEquals(payload, Files.readAllBytes(new File(temporaryFolder.getRoot(), "slow.bin").toPath()));
+    }
+}
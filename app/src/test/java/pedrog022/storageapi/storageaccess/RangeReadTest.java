@@ -0,0 +1,54 @@
+package pedrog022.storageapi.storageaccess;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+
+import static org.junit.Assert.*;
+
+public class RangeReadTest {
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private StorageAccess.KitKatFiles provider;
+    private byte[] content;
+
+    @Before
+    public void setUp() throws Exception {
+        provider = new StorageAccess.KitKatFiles(temporaryFolder.getRoot());
+        content = new byte[4096];
+
+        for (int i = 0; i < content.length; i++)
+            content[i] = (byte) i;
+
+        Files.write(new File(temporaryFolder.getRoot(), "archive.zip").toPath(), content);
+    }
+
+    @Test
+    public void readRange_returnsOnlyTheSlice() throws Exception {
+        ByteBuffer slice = provider.readRange("archive.zip", 1000, 16);
+
+        assertEquals(16, slice.remaining());
+        for (int i = 0; i < 16; i++)
+            assertEquals(content[1000 + i], slice.get());
+    }
+
+    @Test
+    public void readRange_isClampedAtTheEnd() throws Exception {
+        assertEquals(96, provider.readRange("archive.zip", 4000, 1024).remaining());
+        assertEquals(0, provider.readRange("archive.zip", 5000, 10).remaining());
+    }
+
+    @Test
+    public void map_exposesTheWholeFile() throws Exception {
+        ByteBuffer mapped = provider.map("archive.zip");
+
+        assertEquals(content.length, mapped.remaining());
+        assertEquals(content[4095], mapped.get(4095));
+    }
+}
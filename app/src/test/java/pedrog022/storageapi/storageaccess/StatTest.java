@@ -0,0 +1,29 @@
+package pedrog022.storageapi.storageaccess;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class StatTest {
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void stat_returnsOnlyExistingPaths() throws Exception {
+        StorageAccess.KitKatFiles provider = new StorageAccess.KitKatFiles(temporaryFolder.getRoot());
+        provider.createFolder("music");
+        provider.createFile("music", "song.txt");
+        provider.writeFile("music/song.txt", "la la la");
+
+        Map<String, FileEntry> entries = provider.stat("music", "music/song.txt", "music/missing.txt");
+
+        assertEquals(2, entries.size());
+        assertTrue(entries.get("music").isDirectory());
+        assertEquals(8, entries.get("music/song.txt").getSize());
+        assertFalse(entries.containsKey("music/missing.txt"));
+    }
+}
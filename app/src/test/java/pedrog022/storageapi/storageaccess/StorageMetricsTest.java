@@ -0,0 +1,151 @@
+package pedrog022.storageapi.storageaccess;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class StorageMetricsTest {
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private StorageMetrics metrics;
+    private FileProvider provider;
+
+    @Before
+    public void setUp() {
+        metrics = new StorageMetrics();
+        provider = new InstrumentedFileProvider(new StorageAccess.KitKatFiles(temporaryFolder.getRoot()), metrics);
+    }
+
+    @Test
+    public void histogram_percentilesStayWithinBucketPrecision() {
+        LatencyHistogram histogram = new LatencyHistogram();
+
+        for (long value = 1; value <= 1000; value++)
+            histogram.record(value * 1000);
+
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+
+        assertEquals(1000, snapshot.getCount());
+        assertEquals(1_000_000, snapshot.getMaxNanos());
+        assertEquals(990_000, snapshot.getPercentileNanos(99), 990_000 * 0.125);
+        assertEquals(500_000, snapshot.getPercentileNanos(50), 500_000 * 0.125);
+        assertEquals(1_000_000, snapshot.getPercentileNanos(100));
+    }
+
+    @Test
+    public void histogram_bucketsCoverEveryValue() {
+        long[] values = {0, 7, 8, 15, 16, 1000, 123_456_789, Long.MAX_VALUE};
+
+        for (long value : values) {
+            int index = LatencyHistogram.indexOf(value);
+            assertTrue(value <= LatencyHistogram.upperBoundOf(index));
+            assertTrue(index == 0 || value > LatencyHistogram.upperBoundOf(index - 1));
+        }
+    }
+
+    @Test
+    public void provider_recordsCallsBytesAndErrors() throws Exception {
+        provider.createFile("", "notes.txt");
+        provider.writeFile("notes.txt", "hello");
+        provider.readFile("notes.txt");
+
+        try (InputStream inputStream = provider.openInputStream("notes.txt")) {
+            while (inputStream.read() != -1) ;
+        }
+
+        try {
+            provider.readFile("missing.txt");
+            fail();
+        } catch (Exception expected) {
+        }
+
+        StorageMetrics.Snapshot snapshot = metrics.snapshot();
+        StorageMetrics.OperationSnapshot read = snapshot.getOperation("KitKatFiles", "readFile");
+
+        assertEquals(2, read.getCalls());
+        assertEquals(1, read.getErrors());
+        assertEquals(0.5, read.getErrorRate(), 0);
+        assertEquals(5, read.getBytes());
+        assertEquals(5, snapshot.getOperation("KitKatFiles", "writeFile").getBytes());
+        assertEquals(5, snapshot.getOperation("KitKatFiles", "inputStream").getBytes());
+        assertEquals(1, snapshot.getOperation("KitKatFiles", "createFile").getLatency().getCount());
+    }
+
+    @Test
+    public void text_countsEncodedBytes() throws Exception {
+        String text = "h\u00e9llo \u20ac \ud83d\ude00";
+        long encoded = text.getBytes("UTF-8").length;
+
+        provider.createFile("", "notes.txt");
+        provider.writeFile("notes.txt", text);
+        provider.readFile("notes.txt");
+        provider.readFile("notes.txt", Charset.forName("UTF-8"));
+
+        StorageMetrics.Snapshot snapshot = metrics.snapshot();
+
+        assertEquals(encoded, snapshot.getOperation("KitKatFiles", "writeFile").getBytes());
+        assertEquals(encoded + encoded, snapshot.getOperation("KitKatFiles", "readFile").getBytes());
+        assertEquals(encoded, InstrumentedFileProvider.encodedLength(text, Charset.forName("UTF-8")));
+    }
+
+    @Test
+    public void lineIterator_countsTheLinesReadThroughIt() throws Exception {
+        provider.createFile("", "lines.txt");
+        provider.writeFile("lines.txt", "first\nsecond \u20ac\nthird\n");
+
+        try (FileProvider.LineIterator lines = provider.lines("lines.txt", Charset.forName("UTF-8"))) {
+            while (lines.hasNext())
+                lines.next();
+        }
+
+        StorageMetrics.Snapshot snapshot = metrics.snapshot();
+        StorageMetrics.OperationSnapshot iterator = snapshot.getOperation("KitKatFiles", "lineIterator");
+
+        assertEquals(1, snapshot.getOperation("KitKatFiles", "lines").getCalls());
+        assertEquals(1, iterator.getCalls());
+        assertEquals("first\nsecond \u20ac\nthird\n".getBytes("UTF-8").length, iterator.getBytes());
+    }
+
+    @Test
+    public void positionalWriteChannel_countsWrittenBytes() throws Exception {
+        provider.createFile("", "data.bin");
+
+        try (FileChannel channel = provider.openPositionalWriteChannel("data.bin")) {
+            channel.write(ByteBuffer.wrap(new byte[100]), 0);
+            channel.write(ByteBuffer.wrap(new byte[20]), 200);
+        }
+
+        StorageMetrics.OperationSnapshot channel = metrics.snapshot().getOperation("KitKatFiles", "positionalWriteChannel");
+
+        assertEquals(1, channel.getCalls());
+        assertEquals(120, channel.getBytes());
+        assertEquals(220, new File(temporaryFolder.getRoot(), "data.bin").length());
+    }
+
+    @Test
+    public void listener_receivesPeriodicSnapshots() throws Exception {
+        CountDownLatch latch = new CountDownLatch(2);
+        StorageMetrics.Listener listener = snapshot -> latch.countDown();
+
+        provider.exists("anything");
+        metrics.addListener(listener, 10);
+
+        try {
+            assertTrue(latch.await(5, TimeUnit.SECONDS));
+        } finally {
+            metrics.removeListener(listener);
+        }
+    }
+}
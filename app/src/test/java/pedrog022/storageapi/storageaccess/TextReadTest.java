@@ -0,0 +1,77 @@
+package pedrog022.storageapi.storageaccess;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+
+import static org.junit.Assert.*;
+
+public class TextReadTest {
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private StorageAccess.KitKatFiles provider;
+
+    @Before
+    public void setUp() {
+        provider = new StorageAccess.KitKatFiles(temporaryFolder.getRoot());
+    }
+
+    private void write(String name, String content, Charset charset) throws Exception {
+        Files.write(new File(temporaryFolder.getRoot(), name).toPath(), content.getBytes(charset));
+    }
+
+    @Test
+    public void readFile_decodesWithTheGivenCharset() throws Exception {
+        Charset latin1 = Charset.forName("ISO-8859-1");
+        write("latin1.txt", "caf\u00e9", latin1);
+
+        assertEquals("caf\u00e9", provider.readFile("latin1.txt", latin1));
+        assertNotEquals("caf\u00e9", provider.readFile("latin1.txt"));
+    }
+
+    @Test
+    public void readFile_handlesMultiByteCharactersAcrossBuffers() throws Exception {
+        StringBuilder content = new StringBuilder();
+
+        for (int i = 0; i < 20000; i++)
+            content.append("a\u00e7\u00e3o\u20ac");
+
+        write("large.txt", content.toString(), FileProvider.DEFAULT_CHARSET);
+
+        assertEquals(content.toString(), provider.readFile("large.txt"));
+    }
+
+    @Test
+    public void forEachLine_splitsOnEveryTerminator() throws Exception {
+        write("config.txt", "a=1\nb=2\r\nc=3\r\nd=4", FileProvider.DEFAULT_CHARSET);
+        ArrayList<String> lines = new ArrayList<>();
+
+        provider.forEachLine("config.txt", FileProvider.DEFAULT_CHARSET, line -> lines.add(line.toString()));
+
+        assertEquals(4, lines.size());
+        assertEquals("b=2", lines.get(1));
+        assertEquals("d=4", lines.get(3));
+    }
+
+    @Test
+    public void lines_iteratesLazily() throws Exception {
+        write("log.txt", "first\n\nthird\n", FileProvider.DEFAULT_CHARSET);
+        ArrayList<String> lines = new ArrayList<>();
+
+        try (FileProvider.LineIterator iterator = provider.lines("log.txt", FileProvider.DEFAULT_CHARSET)) {
+            while (iterator.hasNext())
+                lines.add(iterator.next());
+        }
+
+        assertEquals(3, lines.size());
+        assertEquals("", lines.get(1));
+        assertEquals("third", lines.get(2));
+    }
+}
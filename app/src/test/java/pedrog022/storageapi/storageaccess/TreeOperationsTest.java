@@ -0,0 +1,85 @@
+package pedrog022.storageapi.storageaccess;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+public class TreeOperationsTest {
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private StorageAccess.KitKatFiles provider;
+
+    @Before
+    public void setUp() throws Exception {
+        provider = new StorageAccess.KitKatFiles(temporaryFolder.getRoot());
+
+        for (int folder = 0; folder < 4; folder++) {
+            File nested = temporaryFolder.newFolder("assets", "folder" + folder, "nested");
+
+            for (int file = 0; file < 10; file++) {
+                Files.write(new File(nested, "file" + file + ".bin").toPath(), new byte[100]);
+                Files.write(new File(nested.getParentFile(), "top" + file + ".bin").toPath(), new byte[10]);
+            }
+        }
+    }
+
+    @Test
+    public void computeSize_sumsEveryFile() throws Exception {
+        assertEquals(4 * 10 * 110, provider.computeSize("assets", new TreeOptions(4)));
+        assertEquals(100, provider.computeSize("assets/folder0/nested/file0.bin", new TreeOptions(4)));
+    }
+
+    @Test
+    public void computeSize_ofAFile_doesNotListItsFolder() throws Exception {
+        StorageMetrics metrics = new StorageMetrics();
+        FileProvider instrumented = new InstrumentedFileProvider(provider, metrics);
+
+        assertEquals(100, TreeOperations.computeSize(instrumented, "assets/folder0/nested/file0.bin", new TreeOptions(4)));
+        assertNull(metrics.snapshot().getOperation("KitKatFiles", "listEntries"));
+    }
+
+    @Test
+    public void copyTree_duplicatesStructure() throws Exception {
+        AtomicLong bytes = new AtomicLong();
+        provider.copyTree("assets", "copy", new TreeOptions(4)
+                .setProgressListener((entriesProcessed, bytesProcessed) ->
+                        bytes.accumulateAndGet(bytesProcessed, Math::max)));
+
+        assertTrue(new File(temporaryFolder.getRoot(), "copy/folder3/nested/file9.bin").isFile());
+        assertEquals(provider.computeSize("assets", new TreeOptions()), provider.computeSize("copy", new TreeOptions()));
+        assertEquals(4 * 10 * 110, bytes.get());
+    }
+
+    @Test
+    public void deleteTree_removesEverything() throws Exception {
+        provider.deleteTree("assets", new TreeOptions(4));
+
+        assertFalse(new File(temporaryFolder.getRoot(), "assets").exists());
+    }
+
+    @Test
+    public void cleanFolder_keepsTheFolderItself() throws Exception {
+        provider.cleanFolder("assets", new TreeOptions(4));
+
+        File assets = new File(temporaryFolder.getRoot(), "assets");
+        assertTrue(assets.isDirectory());
+        assertEquals(0, assets.list().length);
+    }
+
+    @Test(expected = CancellationException.class)
+    public void cancelledOperation_throws() throws Exception {
+        TreeOptions options = new TreeOptions(1);
+        options.cancel();
+
+        provider.deleteTree("assets", options);
+    }
+}
@@ -0,0 +1,55 @@
+package pedrog022.storageapi.storageaccess;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+
+import static org.junit.Assert.*;
+
+public class WriteFileTest {
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private StorageAccess.KitKatFiles provider;
+
+    @Before
+    public void setUp() throws Exception {
+        provider = new StorageAccess.KitKatFiles(temporaryFolder.getRoot());
+        provider.createFolder("data");
+        provider.createFile("data", "state.txt");
+        provider.writeFile("data/state.txt", "a much longer first version");
+    }
+
+    @Test
+    public void truncate_leavesNothingOfTheOldContent() throws Exception {
+        provider.writeFile("data/state.txt", "short", new WriteOptions().setSync(true));
+        assertEquals("short", provider.readFile("data/state.txt"));
+    }
+
+    @Test
+    public void append_keepsTheOldContent() throws Exception {
+        provider.writeFile("data/state.txt", "!", new WriteOptions().setMode(WriteOptions.Mode.APPEND));
+        assertEquals("a much longer first version!", provider.readFile("data/state.txt"));
+    }
+
+    @Test
+    public void atomic_replacesWithoutLeavingTemporaryFiles() throws Exception {
+        WriteOptions atomic = new WriteOptions().setMode(WriteOptions.Mode.ATOMIC).setSync(true);
+
+        provider.writeFile("data/state.txt", "second", atomic);
+        provider.writeFile("data/new.txt", "created", atomic);
+
+        assertEquals("second", provider.readFile("data/state.txt"));
+        assertEquals("created", provider.readFile("data/new.txt"));
+        assertEquals(2, new File(temporaryFolder.getRoot(), "data").list().length);
+    }
+
+    @Test(expected = FileNotFoundException.class)
+    public void truncate_requiresAnExistingFile() throws Exception {
+        provider.writeFile("data/missing.txt", "content", new WriteOptions());
+    }
+}
@@ -0,0 +1,204 @@
+package pedrog022.storageapi.benchmark;
+
+import android.Manifest;
+import android.content.Context;
+import android.content.pm.ProviderInfo;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.os.CancellationSignal;
+import android.os.ParcelFileDescriptor;
+import android.provider.DocumentsContract.Document;
+import android.provider.DocumentsContract.Root;
+import android.provider.DocumentsProvider;
+
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+
+//Stand-in for the external storage provider backed by a plain folder, document ids use
+//the same "primary:relative/path" format so QFiles builds its uris exactly like on a device.
+public class FakeDocumentsProvider extends DocumentsProvider {
+    public static final String AUTHORITY = "com.android.externalstorage.documents";
+    private static final String ROOT_ID = "primary";
+
+    private static final String[] ROOT_PROJECTION = new String[]{
+            Root.COLUMN_ROOT_ID, Root.COLUMN_DOCUMENT_ID, Root.COLUMN_TITLE, Root.COLUMN_FLAGS
+    };
+
+    private static final String[] DOCUMENT_PROJECTION = new String[]{
+            Document.COLUMN_DOCUMENT_ID, Document.COLUMN_DISPLAY_NAME, Document.COLUMN_MIME_TYPE,
+            Document.COLUMN_SIZE, Document.COLUMN_LAST_MODIFIED, Document.COLUMN_FLAGS
+    };
+
+    private final File root;
+
+    public FakeDocumentsProvider(File root) {
+        this.root = root;
+    }
+
+    //Providers must be exported and guarded by MANAGE_DOCUMENTS, like the real one
+    public FakeDocumentsProvider attach(Context context) {
+        ProviderInfo info = new ProviderInfo();
+        info.authority = AUTHORITY;
+        info.exported = true;
+        info.grantUriPermissions = true;
+        info.readPermission = Manifest.permission.MANAGE_DOCUMENTS;
+        info.writePermission = Manifest.permission.MANAGE_DOCUMENTS;
+
+        attachInfo(context, info);
+        return this;
+    }
+
+    @Override
+    public boolean onCreate() {
+        return true;
+    }
+
+    private File fileOf(String documentId) throws FileNotFoundException {
+        if (!documentId.startsWith(ROOT_ID + ":"))
+            throw new FileNotFoundException(String.format("Unknown document: %s", documentId));
+
+        File file = new File(root, documentId.substring(ROOT_ID.length() + 1));
+
+        if (!file.exists())
+            throw new FileNotFoundException(String.format("Missing document: %s", documentId));
+
+        return file;
+    }
+
+    private String idOf(File file) {
+        String path = file.getAbsolutePath().substring(root.getAbsolutePath().length());
+
+        if (path.startsWith("/"))
+            path = path.substring(1);
+
+        return ROOT_ID + ":" + path;
+    }
+
+    private void addRow(MatrixCursor cursor, File file) {
+        int flags = Document.FLAG_SUPPORTS_DELETE | Document.FLAG_SUPPORTS_RENAME
+                | Document.FLAG_SUPPORTS_COPY | Document.FLAG_SUPPORTS_MOVE;
+
+        if (file.isDirectory())
+            flags |= Document.FLAG_DIR_SUPPORTS_CREATE;
+        else
+            flags |= Document.FLAG_SUPPORTS_WRITE;
+
+        cursor.newRow()
+                .add(Document.COLUMN_DOCUMENT_ID, idOf(file))
+                .add(Document.COLUMN_DISPLAY_NAME, file.getName())
+                .add(Document.COLUMN_MIME_TYPE, file.isDirectory() ? Document.MIME_TYPE_DIR : "application/octet-stream")
+                .add(Document.COLUMN_SIZE, file.length())
+                .add(Document.COLUMN_LAST_MODIFIED, file.lastModified())
+                .add(Document.COLUMN_FLAGS, flags);
+    }
+
+    @Override
+    public Cursor queryRoots(String[] projection) {
+        MatrixCursor cursor = new MatrixCursor(projection != null ? projection : ROOT_PROJECTION);
+        cursor.newRow()
+                .add(Root.COLUMN_ROOT_ID, ROOT_ID)
+                .add(Root.COLUMN_DOCUMENT_ID, ROOT_ID + ":")
+                .add(Root.COLUMN_TITLE, "Benchmark")
+                .add(Root.COLUMN_FLAGS, Root.FLAG_SUPPORTS_CREATE | Root.FLAG_SUPPORTS_IS_CHILD);
+
+        return cursor;
+    }
+
+    @Override
+    public Cursor queryDocument(String documentId, String[] projection) throws FileNotFoundException {
+        MatrixCursor cursor = new MatrixCursor(projection != null ? projection : DOCUMENT_PROJECTION);
+        addRow(cursor, fileOf(documentId));
+        return cursor;
+    }
+
+    @Override
+    public Cursor queryChildDocuments(String parentDocumentId, String[] projection, String sortOrder)
+            throws FileNotFoundException {
+        MatrixCursor cursor = new MatrixCursor(projection != null ? projection : DOCUMENT_PROJECTION);
+        File[] children = fileOf(parentDocumentId).listFiles();
+
+        if (children != null) {
+            for (File child : children)
+                addRow(cursor, child);
+        }
+
+        return cursor;
+    }
+
+    @Override
+    public ParcelFileDescriptor openDocument(String documentId, String mode, CancellationSignal signal)
+            throws FileNotFoundException {
+        return ParcelFileDescriptor.open(fileOf(documentId), ParcelFileDescriptor.parseMode(mode));
+    }
+
+    @Override
+    public boolean isChildDocument(String parentDocumentId, String documentId) {
+        return documentId.startsWith(parentDocumentId);
+    }
+
+    @Override
+    public String createDocument(String parentDocumentId, String mimeType, String displayName)
+            throws FileNotFoundException {
+        File file = new File(fileOf(parentDocumentId), displayName);
+
+        try {
+            boolean created = Document.MIME_TYPE_DIR.equals(mimeType) ? file.mkdir() : file.createNewFile();
+
+            if (!created)
+                throw new IllegalStateException(String.format("Unable to create %s", displayName));
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+
+        return idOf(file);
+    }
+
+    @Override
+    public String renameDocument(String documentId, String displayName) throws FileNotFoundException {
+        File file = fileOf(documentId);
+        File renamed = new File(file.getParentFile(), displayName);
+
+        if (!file.renameTo(renamed))
+            throw new IllegalStateException(String.format("Unable to rename %s", documentId));
+
+        return idOf(renamed);
+    }
+
+    @Override
+    public void deleteDocument(String documentId) throws FileNotFoundException {
+        if (!FileUtils.deleteQuietly(fileOf(documentId)))
+            throw new IllegalStateException(String.format("Unable to delete %s", documentId));
+    }
+
+    @Override
+    public String copyDocument(String sourceDocumentId, String targetParentDocumentId) throws FileNotFoundException {
+        File source = fileOf(sourceDocumentId);
+        File target = new File(fileOf(targetParentDocumentId), source.getName());
+
+        try {
+            if (source.isDirectory())
+                FileUtils.copyDirectory(source, target);
+            else
+                FileUtils.copyFile(source, target);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+
+        return idOf(target);
+    }
+
+    @Override
+    public String moveDocument(String sourceDocumentId, String sourceParentDocumentId, String targetParentDocumentId)
+            throws FileNotFoundException {
+        File source = fileOf(sourceDocumentId);
+        File target = new File(fileOf(targetParentDocumentId), source.getName());
+
+        if (!source.renameTo(target))
+            throw new IllegalStateException(String.format("Unable to move %s", sourceDocumentId));
+
+        return idOf(target);
+    }
+}
@@ -0,0 +1,19 @@
+package pedrog022.storageapi.benchmark;
+
+import android.content.Context;
+
+import java.io.File;
+
+import pedrog022.storageapi.storageaccess.FileProvider;
+import pedrog022.storageapi.storageaccess.StorageAccess;
+
+public class KitKatFilesBenchmark extends ProviderBenchmark {
+    public KitKatFilesBenchmark(int fileSize, int folderWidth) {
+        super(fileSize, folderWidth);
+    }
+
+    @Override
+    FileProvider createProvider(Context context, File root) {
+        return new StorageAccess.KitKatFiles(root).init(context);
+    }
+}
@@ -0,0 +1,142 @@
+package pedrog022.storageapi.benchmark;
+
+import android.content.Context;
+
+import androidx.benchmark.BenchmarkState;
+import androidx.benchmark.junit4.BenchmarkRule;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Random;
+
+import pedrog022.storageapi.storageaccess.FileProvider;
+
+/**
+ * Common read/write/copy/list/exists scenarios, run for every provider across file sizes
+ * and folder widths. The fixture lives on plain files under the target app cache folder,
+ * subclasses only decide how the provider reaches it.
+ */
+@RunWith(Parameterized.class)
+public abstract class ProviderBenchmark {
+    static final String FOLDER = "bench";
+
+    @Rule
+    public BenchmarkRule benchmarkRule = new BenchmarkRule();
+
+    private final int fileSize;
+    private final int folderWidth;
+
+    private File root;
+    private FileProvider provider;
+    private String content;
+
+    @Parameterized.Parameters(name = "size={0},width={1}")
+    public static Collection<Object[]> parameters() {
+        return Arrays.asList(new Object[][]{
+                {1024, 10},
+                {64 * 1024, 100},
+                {1024 * 1024, 1000}
+        });
+    }
+
+    ProviderBenchmark(int fileSize, int folderWidth) {
+        this.fileSize = fileSize;
+        this.folderWidth = folderWidth;
+    }
+
+    abstract FileProvider createProvider(Context context, File root) throws Exception;
+
+    @Before
+    public void setUp() throws Exception {
+        Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        root = new File(context.getCacheDir(), getClass().getSimpleName());
+        FileUtils.deleteQuietly(root);
+
+        File folder = new File(root, FOLDER);
+        File wide = new File(folder, "wide");
+        File copies = new File(folder, "copies");
+
+        if (!wide.mkdirs() || !copies.mkdirs())
+            throw new IOException("Unable to create the benchmark folders");
+
+        char[] characters = new char[fileSize];
+        Random random = new Random(7);
+
+        for (int i = 0; i < characters.length; i++)
+            characters[i] = (char) ('a' + random.nextInt(26));
+
+        content = new String(characters);
+        FileUtils.writeStringToFile(new File(folder, "data.txt"), content, FileProvider.DEFAULT_CHARSET);
+        FileUtils.writeStringToFile(new File(folder, "output.txt"), "", FileProvider.DEFAULT_CHARSET);
+
+        for (int i = 0; i < folderWidth; i++)
+            FileUtils.touch(new File(wide, "file" + i + ".txt"));
+
+        provider = createProvider(context, root);
+    }
+
+    @After
+    public void tearDown() {
+        FileUtils.deleteQuietly(root);
+    }
+
+    @Test
+    public void readFile() throws Exception {
+        BenchmarkState state = benchmarkRule.getState();
+
+        while (state.keepRunning())
+            provider.readFile(FOLDER + "/data.txt");
+    }
+
+    @Test
+    public void writeFile() throws Exception {
+        BenchmarkState state = benchmarkRule.getState();
+
+        while (state.keepRunning())
+            provider.writeFile(FOLDER + "/output.txt", content);
+    }
+
+    @Test
+    public void copyFile() throws Exception {
+        BenchmarkState state = benchmarkRule.getState();
+        String copy = FOLDER + "/copies/data.txt";
+
+        while (state.keepRunning()) {
+            provider.copyFile(FOLDER + "/data.txt", copy);
+
+            state.pauseTiming();
+            provider.deleteFile(copy);
+            state.resumeTiming();
+        }
+    }
+
+    @Test
+    public void listEntries() throws Exception {
+        BenchmarkState state = benchmarkRule.getState();
+
+        while (state.keepRunning())
+            provider.listEntries(FOLDER + "/wide");
+    }
+
+    @Test
+    public void exists() {
+        BenchmarkState state = benchmarkRule.getState();
+        int index = 0;
+
+        while (state.keepRunning()) {
+            provider.exists(FOLDER + "/wide/file" + index + ".txt");
+            index = (index + 1) % folderWidth;
+        }
+    }
+}
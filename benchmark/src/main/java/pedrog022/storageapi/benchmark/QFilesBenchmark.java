@@ -0,0 +1,34 @@
+package pedrog022.storageapi.benchmark;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.content.ContextWrapper;
+import android.test.mock.MockContentResolver;
+
+import java.io.File;
+
+import pedrog022.storageapi.storageaccess.FileProvider;
+import pedrog022.storageapi.storageaccess.StorageAccess;
+
+//Runs QFiles against FakeDocumentsProvider, so every call still goes through the
+//ContentResolver and DocumentsProvider machinery without touching shared storage.
+public class QFilesBenchmark extends ProviderBenchmark {
+    public QFilesBenchmark(int fileSize, int folderWidth) {
+        super(fileSize, folderWidth);
+    }
+
+    @Override
+    FileProvider createProvider(Context context, File root) {
+        MockContentResolver resolver = new MockContentResolver(context);
+        resolver.addProvider(FakeDocumentsProvider.AUTHORITY, new FakeDocumentsProvider(root).attach(context));
+
+        Context fakeContext = new ContextWrapper(context) {
+            @Override
+            public ContentResolver getContentResolver() {
+                return resolver;
+            }
+        };
+
+        return new StorageAccess.QFiles().init(fakeContext);
+    }
+}